@@ -0,0 +1,100 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options.
+ * Unless other options are specified, the results are written
+ * to <code>target/jmh-result.json</code> in the JSON format of JMH,
+ * so they can be compared between releases.
+ * <p>
+ * Unless profilers are specified, the GC profiler is added, so the
+ * results contain the allocated bytes per operation. The run fails,
+ * if one of the {@link #ALLOCATION_FREE_BENCHMARKS} allocates.
+ */
+public class BenchmarkRunner
+{
+    public final static String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+    public final static String ALLOCATION_RATE = "gc.alloc.rate.norm";
+    public final static String[] ALLOCATION_FREE_BENCHMARKS = new String[] {StringMatchBenchmark.class.getName()};
+    
+    // the GC profiler reports a few bytes per operation for allocation-free code
+    private final static double MAXIMUM_ALLOCATION = 1.0;
+    
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions);
+        if(!commandLineOptions.getResultFormat().hasValue())
+        {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if(!commandLineOptions.getResult().hasValue())
+        {
+            builder.result(DEFAULT_RESULT_FILE);
+        }
+        if(commandLineOptions.getProfilers().isEmpty())
+        {
+            builder.addProfiler(GCProfiler.class);
+        }
+        Collection results = new Runner(builder.build()).run();
+        if(!checkAllocations(results))
+        {
+            System.exit(1);
+        }
+    }
+    
+    private static boolean checkAllocations(Collection results)
+    {
+        boolean allocationFree = true;
+        Iterator iterator = results.iterator();
+        while(iterator.hasNext())
+        {
+            RunResult result = (RunResult)iterator.next();
+            String benchmark = result.getParams().getBenchmark();
+            if(!isAllocationFree(benchmark)) continue;
+            Result allocation = getAllocationResult(result.getSecondaryResults());
+            if(null != allocation && allocation.getScore() > MAXIMUM_ALLOCATION)
+            {
+                System.err.println(benchmark + " allocates " + allocation.getScore() + " bytes per operation");
+                allocationFree = false;
+            }
+        }
+        return allocationFree;
+    }
+    
+    private static boolean isAllocationFree(String benchmark)
+    {
+        for(int ii = 0; ii < ALLOCATION_FREE_BENCHMARKS.length; ii++)
+        {
+            if(benchmark.startsWith(ALLOCATION_FREE_BENCHMARKS[ii] + ".")) return true;
+        }
+        return false;
+    }
+    
+    private static Result getAllocationResult(Map secondaryResults)
+    {
+        // JMH prefixes the label of the GC profiler with a middle dot
+        Iterator iterator = secondaryResults.entrySet().iterator();
+        while(iterator.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            if(((String)entry.getKey()).endsWith(ALLOCATION_RATE))
+            {
+                return (Result)entry.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.mock.MockBlob;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks reading the content of a <code>MockBlob</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlobBenchmark
+{
+    @Param({"1024", "1048576"})
+    public int size;
+    
+    private MockBlob blob;
+    
+    @Setup
+    public void setUp()
+    {
+        byte[] data = new byte[size];
+        for(int ii = 0; ii < data.length; ii++)
+        {
+            data[ii] = (byte)ii;
+        }
+        blob = new MockBlob(data);
+    }
+    
+    @Benchmark
+    public byte[] getBytes() throws SQLException
+    {
+        return blob.getBytes(1, size);
+    }
+    
+    @Benchmark
+    public byte[] getBytesRange() throws SQLException
+    {
+        return blob.getBytes(size / 2, 512);
+    }
+    
+    @Benchmark
+    public long readStream() throws SQLException, IOException
+    {
+        InputStream stream = blob.getBinaryStream();
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read = stream.read(buffer);
+        while(read != -1)
+        {
+            total += read;
+            read = stream.read(buffer);
+        }
+        return total;
+    }
+}
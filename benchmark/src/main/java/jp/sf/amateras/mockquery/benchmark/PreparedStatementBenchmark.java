@@ -0,0 +1,63 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.PreparedStatementResultSetHandler;
+import jp.sf.amateras.mockquery.mock.JDBCMockObjectFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks <code>MockPreparedStatement.executeUpdate</code>
+ * with update counts that were prepared for different parameters.
+ * The execution history is bounded, so the invocations do not
+ * measure a growing history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreparedStatementBenchmark
+{
+    private final static String SQL = "update customer set name = ? where id = ?";
+    private final static int HISTORY_CAPACITY = 1024;
+    
+    @Param({"10", "1000", "10000"})
+    public int fixtures;
+    
+    @Param({"false", "true"})
+    public boolean exactMatchParameter;
+    
+    private PreparedStatement statement;
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException
+    {
+        JDBCMockObjectFactory factory = new JDBCMockObjectFactory();
+        PreparedStatementResultSetHandler handler = factory.getMockConnection().getPreparedStatementResultSetHandler();
+        handler.setExecutionHistoryCapacity(HISTORY_CAPACITY);
+        handler.setExactMatchParameter(exactMatchParameter);
+        for(int ii = 0; ii < fixtures; ii++)
+        {
+            handler.prepareUpdateCount(SQL, 1, new Object[] {"name" + ii, new Integer(ii)});
+        }
+        statement = factory.getMockConnection().prepareStatement(SQL);
+        statement.setString(1, "name" + (fixtures - 1));
+        statement.setInt(2, fixtures - 1);
+    }
+    
+    @Benchmark
+    public int executeUpdate() throws SQLException
+    {
+        return statement.executeUpdate();
+    }
+}
@@ -0,0 +1,78 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks <code>MockResultSet.clone</code>, which is called
+ * for each executed query, and iterating over the rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResultSetBenchmark
+{
+    @Param({"100", "10000"})
+    public int rows;
+    
+    private MockResultSet resultSet;
+    
+    @Setup
+    public void setUp()
+    {
+        resultSet = new MockResultSet("benchmark");
+        Object[] ids = new Object[rows];
+        Object[] names = new Object[rows];
+        Object[] amounts = new Object[rows];
+        for(int ii = 0; ii < rows; ii++)
+        {
+            ids[ii] = new Integer(ii);
+            names[ii] = "name" + ii;
+            amounts[ii] = new Double(ii * 1.5);
+        }
+        resultSet.addColumn("id", ids);
+        resultSet.addColumn("name", names);
+        resultSet.addColumn("amount", amounts);
+    }
+    
+    @Benchmark
+    public Object cloneResultSet()
+    {
+        return resultSet.clone();
+    }
+    
+    @Benchmark
+    public long iterate() throws SQLException
+    {
+        MockResultSet current = (MockResultSet)resultSet.clone();
+        long sum = 0;
+        while(current.next())
+        {
+            sum += current.getInt(1);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public long iterateByName() throws SQLException
+    {
+        MockResultSet current = (MockResultSet)resultSet.clone();
+        long sum = 0;
+        while(current.next())
+        {
+            sum += current.getInt("id");
+        }
+        return sum;
+    }
+}
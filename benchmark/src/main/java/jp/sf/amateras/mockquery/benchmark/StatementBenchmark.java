@@ -0,0 +1,86 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.StatementResolutionCache;
+import jp.sf.amateras.mockquery.StatementResultSetHandler;
+import jp.sf.amateras.mockquery.mock.JDBCMockObjectFactory;
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks <code>MockStatement.executeQuery</code> with
+ * a growing number of prepared result sets. <code>executeQuery</code>
+ * executes the same SQL string repeatedly, so it is resolved from the
+ * <code>StatementResolutionCache</code> after the first invocation.
+ * <code>executeQueryUncached</code> clears the cache before each
+ * invocation, so it measures the lookup of the prepared result sets.
+ * The execution history is bounded, so the invocations do not
+ * measure a growing history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatementBenchmark
+{
+    private final static int HISTORY_CAPACITY = 1024;
+    
+    @Param({"10", "1000", "100000"})
+    public int fixtures;
+    
+    @Param({"contains", "exact", "regex"})
+    public String matchMode;
+    
+    private Statement statement;
+    private StatementResolutionCache resolutionCache;
+    private String sql;
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException
+    {
+        JDBCMockObjectFactory factory = new JDBCMockObjectFactory();
+        StatementResultSetHandler handler = factory.getMockConnection().getStatementResultSetHandler();
+        handler.setExecutionHistoryCapacity(HISTORY_CAPACITY);
+        handler.setExactMatch("exact".equals(matchMode));
+        handler.setUseRegularExpressions("regex".equals(matchMode));
+        for(int ii = 0; ii < fixtures; ii++)
+        {
+            MockResultSet resultSet = handler.createResultSet("result" + ii);
+            resultSet.addColumn("id", new Object[] {new Integer(ii)});
+            String key = "select * from table" + ii + " where id = ?";
+            if("regex".equals(matchMode))
+            {
+                key = "select \\* from table" + ii + " where .*";
+            }
+            handler.prepareResultSet(key, resultSet);
+        }
+        resolutionCache = handler.getStatementResolutionCache();
+        sql = "select * from table" + (fixtures / 2) + " where id = ?";
+        statement = factory.getMockConnection().createStatement();
+    }
+    
+    @Benchmark
+    public ResultSet executeQuery() throws SQLException
+    {
+        return statement.executeQuery(sql);
+    }
+    
+    @Benchmark
+    public ResultSet executeQueryUncached() throws SQLException
+    {
+        resolutionCache.clear();
+        return statement.executeQuery(sql);
+    }
+}
@@ -0,0 +1,47 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.util.StringUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the case insensitive string comparisons of
+ * <code>StringUtil</code>. A comparison must not allocate memory.
+ * The {@link BenchmarkRunner} measures the allocated bytes with the
+ * GC profiler and fails, if <code>gc.alloc.rate.norm</code> is not 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringMatchBenchmark
+{
+    public String sql = "SELECT ID, NAME, AMOUNT FROM CUSTOMER WHERE ID = ? AND NAME LIKE ?";
+    public String containedKey = "from customer where id";
+    public String missingKey = "from orders where id";
+    public String exactKey = "select id, name, amount from customer where id = ? and name like ?";
+    
+    @Benchmark
+    public boolean matchesContains()
+    {
+        return StringUtil.matchesContains(sql, containedKey, false);
+    }
+    
+    @Benchmark
+    public boolean matchesContainsMissing()
+    {
+        return StringUtil.matchesContains(sql, missingKey, false);
+    }
+    
+    @Benchmark
+    public boolean matchesExact()
+    {
+        return StringUtil.matchesExact(sql, exactKey, false);
+    }
+}
@@ -0,0 +1,76 @@
+package jp.sf.amateras.mockquery.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.amateras.mockquery.JDBCTestModule;
+import jp.sf.amateras.mockquery.PreparedStatementResultSetHandler;
+import jp.sf.amateras.mockquery.StatementResultSetHandler;
+import jp.sf.amateras.mockquery.mock.JDBCMockObjectFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the <code>verify</code> methods of <code>JDBCTestModule</code>
+ * with a large number of executed statements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VerifyBenchmark
+{
+    @Param({"1000", "100000"})
+    public int history;
+    
+    private JDBCTestModule module;
+    private String lastStatement;
+    private String lastPreparedStatement;
+    private Map lastParameters;
+    
+    @Setup
+    public void setUp()
+    {
+        JDBCMockObjectFactory factory = new JDBCMockObjectFactory();
+        StatementResultSetHandler statementHandler = factory.getMockConnection().getStatementResultSetHandler();
+        PreparedStatementResultSetHandler preparedHandler = factory.getMockConnection().getPreparedStatementResultSetHandler();
+        for(int ii = 0; ii < history; ii++)
+        {
+            statementHandler.addExecutedStatement("select * from table" + ii);
+            Map parameters = new HashMap();
+            parameters.put(new Integer(1), new Integer(ii));
+            preparedHandler.addExecutedStatement("update table" + ii + " set value = ?");
+            preparedHandler.addParameterMapForExecutedStatement("update table" + ii + " set value = ?", parameters);
+        }
+        lastStatement = "select * from table" + (history - 1);
+        lastPreparedStatement = "update table" + (history - 1) + " set value = ?";
+        lastParameters = new HashMap();
+        lastParameters.put(new Integer(1), new Integer(history - 1));
+        module = new JDBCTestModule(factory);
+    }
+    
+    @Benchmark
+    public void verifySQLStatementExecuted()
+    {
+        module.verifySQLStatementExecuted(lastStatement);
+    }
+    
+    @Benchmark
+    public void verifySQLStatementNotExecuted()
+    {
+        module.verifySQLStatementNotExecuted("delete from table");
+    }
+    
+    @Benchmark
+    public void verifySQLStatementParameter()
+    {
+        module.verifySQLStatementParameter(lastPreparedStatement, 0, lastParameters);
+    }
+}
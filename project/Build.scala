@@ -0,0 +1,27 @@
+import sbt._
+import Keys._
+
+object MockQueryBuild extends Build {
+
+  val jmhVersion = "1.21"
+
+  lazy val root = Project("mockquery", file("."))
+
+  // JMH benchmarks, not aggregated by the root project and not published.
+  // Run with: sbt "benchmark/run [JMH options]"
+  lazy val benchmark = Project("benchmark", file("benchmark"), settings = Defaults.defaultSettings ++ Seq(
+    name := "mockquery-benchmark",
+    organization := "jp.sf.amateras.mockquery",
+    scalaVersion := "2.9.1",
+    autoScalaLibrary := false,
+    crossPaths := false,
+    libraryDependencies ++= Seq(
+      "org.openjdk.jmh" % "jmh-core" % jmhVersion,
+      "org.openjdk.jmh" % "jmh-generator-annprocess" % jmhVersion
+    ),
+    javacOptions ++= Seq("-source", "1.7", "-target", "1.7"),
+    mainClass in (Compile, run) := Some("jp.sf.amateras.mockquery.benchmark.BenchmarkRunner"),
+    fork in run := true,
+    publishArtifact := false
+  )) dependsOn(root)
+}
@@ -1,11 +1,10 @@
 package jp.sf.amateras.mockquery;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Abstract base class for all statement types
@@ -15,8 +14,8 @@ public abstract class AbstractOutParameterResultSetHandler extends AbstractParam
 {
     private boolean mustRegisterOutParameters = false;
     private Map globalOutParameter = null;
-    private Map outParameterForStatement = new TreeMap();
-    private Map outParameterForStatementParameters = new TreeMap();
+    private SQLStatementMap outParameterForStatement = new SQLStatementMap();
+    private SQLStatementMap outParameterForStatementParameters = new SQLStatementMap();
     
     /**
      * Set if out parameters must be registered to be returned.
@@ -52,13 +51,7 @@ public abstract class AbstractOutParameterResultSetHandler extends AbstractParam
      */
     public Map getOutParameter(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(outParameterForStatement, sql, true, true);
-        if(null != list && list.size() > 0)
-        {
-            return (Map)list.get(0);
-        }
-        return null;
+        return (Map)outParameterForStatement.getFirstMatchingObject(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -187,13 +180,61 @@ public abstract class AbstractOutParameterResultSetHandler extends AbstractParam
      */
     public void prepareOutParameter(String sql, Map outParameters, Map parameters)
     {
-        List list = (List)outParameterForStatementParameters.get(sql);
-        if(null == list)
+        addParameterWrapper(sql, outParameterForStatementParameters, new MockOutParameterWrapper(new HashMap(outParameters), new HashMap(parameters)));
+    }
+    
+    void writeSnapshot(HandlerSnapshot.Output out)
+    {
+        super.writeSnapshot(out);
+        out.writeRecord(HandlerSnapshot.OUT_PARAMETER_SETTINGS);
+        out.writeBoolean(mustRegisterOutParameters);
+        if(null != globalOutParameter)
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_OUT_PARAMETER);
+            out.writeMap(globalOutParameter);
+        }
+        Iterator entries = outParameterForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            out.writeRecord(HandlerSnapshot.OUT_PARAMETER);
+            out.writeString((String)entry.getKey());
+            out.writeMap((Map)entry.getValue());
+        }
+        entries = outParameterForStatementParameters.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            List wrappers = (List)entry.getValue();
+            for(int ii = 0; ii < wrappers.size(); ii++)
+            {
+                MockOutParameterWrapper wrapper = (MockOutParameterWrapper)wrappers.get(ii);
+                out.writeRecord(HandlerSnapshot.PARAMETER_OUT_PARAMETER);
+                out.writeString((String)entry.getKey());
+                out.writeMap(wrapper.getOutParameter());
+                out.writeMap(wrapper.getParamters());
+            }
+        }
+    }
+    
+    boolean readSnapshotRecord(int tag, HandlerSnapshot.Input in)
+    {
+        switch(tag)
         {
-            list = new ArrayList();
-            outParameterForStatementParameters.put(sql, list);
+            case HandlerSnapshot.OUT_PARAMETER_SETTINGS:
+                setMustRegisterOutParameters(in.readBoolean());
+                return true;
+            case HandlerSnapshot.GLOBAL_OUT_PARAMETER:
+                prepareGlobalOutParameter(in.readMap());
+                return true;
+            case HandlerSnapshot.OUT_PARAMETER:
+                prepareOutParameter(in.readString(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_OUT_PARAMETER:
+                prepareOutParameter(in.readString(), in.readMap(), in.readMap());
+                return true;
         }
-        list.add(new MockOutParameterWrapper(new HashMap(outParameters), new HashMap(parameters)));
+        return super.readSnapshotRecord(tag, in);
     }
     
     private class MockOutParameterWrapper extends ParameterWrapper
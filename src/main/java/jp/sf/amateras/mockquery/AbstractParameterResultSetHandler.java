@@ -1,13 +1,19 @@
 package jp.sf.amateras.mockquery;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import jp.sf.amateras.mockquery.mock.MockResultSet;
@@ -22,10 +28,10 @@ import jp.sf.amateras.mockquery.util.ParameterUtil;
 public abstract class AbstractParameterResultSetHandler extends AbstractResultSetHandler
 {
     private boolean exactMatchParameter = false;
-    private Map resultSetsForStatement = new TreeMap();
-    private Map updateCountForStatement = new TreeMap();
-    private Map throwsSQLException = new TreeMap();
-    private Map generatedKeysForStatement = new TreeMap();
+    private SQLStatementMap resultSetsForStatement = new SQLStatementMap();
+    private SQLStatementMap updateCountForStatement = new SQLStatementMap();
+    private SQLStatementMap throwsSQLException = new SQLStatementMap();
+    private SQLStatementMap generatedKeysForStatement = new SQLStatementMap();
 	private Map executedStatementParameters = new TreeMap();
     
 	/**
@@ -37,9 +43,10 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
 	{
 		if(null != parameters)
 		{
+			sql = canonicalizeSQL(sql);
 			if(null == executedStatementParameters.get(sql))
 			{
-				executedStatementParameters.put(sql, new ParameterSets(sql));
+				executedStatementParameters.put(sql, new ParameterSets(sql, getExecutionHistoryCapacity()));
 			}
 			ParameterSets sets = (ParameterSets)executedStatementParameters.get(sql);
 			sets.addParameterSet(parameters);
@@ -54,7 +61,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
 	 */
 	public ParameterSets getParametersForExecutedStatement(String sql)
 	{
-		return (ParameterSets)executedStatementParameters.get(sql);
+		return (ParameterSets)executedStatementParameters.get(canonicalizeSQL(sql));
 	}
 	
 	/**
@@ -68,6 +75,19 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
 		return Collections.unmodifiableMap(executedStatementParameters);
 	}
     
+    /**
+     * Sets the capacity of the execution histories. In addition to
+     * {@link AbstractResultSetHandler#setExecutionHistoryCapacity}, the
+     * capacity limits the parameter sets of each {@link ParameterSets}
+     * object. The current parameter sets are cleared.
+     * @param capacity the capacity
+     */
+    public void setExecutionHistoryCapacity(int capacity)
+    {
+        super.setExecutionHistoryCapacity(capacity);
+        executedStatementParameters = new TreeMap();
+    }
+    
     /**
      * @deprecated use {@link #getExecutedStatementParameterMap}
      */
@@ -88,6 +108,40 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
     public void setExactMatchParameter(boolean exactMatchParameter)
     {
         this.exactMatchParameter = exactMatchParameter;
+        increaseVersion();
+    }
+
+    /**
+     * Returns the {@link StatementResolution} for the specified SQL string
+     * and the specified parameters. The results that were prepared for the
+     * parameters take precedence over the results that were prepared
+     * for the SQL string only.
+     * Please note that you can modify the match parameters with 
+     * {@link #setCaseSensitive}, {@link #setExactMatch} and 
+     * {@link #setUseRegularExpressions} and the match parameters for the 
+     * specified parameter list with {@link #setExactMatchParameter}.
+     * @param sql the SQL string
+     * @param parameters the parameters
+     * @return the <code>StatementResolution</code>
+     */
+    public StatementResolution resolveStatement(String sql, Map parameters)
+    {
+        sql = canonicalizeSQL(sql);
+        StatementResolutionCache cache = getStatementResolutionCache();
+        if(!ParameterResolutionKey.isCacheable(parameters))
+        {
+            cache.countMiss();
+            return new ParameterStatementResolution(sql, parameters);
+        }
+        ParameterResolutionKey key = new ParameterResolutionKey(sql, parameters);
+        long currentVersion = getVersion();
+        StatementResolution resolution = cache.get(key, currentVersion);
+        if(null == resolution)
+        {
+            resolution = new ParameterStatementResolution(sql, key.getParameters());
+            cache.put(key, resolution, currentVersion);
+        }
+        return resolution;
     }
 
     /**
@@ -289,13 +343,61 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
         return null;
     }
 
-    protected ParameterWrapper getMatchingParameterWrapper(String sql, Map parameters, Map statementMap)
+    protected ParameterWrapper getMatchingParameterWrapper(String sql, Map parameters, SQLStatementMap statementMap)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(statementMap, sql, true, true);
+        List list = statementMap.getMatchingObjects(getSQLStatementMatcher(), sql, false);
         for(int ii = 0; ii < list.size(); ii++)
         {
-            ParameterWrapper wrapper = (ParameterWrapper)list.get(ii);
+            ParameterWrapper wrapper = getMatchingParameterWrapper(list.get(ii), parameters);
+            if(null != wrapper)
+            {
+                return wrapper;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the prepared SQL string of the wrapper that
+     * {@link #getMatchingParameterWrapper(String, Map, SQLStatementMap)}
+     * returns, as it was prepared.
+     * @param sql the SQL string
+     * @param parameters the parameters
+     * @param statementMap the prepared objects
+     * @return the prepared SQL string or <code>null</code>
+     */
+    protected String getMatchingParameterKey(String sql, Map parameters, SQLStatementMap statementMap)
+    {
+        List list = statementMap.getMatchingObjects(getSQLStatementMatcher(), sql, false);
+        List keys = statementMap.getMatchingKeys(getSQLStatementMatcher(), sql);
+        for(int ii = 0; ii < list.size(); ii++)
+        {
+            if(null != getMatchingParameterWrapper(list.get(ii), parameters))
+            {
+                return (String)keys.get(ii);
+            }
+        }
+        return null;
+    }
+    
+    private ParameterWrapper getMatchingParameterWrapper(Object current, Map parameters)
+    {
+        if(current instanceof ParameterWrapperList)
+        {
+            return ((ParameterWrapperList)current).getMatchingParameterWrapper(parameters);
+        }
+        else if(current instanceof List)
+        {
+            return getMatchingParameterWrapper((List)current, parameters);
+        }
+        return null;
+    }
+    
+    private ParameterWrapper getMatchingParameterWrapper(List wrappers, Map parameters)
+    {
+        for(int ii = 0; ii < wrappers.size(); ii++)
+        {
+            ParameterWrapper wrapper = (ParameterWrapper)wrappers.get(ii);
             if(doParameterMatch(wrapper.getParamters(), parameters))
             {
                 return wrapper;
@@ -344,8 +446,8 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void clearResultSets()
     {
-        super.clearResultSets();
         resultSetsForStatement.clear();
+        super.clearResultSets();
     }
     
     /**
@@ -353,8 +455,8 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void clearUpdateCounts()
     {
-        super.clearUpdateCounts();
         updateCountForStatement.clear();
+        super.clearUpdateCounts();
     }
     
     /**
@@ -362,8 +464,8 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void clearThrowsSQLException()
     {
-        super.clearThrowsSQLException();
         throwsSQLException.clear();
+        super.clearThrowsSQLException();
     }
     
     /**
@@ -371,8 +473,8 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void clearGeneratedKeys()
     {
-        super.clearGeneratedKeys();
         generatedKeysForStatement.clear();
+        super.clearGeneratedKeys();
     }
 
     /**
@@ -480,8 +582,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareResultSet(String sql, MockResultSet resultSet, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, resultSetsForStatement);
-        list.add(new MockResultSetWrapper(resultSet, new HashMap(parameters)));
+        addParameterWrapper(sql, resultSetsForStatement, new MockResultSetWrapper(resultSet, new HashMap(parameters)));
     }
     
     /**
@@ -502,8 +603,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareResultSets(String sql, MockResultSet[] resultSets, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, resultSetsForStatement);
-        list.add(new MockResultSetArrayWrapper((MockResultSet[])resultSets.clone(), new HashMap(parameters)));
+        addParameterWrapper(sql, resultSetsForStatement, new MockResultSetArrayWrapper((MockResultSet[])resultSets.clone(), new HashMap(parameters)));
     }
     
     /**
@@ -650,8 +750,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareThrowsSQLException(String sql, SQLException exc, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, throwsSQLException);
-        list.add(new MockSQLExceptionWrapper(exc, new HashMap(parameters)));
+        addParameterWrapper(sql, throwsSQLException, new MockSQLExceptionWrapper(exc, new HashMap(parameters)));
     }
 
     /**
@@ -759,8 +858,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareUpdateCount(String sql, int updateCount, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, updateCountForStatement);
-        list.add(new MockUpdateCountWrapper(updateCount, new HashMap(parameters)));
+        addParameterWrapper(sql, updateCountForStatement, new MockUpdateCountWrapper(updateCount, new HashMap(parameters)));
     }
     
     /**
@@ -781,8 +879,7 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareUpdateCounts(String sql, int[] updateCounts, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, updateCountForStatement);
-        list.add(new MockUpdateCountArrayWrapper((int[])updateCounts.clone(), new HashMap(parameters)));
+        addParameterWrapper(sql, updateCountForStatement, new MockUpdateCountArrayWrapper((int[])updateCounts.clone(), new HashMap(parameters)));
     }
     
     /**
@@ -847,21 +944,161 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
      */
     public void prepareGeneratedKeys(String sql, MockResultSet generatedKeysResult, Map parameters)
     {
-        List list = getListFromMapForSQLStatement(sql, generatedKeysForStatement);
-        list.add(new MockResultSetWrapper(generatedKeysResult, new HashMap(parameters)));
+        addParameterWrapper(sql, generatedKeysForStatement, new MockResultSetWrapper(generatedKeysResult, new HashMap(parameters)));
+    }
+    
+    void writeSnapshot(HandlerSnapshot.Output out)
+    {
+        super.writeSnapshot(out);
+        out.writeRecord(HandlerSnapshot.PARAMETER_SETTINGS);
+        out.writeBoolean(exactMatchParameter);
+        Iterator entries = resultSetsForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            List wrappers = (List)entry.getValue();
+            for(int ii = 0; ii < wrappers.size(); ii++)
+            {
+                Object wrapper = wrappers.get(ii);
+                if(wrapper instanceof MockResultSetArrayWrapper)
+                {
+                    out.writeRecord(HandlerSnapshot.PARAMETER_RESULT_SETS);
+                    out.writeString((String)entry.getKey());
+                    out.writeResultSets(((MockResultSetArrayWrapper)wrapper).getResultSets());
+                    out.writeMap(((ParameterWrapper)wrapper).getParamters());
+                }
+                else
+                {
+                    out.writeRecord(HandlerSnapshot.PARAMETER_RESULT_SET);
+                    out.writeString((String)entry.getKey());
+                    out.writeResultSet(((MockResultSetWrapper)wrapper).getResultSet());
+                    out.writeMap(((ParameterWrapper)wrapper).getParamters());
+                }
+            }
+        }
+        entries = updateCountForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            List wrappers = (List)entry.getValue();
+            for(int ii = 0; ii < wrappers.size(); ii++)
+            {
+                Object wrapper = wrappers.get(ii);
+                if(wrapper instanceof MockUpdateCountArrayWrapper)
+                {
+                    Integer[] updateCounts = ((MockUpdateCountArrayWrapper)wrapper).getUpdateCount();
+                    out.writeRecord(HandlerSnapshot.PARAMETER_UPDATE_COUNTS);
+                    out.writeString((String)entry.getKey());
+                    out.writeIntArray((int[])ArrayUtil.convertToPrimitiveArray(updateCounts));
+                    out.writeMap(((ParameterWrapper)wrapper).getParamters());
+                }
+                else
+                {
+                    out.writeRecord(HandlerSnapshot.PARAMETER_UPDATE_COUNT);
+                    out.writeString((String)entry.getKey());
+                    out.writeSignedVarInt(((MockUpdateCountWrapper)wrapper).getUpdateCount().intValue());
+                    out.writeMap(((ParameterWrapper)wrapper).getParamters());
+                }
+            }
+        }
+        entries = generatedKeysForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            List wrappers = (List)entry.getValue();
+            for(int ii = 0; ii < wrappers.size(); ii++)
+            {
+                MockResultSetWrapper wrapper = (MockResultSetWrapper)wrappers.get(ii);
+                out.writeRecord(HandlerSnapshot.PARAMETER_GENERATED_KEYS);
+                out.writeString((String)entry.getKey());
+                out.writeResultSet(wrapper.getResultSet());
+                out.writeMap(wrapper.getParamters());
+            }
+        }
+        entries = throwsSQLException.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            List wrappers = (List)entry.getValue();
+            for(int ii = 0; ii < wrappers.size(); ii++)
+            {
+                MockSQLExceptionWrapper wrapper = (MockSQLExceptionWrapper)wrappers.get(ii);
+                out.writeRecord(HandlerSnapshot.PARAMETER_THROWS_SQL_EXCEPTION);
+                out.writeString((String)entry.getKey());
+                out.writeSQLException(wrapper.getException());
+                out.writeMap(wrapper.getParamters());
+            }
+        }
+    }
+    
+    boolean readSnapshotRecord(int tag, HandlerSnapshot.Input in)
+    {
+        switch(tag)
+        {
+            case HandlerSnapshot.PARAMETER_SETTINGS:
+                setExactMatchParameter(in.readBoolean());
+                return true;
+            case HandlerSnapshot.PARAMETER_RESULT_SET:
+                prepareResultSet(in.readString(), in.readResultSet(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_RESULT_SETS:
+                prepareResultSets(in.readString(), in.readResultSets(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_UPDATE_COUNT:
+                prepareUpdateCount(in.readString(), in.readSignedVarInt(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_UPDATE_COUNTS:
+                prepareUpdateCounts(in.readString(), in.readIntArray(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_GENERATED_KEYS:
+                prepareGeneratedKeys(in.readString(), in.readResultSet(), in.readMap());
+                return true;
+            case HandlerSnapshot.PARAMETER_THROWS_SQL_EXCEPTION:
+                prepareThrowsSQLException(in.readString(), in.readSQLException(), in.readMap());
+                return true;
+        }
+        return super.readSnapshotRecord(tag, in);
     }
     
-    private List getListFromMapForSQLStatement(String sql, Map map)
+    /**
+     * Returns the list of {@link ParameterWrapper} objects for the specified
+     * SQL string. The list is created, if it does not exist. The list
+     * indexes the wrappers by their parameter values, so 
+     * {@link #getMatchingParameterWrapper} does not have to compare the
+     * parameters of each wrapper. Subclasses should use this method to
+     * register their own parameter dependent results. Subclasses that
+     * modify the list must call {@link #increaseVersion} afterwards, or
+     * use {@link #addParameterWrapper}.
+     * @param sql the SQL string
+     * @param map the <code>SQLStatementMap</code>
+     * @return the list of wrappers for the SQL string
+     */
+    protected List getListFromMapForSQLStatement(String sql, SQLStatementMap map)
     {
         List list = (List)map.get(sql);
         if(null == list)
         {
-            list = new ArrayList();
+            list = new ParameterWrapperList();
             map.put(sql, list);
         }
         return list;
     }
     
+    /**
+     * Adds the specified wrapper to the list of wrappers for the
+     * specified SQL string. The version is increased after the
+     * wrapper was added, so no resolution can be cached for the
+     * new version before the wrapper is visible.
+     * @param sql the SQL string
+     * @param map the <code>SQLStatementMap</code>
+     * @param wrapper the <code>ParameterWrapper</code>
+     */
+    protected void addParameterWrapper(String sql, SQLStatementMap map, ParameterWrapper wrapper)
+    {
+        getListFromMapForSQLStatement(sql, map).add(wrapper);
+        increaseVersion();
+    }
+    
     private Map createParameterMap(List parameters)
     {
         Map params = new HashMap();
@@ -872,6 +1109,412 @@ public abstract class AbstractParameterResultSetHandler extends AbstractResultSe
         return params;
     }
     
+    private class ParameterStatementResolution extends StatementResolution
+    {
+        private Map parameters;
+        
+        public ParameterStatementResolution(String sql, Map parameters)
+        {
+            super(AbstractParameterResultSetHandler.this, sql);
+            this.parameters = parameters;
+        }
+        
+        protected SQLException resolveSQLException()
+        {
+            SQLException exception = AbstractParameterResultSetHandler.this.getSQLException(getSQL(), parameters);
+            if(null != exception) return exception;
+            return super.resolveSQLException();
+        }
+
+        protected Object resolveResultSets()
+        {
+            ParameterWrapper wrapper = getMatchingParameterWrapper(getSQL(), parameters, resultSetsForStatement);
+            if(wrapper instanceof MockResultSetWrapper)
+            {
+                return ((MockResultSetWrapper)wrapper).getResultSet();
+            }
+            else if(wrapper instanceof MockResultSetArrayWrapper)
+            {
+                return ((MockResultSetArrayWrapper)wrapper).getResultSets();
+            }
+            return super.resolveResultSets();
+        }
+
+        protected Object resolveUpdateCounts()
+        {
+            ParameterWrapper wrapper = getMatchingParameterWrapper(getSQL(), parameters, updateCountForStatement);
+            if(wrapper instanceof MockUpdateCountWrapper)
+            {
+                return ((MockUpdateCountWrapper)wrapper).getUpdateCount();
+            }
+            else if(wrapper instanceof MockUpdateCountArrayWrapper)
+            {
+                return ((MockUpdateCountArrayWrapper)wrapper).getUpdateCount();
+            }
+            return super.resolveUpdateCounts();
+        }
+
+        protected MockResultSet resolveGeneratedKeys()
+        {
+            MockResultSet generatedKeys = AbstractParameterResultSetHandler.this.getGeneratedKeys(getSQL(), parameters);
+            if(null != generatedKeys) return generatedKeys;
+            return super.resolveGeneratedKeys();
+        }
+
+        protected String resolveSQLExceptionKey()
+        {
+            String key = getMatchingParameterKey(getSQL(), parameters, throwsSQLException);
+            if(null != key) return key;
+            return super.resolveSQLExceptionKey();
+        }
+
+        protected String resolveResultSetKey()
+        {
+            String key = getMatchingParameterKey(getSQL(), parameters, resultSetsForStatement);
+            if(null != key) return key;
+            return super.resolveResultSetKey();
+        }
+
+        protected String resolveUpdateCountKey()
+        {
+            String key = getMatchingParameterKey(getSQL(), parameters, updateCountForStatement);
+            if(null != key) return key;
+            return super.resolveUpdateCountKey();
+        }
+    }
+    
+    /**
+     * List of {@link ParameterWrapper} objects with an index of the
+     * parameter values. The wrappers are grouped by the keys of their 
+     * parameters. Within a group, the wrappers are hashed by their 
+     * parameter values with {@link ParameterUtil#computeHashCode}, 
+     * so only wrappers with the same hash code have to be compared with 
+     * {@link #doParameterMatch}. Wrappers with parameters that cannot
+     * be hashed are compared in any case. The index is rebuilt after 
+     * the list was modified, i.e. every modifying method increases the
+     * version of the list. Expected parameters must not be modified 
+     * after they were prepared.
+     */
+    private class ParameterWrapperList extends ArrayList
+    {
+        private volatile ParameterWrapperIndex index;
+        private volatile int version;
+        
+        public ParameterWrapper getMatchingParameterWrapper(Map parameters)
+        {
+            ParameterWrapperIndex currentIndex = index;
+            int currentVersion = version;
+            if(null == currentIndex || currentIndex.version != currentVersion)
+            {
+                currentIndex = new ParameterWrapperIndex(toArray(), currentVersion);
+                index = currentIndex;
+            }
+            return currentIndex.getMatchingParameterWrapper(parameters);
+        }
+        
+        public boolean add(Object object)
+        {
+            boolean result = super.add(object);
+            version++;
+            return result;
+        }
+        
+        public void add(int position, Object object)
+        {
+            super.add(position, object);
+            version++;
+        }
+        
+        public boolean addAll(Collection collection)
+        {
+            boolean result = super.addAll(collection);
+            version++;
+            return result;
+        }
+        
+        public boolean addAll(int position, Collection collection)
+        {
+            boolean result = super.addAll(position, collection);
+            version++;
+            return result;
+        }
+        
+        public Object set(int position, Object object)
+        {
+            Object result = super.set(position, object);
+            version++;
+            return result;
+        }
+        
+        public Object remove(int position)
+        {
+            Object result = super.remove(position);
+            version++;
+            return result;
+        }
+        
+        public boolean remove(Object object)
+        {
+            boolean result = super.remove(object);
+            version++;
+            return result;
+        }
+        
+        public boolean removeAll(Collection collection)
+        {
+            boolean result = super.removeAll(collection);
+            version++;
+            return result;
+        }
+        
+        public boolean retainAll(Collection collection)
+        {
+            boolean result = super.retainAll(collection);
+            version++;
+            return result;
+        }
+        
+        public void clear()
+        {
+            super.clear();
+            version++;
+        }
+        
+        protected void removeRange(int fromIndex, int toIndex)
+        {
+            super.removeRange(fromIndex, toIndex);
+            version++;
+        }
+    }
+    
+    private class ParameterWrapperIndex
+    {
+        private final Object[] wrappers;
+        private final int version;
+        private final ParameterGroup[] groups;
+        
+        public ParameterWrapperIndex(Object[] wrappers, int version)
+        {
+            this.wrappers = wrappers;
+            this.version = version;
+            Map groupMap = new LinkedHashMap();
+            for(int ii = 0; ii < wrappers.length; ii++)
+            {
+                Map expectedParameters = ((ParameterWrapper)wrappers[ii]).getParamters();
+                Set keys = expectedParameters.keySet();
+                ParameterGroup group = (ParameterGroup)groupMap.get(keys);
+                if(null == group)
+                {
+                    group = new ParameterGroup(new HashSet(keys));
+                    groupMap.put(group.keys, group);
+                }
+                group.add(ii, expectedParameters);
+            }
+            groups = (ParameterGroup[])groupMap.values().toArray(new ParameterGroup[groupMap.size()]);
+            for(int ii = 0; ii < groups.length; ii++)
+            {
+                groups[ii].finish();
+            }
+        }
+        
+        public ParameterWrapper getMatchingParameterWrapper(Map actualParameters)
+        {
+            int bestPosition = wrappers.length;
+            for(int ii = 0; ii < groups.length; ii++)
+            {
+                ParameterGroup group = groups[ii];
+                int[] candidates;
+                if(exactMatchParameter)
+                {
+                    if(group.keys.size() != actualParameters.size()) continue;
+                    if(group.keys.equals(actualParameters.keySet()))
+                    {
+                        candidates = group.getCandidates(actualParameters);
+                    }
+                    else
+                    {
+                        candidates = group.all;
+                    }
+                }
+                else
+                {
+                    if(!actualParameters.keySet().containsAll(group.keys)) continue;
+                    candidates = group.getCandidates(actualParameters);
+                }
+                for(int kk = 0; kk < candidates.length && candidates[kk] < bestPosition; kk++)
+                {
+                    ParameterWrapper wrapper = (ParameterWrapper)wrappers[candidates[kk]];
+                    if(doParameterMatch(wrapper.getParamters(), actualParameters))
+                    {
+                        bestPosition = candidates[kk];
+                        break;
+                    }
+                }
+            }
+            if(bestPosition < wrappers.length)
+            {
+                return (ParameterWrapper)wrappers[bestPosition];
+            }
+            return null;
+        }
+    }
+    
+    private static class ParameterGroup
+    {
+        private final Set keys;
+        private final Object[] keyArray;
+        private Map hashedPositions = new HashMap();
+        private List unhashablePositions = new ArrayList();
+        private List allPositions = new ArrayList();
+        private int[] unhashable;
+        private int[] all;
+        
+        public ParameterGroup(Set keys)
+        {
+            this.keys = keys;
+            this.keyArray = keys.toArray();
+        }
+        
+        public void add(int position, Map expectedParameters)
+        {
+            Integer currentPosition = new Integer(position);
+            allPositions.add(currentPosition);
+            if(!isHashable(expectedParameters))
+            {
+                unhashablePositions.add(currentPosition);
+                return;
+            }
+            Integer hashCode = new Integer(computeHashCode(expectedParameters));
+            List positions = (List)hashedPositions.get(hashCode);
+            if(null == positions)
+            {
+                positions = new ArrayList();
+                hashedPositions.put(hashCode, positions);
+            }
+            positions.add(currentPosition);
+        }
+        
+        public void finish()
+        {
+            Iterator iterator = hashedPositions.entrySet().iterator();
+            while(iterator.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)iterator.next();
+                entry.setValue(toIntArray((List)entry.getValue()));
+            }
+            unhashable = toIntArray(unhashablePositions);
+            all = toIntArray(allPositions);
+            unhashablePositions = null;
+            allPositions = null;
+        }
+        
+        public int[] getCandidates(Map actualParameters)
+        {
+            if(!isHashable(actualParameters)) return all;
+            int[] hashed = (int[])hashedPositions.get(new Integer(computeHashCode(actualParameters)));
+            if(null == hashed) return unhashable;
+            if(unhashable.length == 0) return hashed;
+            int[] candidates = new int[hashed.length + unhashable.length];
+            int hashedIndex = 0;
+            int unhashableIndex = 0;
+            for(int ii = 0; ii < candidates.length; ii++)
+            {
+                if(unhashableIndex >= unhashable.length || (hashedIndex < hashed.length && hashed[hashedIndex] < unhashable[unhashableIndex]))
+                {
+                    candidates[ii] = hashed[hashedIndex++];
+                }
+                else
+                {
+                    candidates[ii] = unhashable[unhashableIndex++];
+                }
+            }
+            return candidates;
+        }
+        
+        private boolean isHashable(Map parameters)
+        {
+            for(int ii = 0; ii < keyArray.length; ii++)
+            {
+                if(!ParameterUtil.isHashable(parameters.get(keyArray[ii]))) return false;
+            }
+            return true;
+        }
+        
+        private int computeHashCode(Map parameters)
+        {
+            int hashCode = 17;
+            for(int ii = 0; ii < keyArray.length; ii++)
+            {
+                hashCode = (31 * hashCode) + ParameterUtil.computeHashCode(parameters.get(keyArray[ii]));
+            }
+            return hashCode;
+        }
+        
+        private static int[] toIntArray(List list)
+        {
+            int[] array = new int[list.size()];
+            for(int ii = 0; ii < array.length; ii++)
+            {
+                array[ii] = ((Integer)list.get(ii)).intValue();
+            }
+            return array;
+        }
+    }
+    
+    private static class ParameterResolutionKey
+    {
+        private final String sql;
+        private final Map parameters;
+        private final int hashCode;
+        
+        public ParameterResolutionKey(String sql, Map parameters)
+        {
+            this.sql = sql;
+            this.parameters = new HashMap(parameters);
+            this.hashCode = (null == sql ? 0 : sql.hashCode()) * 31 + this.parameters.hashCode();
+        }
+        
+        /**
+         * Parameters can be used as part of the key, if all values are
+         * immutable and <code>ParameterUtil.compareParameter</code> compares
+         * them with <code>equals</code>.
+         */
+        public static boolean isCacheable(Map parameters)
+        {
+            Iterator iterator = parameters.values().iterator();
+            while(iterator.hasNext())
+            {
+                Object value = iterator.next();
+                if(null != value && !(value instanceof String) && !(value instanceof Integer) && !(value instanceof Long) && 
+                   !(value instanceof Short) && !(value instanceof Byte) && !(value instanceof Boolean) && !(value instanceof Character) &&
+                   !(value instanceof Double) && !(value instanceof Float) && !(value instanceof BigDecimal) && !(value instanceof BigInteger))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Map getParameters()
+        {
+            return parameters;
+        }
+        
+        public boolean equals(Object obj)
+        {
+            if(!(obj instanceof ParameterResolutionKey)) return false;
+            ParameterResolutionKey other = (ParameterResolutionKey)obj;
+            if(hashCode != other.hashCode) return false;
+            if(null == sql ? null != other.sql : !sql.equals(other.sql)) return false;
+            return parameters.equals(other.parameters);
+        }
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+    
     protected class ParameterWrapper
     {
         private Map parameters;
@@ -1,13 +1,15 @@
 package jp.sf.amateras.mockquery;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import jp.sf.amateras.mockquery.mock.FetchSimulation;
 import jp.sf.amateras.mockquery.mock.MockResultSet;
+import jp.sf.amateras.mockquery.mock.MockStatement;
 import jp.sf.amateras.mockquery.util.ArrayUtil;
 
 /**
@@ -31,16 +33,23 @@ public abstract class AbstractResultSetHandler
     private boolean exactMatch = false;
     private boolean useRegularExpressions = false;
     private boolean continueProcessingOnBatchFailure = false;
+    private FetchSimulation fetchSimulation = null;
     private Object globalResultSets;
-    private Map resultSetsForStatement = new TreeMap();
+    private SQLStatementMap resultSetsForStatement = new SQLStatementMap();
     private Object globalUpdateCounts;
-    private Map updateCountForStatement = new TreeMap();
+    private SQLStatementMap updateCountForStatement = new SQLStatementMap();
     private MockResultSet globalGeneratedKeys;
-    private Map generatedKeysForStatement = new TreeMap();
-    private Map returnsResultSetMap = new TreeMap();
-    private Map throwsSQLException = new TreeMap();
-    private List executedStatements = new ArrayList();
-    private List returnedResultSets = new ArrayList();
+    private SQLStatementMap generatedKeysForStatement = new SQLStatementMap();
+    private SQLStatementMap returnsResultSetMap = new SQLStatementMap();
+    private SQLStatementMap throwsSQLException = new SQLStatementMap();
+    private int executionHistoryCapacity = ExecutionHistory.UNBOUNDED;
+    private ExecutionHistory executedStatements = new ExecutionHistory();
+    private ExecutionHistory returnedResultSets = new ExecutionHistory(ExecutionHistory.UNBOUNDED, ExecutionHistory.DEFAULT_MAXIMUM_KEYS, true);
+    private final StatementRegistry statementRegistry = new StatementRegistry();
+    private volatile SQLCanonicalizer canonicalizer;
+    private volatile SQLStatementMatcher matcher;
+    private final AtomicLong version = new AtomicLong();
+    private final StatementResolutionCache resolutionCache = new StatementResolutionCache();
     
     /**
      * Creates a new <code>ResultSet</code> with a
@@ -99,6 +108,8 @@ public abstract class AbstractResultSetHandler
     public void setCaseSensitive(boolean caseSensitive)
     {
         this.caseSensitive = caseSensitive;
+        matcher = null;
+        increaseVersion();
     }
 
     /**
@@ -123,6 +134,8 @@ public abstract class AbstractResultSetHandler
     public void setExactMatch(boolean exactMatch)
     {
         this.exactMatch = exactMatch;
+        matcher = null;
+        increaseVersion();
     }
     
     /**
@@ -142,6 +155,50 @@ public abstract class AbstractResultSetHandler
     public void setUseRegularExpressions(boolean useRegularExpressions)
     {
         this.useRegularExpressions = useRegularExpressions;
+        matcher = null;
+        increaseVersion();
+    }
+    
+    /**
+     * Sets the {@link SQLCanonicalizer} that is used to canonicalize 
+     * the prepared and the executed SQL strings before they are compared.
+     * The executed SQL strings and their parameters are recorded
+     * with their canonical form. Default is <code>null</code>, i.e.
+     * the SQL strings are compared as they are.
+     * Please note that this method controls SQL statement
+     * matching for prepared results and update counts. Use
+     * {@link JDBCTestModule#setSQLCanonicalizer(SQLCanonicalizer)}
+     * for the statement matching of {@link JDBCTestModule} methods.
+     * @param canonicalizer the <code>SQLCanonicalizer</code> or <code>null</code>
+     */
+    public void setSQLCanonicalizer(SQLCanonicalizer canonicalizer)
+    {
+        this.canonicalizer = canonicalizer;
+        matcher = null;
+        increaseVersion();
+    }
+    
+    /**
+     * Returns the {@link SQLCanonicalizer}.
+     * @return the <code>SQLCanonicalizer</code> or <code>null</code>
+     */
+    public SQLCanonicalizer getSQLCanonicalizer()
+    {
+        return canonicalizer;
+    }
+    
+    /**
+     * Returns the canonical form of the specified SQL string, if
+     * a {@link SQLCanonicalizer} is set. Otherwise the SQL string
+     * is returned unchanged.
+     * @param sql the SQL string
+     * @return the canonical SQL string
+     */
+    public String canonicalizeSQL(String sql)
+    {
+        SQLCanonicalizer current = canonicalizer;
+        if(null == current) return sql;
+        return current.canonicalize(sql);
     }
     
     /**
@@ -157,13 +214,110 @@ public abstract class AbstractResultSetHandler
         this.continueProcessingOnBatchFailure = continueProcessingOnBatchFailure;
     }
     
+    /**
+     * Sets the {@link FetchSimulation} for the <code>ResultSet</code>
+     * objects that are returned by the statements. The returned 
+     * <code>ResultSet</code> objects deliver their rows in pages of
+     * fetch size rows and the pages are recorded by the
+     * <code>FetchSimulation</code>. A <code>FetchSimulation</code> that
+     * was set for a prepared <code>ResultSet</code> with
+     * {@link MockResultSet#setFetchSimulation} takes precedence.
+     * Default is <code>null</code>, i.e. no simulation.
+     * @param fetchSimulation the <code>FetchSimulation</code> or <code>null</code>
+     */
+    public void setFetchSimulation(FetchSimulation fetchSimulation)
+    {
+        this.fetchSimulation = fetchSimulation;
+    }
+    
+    /**
+     * Returns the {@link FetchSimulation} for the returned
+     * <code>ResultSet</code> objects.
+     * @return the <code>FetchSimulation</code> or <code>null</code>
+     */
+    public FetchSimulation getFetchSimulation()
+    {
+        return fetchSimulation;
+    }
+    
+    /**
+     * Sets the capacity of the histories of executed statements and 
+     * returned <code>ResultSet</code> objects. Default is
+     * {@link ExecutionHistory#UNBOUNDED}, i.e. all statements and
+     * <code>ResultSet</code> objects are kept. A positive capacity keeps
+     * the last <i>capacity</i> entries, {@link ExecutionHistory#COUNTERS_ONLY}
+     * only counts them. Long running tests should limit the history.
+     * Please note that this method clears the current histories.
+     * @param capacity the capacity
+     * @throws IllegalArgumentException if the capacity is less than
+     *         {@link ExecutionHistory#UNBOUNDED}
+     */
+    public void setExecutionHistoryCapacity(int capacity)
+    {
+        executedStatements = new ExecutionHistory(capacity);
+        returnedResultSets = new ExecutionHistory(capacity, ExecutionHistory.DEFAULT_MAXIMUM_KEYS, true);
+        executionHistoryCapacity = capacity;
+    }
+    
+    /**
+     * Returns the capacity of the execution histories.
+     * @return the capacity
+     */
+    public int getExecutionHistoryCapacity()
+    {
+        return executionHistoryCapacity;
+    }
+    
+    /**
+     * Returns the history of executed SQL strings. The counts of
+     * the history are kept per SQL string.
+     * @return the {@link ExecutionHistory} of SQL strings
+     */
+    public ExecutionHistory getExecutedStatementHistory()
+    {
+        return executedStatements;
+    }
+    
+    /**
+     * Returns the history of returned <code>ResultSet</code> and
+     * <code>ResultSet[]</code> objects. The counts of the history are kept
+     * per <code>ResultSet</code> id.
+     * @return the {@link ExecutionHistory} of <code>ResultSet</code> objects
+     */
+    public ExecutionHistory getReturnedResultSetHistory()
+    {
+        return returnedResultSets;
+    }
+    
+    /**
+     * Returns the {@link StatementRegistry} that keeps the statements
+     * of this handler. By default, all statements are kept. Use 
+     * {@link StatementRegistry#setWeak} to keep only the open and the
+     * recently closed statements.
+     * @return the <code>StatementRegistry</code>
+     */
+    public StatementRegistry getStatementRegistry()
+    {
+        return statementRegistry;
+    }
+    
+    /**
+     * The statements call this method, when they are closed.
+     * @param statement the closed {@link MockStatement}
+     */
+    public void statementClosed(MockStatement statement)
+    {
+        statementRegistry.statementClosed(statement);
+    }
+    
     /**
      * Collects all SQL strings that were executed.
      * @param sql the SQL string
      */
     public void addExecutedStatement(String sql)
     {
-		executedStatements.add(sql);
+        sql = canonicalizeSQL(sql);
+		executedStatements.add(sql, sql);
     }
     
     /**
@@ -175,7 +329,7 @@ public abstract class AbstractResultSetHandler
     public void addReturnedResultSet(MockResultSet resultSet)
     {
         if(null == resultSet) return;
-        returnedResultSets.add(resultSet);
+        returnedResultSets.add(resultSet.getId(), resultSet);
     }
     
     /**
@@ -188,16 +342,23 @@ public abstract class AbstractResultSetHandler
     public void addReturnedResultSets(MockResultSet[] resultSets)
     {
         if(null == resultSets) return;
-        returnedResultSets.add(resultSets);
+        String[] ids = new String[resultSets.length];
+        for(int ii = 0; ii < resultSets.length; ii++)
+        {
+            if(null != resultSets[ii]) ids[ii] = resultSets[ii].getId();
+        }
+        returnedResultSets.addWithKeys(ids, resultSets);
     }
     
     /**
      * Returns the <code>List</code> of all executed SQL strings.
+     * If the execution history is limited, only the retained
+     * SQL strings are returned.
      * @return the <code>List</code> of executed SQL strings
      */
     public List getExecutedStatements()
     {
-        return Collections.unmodifiableList(executedStatements);
+        return executedStatements.getEntries();
     }
     
     /**
@@ -208,11 +369,43 @@ public abstract class AbstractResultSetHandler
      * the full array of <code>ResultSet</code> objects that were prepared, even
      * if {@link com.mockrunner.mock.jdbc.MockStatement#getMoreResults()} was
      * not called for all the result sets.
+     * If the execution history is limited, only the retained
+     * objects are returned.
      * @return the <code>List</code> of returned <code>ResultSet</code> or <code>ResultSet[]</code> objects
      */
     public List getReturnedResultSets()
     {
-        return Collections.unmodifiableList(returnedResultSets);
+        return returnedResultSets.getEntries();
+    }
+    
+    /**
+     * Returns the <code>List</code> of the returned <code>ResultSet</code>
+     * objects with the specified id. Unlike {@link #getReturnedResultSets()},
+     * the <code>List</code> never contains <code>ResultSet[]</code> objects.
+     * The result sets of a returned array are contained in the 
+     * <code>List</code> if their id matches.
+     * The result sets are looked up in the index of the
+     * {@link #getReturnedResultSetHistory history}.
+     * @param id the id of the <code>ResultSet</code>
+     * @return the <code>List</code> of <code>ResultSet</code> objects
+     */
+    public List getReturnedResultSets(String id)
+    {
+        if(null == id) return Collections.EMPTY_LIST;
+        return returnedResultSets.getEntries(id);
+    }
+    
+    /**
+     * Returns the first returned <code>ResultSet</code> with the
+     * specified id.
+     * @param id the id of the <code>ResultSet</code>
+     * @return the <code>ResultSet</code> or <code>null</code>, if no 
+     *         <code>ResultSet</code> with the specified id was returned
+     */
+    public MockResultSet getReturnedResultSet(String id)
+    {
+        if(null == id) return null;
+        return (MockResultSet)returnedResultSets.getFirstEntry(id);
     }
     
     /**
@@ -221,6 +414,7 @@ public abstract class AbstractResultSetHandler
     public void clearResultSets()
     {
         resultSetsForStatement.clear();
+        increaseVersion();
     }
     
     /**
@@ -229,6 +423,7 @@ public abstract class AbstractResultSetHandler
     public void clearUpdateCounts()
     {
         updateCountForStatement.clear();
+        increaseVersion();
     }
     
     /**
@@ -238,6 +433,7 @@ public abstract class AbstractResultSetHandler
     public void clearReturnsResultSet()
     {
         returnsResultSetMap.clear();
+        increaseVersion();
     }
     
     /**
@@ -246,6 +442,7 @@ public abstract class AbstractResultSetHandler
     public void clearThrowsSQLException()
     {
         throwsSQLException.clear();
+        increaseVersion();
     }
     
     /**
@@ -254,6 +451,7 @@ public abstract class AbstractResultSetHandler
     public void clearGeneratedKeys()
     {
         generatedKeysForStatement.clear();
+        increaseVersion();
     }
     
     /**
@@ -288,7 +486,7 @@ public abstract class AbstractResultSetHandler
      */
     public Map getResultSetMap()
     {
-        return Collections.unmodifiableMap(resultSetsForStatement);
+        return resultSetsForStatement.getMap();
     }
     
     /**
@@ -300,7 +498,7 @@ public abstract class AbstractResultSetHandler
      */
     public Map getUpdateCountMap()
     {
-        return Collections.unmodifiableMap(updateCountForStatement);
+        return updateCountForStatement.getMap();
     }
     
     /**
@@ -311,7 +509,64 @@ public abstract class AbstractResultSetHandler
      */
     public Map getGeneratedKeysMap()
     {
-        return Collections.unmodifiableMap(generatedKeysForStatement);
+        return generatedKeysForStatement.getMap();
+    }
+    
+    /**
+     * Returns the {@link StatementResolution} for the specified SQL string.
+     * Statements use it to look up the prepared exception, result sets,
+     * update counts and generated keys only once per execution.
+     * If a {@link SQLCanonicalizer} is set, the resolution is created
+     * for the canonical SQL string.
+     * Please note that you can modify the match parameters with {@link #setCaseSensitive},
+     * {@link #setExactMatch} and {@link #setUseRegularExpressions}.
+     * @param sql the SQL string
+     * @return the <code>StatementResolution</code>
+     */
+    public StatementResolution resolveStatement(String sql)
+    {
+        sql = canonicalizeSQL(sql);
+        long currentVersion = getVersion();
+        StatementResolution resolution = resolutionCache.get(sql, currentVersion);
+        if(null == resolution)
+        {
+            resolution = new StatementResolution(this, sql);
+            resolutionCache.put(sql, resolution, currentVersion);
+        }
+        return resolution;
+    }
+    
+    /**
+     * Returns the cache of {@link StatementResolution} objects.
+     * Repeated executions of the same SQL string are resolved
+     * from this cache. The cache provides hit and miss statistics.
+     * @return the <code>StatementResolutionCache</code>
+     */
+    public StatementResolutionCache getStatementResolutionCache()
+    {
+        return resolutionCache;
+    }
+    
+    /**
+     * Returns the current version of the prepared results. The version
+     * is increased by every method that prepares or clears results
+     * for SQL strings or changes the match parameters.
+     * @return the current version
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+    
+    /**
+     * Increases the version of the prepared results, which invalidates
+     * all cached {@link StatementResolution} objects. Must be called
+     * by every method that modifies prepared results for SQL strings
+     * or the match parameters.
+     */
+    protected void increaseVersion()
+    {
+        version.incrementAndGet();
     }
     
     /**
@@ -382,15 +637,14 @@ public abstract class AbstractResultSetHandler
         return (resultSets instanceof MockResultSet[]);
     }
     
-    private Object getMatchingResultSets(String sql)
+    Object getMatchingResultSets(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(resultSetsForStatement, sql, true, true);
-        if(null != list && list.size() > 0)
-        {
-            return list.get(0);
-        }
-        return null;
+        return resultSetsForStatement.getFirstMatchingObject(getSQLStatementMatcher(), sql);
+    }
+    
+    String getMatchingResultSetKey(String sql)
+    {
+        return resultSetsForStatement.getFirstMatchingKey(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -509,15 +763,14 @@ public abstract class AbstractResultSetHandler
         return (updateCounts instanceof Integer[]);
     }
     
-    private Object getMatchingUpdateCounts(String sql)
+    Object getMatchingUpdateCounts(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(updateCountForStatement, sql, true, true);
-        if(null != list && list.size() > 0)
-        {
-            return list.get(0);
-        }
-        return null;
+        return updateCountForStatement.getFirstMatchingObject(getSQLStatementMatcher(), sql);
+    }
+    
+    String getMatchingUpdateCountKey(String sql)
+    {
+        return updateCountForStatement.getFirstMatchingKey(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -578,13 +831,7 @@ public abstract class AbstractResultSetHandler
      */
     public MockResultSet getGeneratedKeys(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(generatedKeysForStatement, sql, true, true);
-        if(null != list && list.size() > 0)
-        {
-            return (MockResultSet)list.get(0);
-        }
-        return null;
+        return (MockResultSet)generatedKeysForStatement.getFirstMatchingObject(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -610,13 +857,7 @@ public abstract class AbstractResultSetHandler
      */
     public Boolean getReturnsResultSet(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(returnsResultSetMap, sql, true, true);
-        if(null != list && list.size() > 0)
-        {
-            return (Boolean)list.get(0);
-        }
-        return null;
+        return (Boolean)returnsResultSetMap.getFirstMatchingObject(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -647,10 +888,12 @@ public abstract class AbstractResultSetHandler
      */
     public SQLException getSQLException(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions());
-        List list = matcher.getMatchingObjects(throwsSQLException, sql, true, true);
-        if(null == list || list.size() == 0) return null;
-        return (SQLException)list.get(0);
+        return (SQLException)throwsSQLException.getFirstMatchingObject(getSQLStatementMatcher(), sql);
+    }
+    
+    String getMatchingSQLExceptionKey(String sql)
+    {
+        return throwsSQLException.getFirstMatchingKey(getSQLStatementMatcher(), sql);
     }
     
     /**
@@ -664,6 +907,7 @@ public abstract class AbstractResultSetHandler
     public void prepareResultSet(String sql, MockResultSet resultSet)
     {
         resultSetsForStatement.put(sql, resultSet);
+        increaseVersion();
     }
     
     /**
@@ -678,6 +922,7 @@ public abstract class AbstractResultSetHandler
     public void prepareResultSets(String sql, MockResultSet[] resultSets)
     {
         resultSetsForStatement.put(sql, resultSets.clone());
+        increaseVersion();
     }
 
     /**
@@ -709,6 +954,7 @@ public abstract class AbstractResultSetHandler
     public void prepareUpdateCount(String sql, int updateCount)
     {
         updateCountForStatement.put(sql, new Integer(updateCount));
+        increaseVersion();
     }
     
     /**
@@ -723,6 +969,7 @@ public abstract class AbstractResultSetHandler
     public void prepareUpdateCounts(String sql, int[] updateCounts)
     {
         updateCountForStatement.put(sql, ArrayUtil.convertToObjectArray(updateCounts));
+        increaseVersion();
     }
     
     /**
@@ -754,6 +1001,7 @@ public abstract class AbstractResultSetHandler
     public void prepareGeneratedKeys(String sql, MockResultSet generatedKeysResult)
     {
         generatedKeysForStatement.put(sql, generatedKeysResult);
+        increaseVersion();
     }
     
     /**
@@ -779,6 +1027,7 @@ public abstract class AbstractResultSetHandler
     public void prepareReturnsResultSet(String sql, boolean returnsResultSet)
     {
         returnsResultSetMap.put(sql, new Boolean(returnsResultSet));
+        increaseVersion();
     }
     
     /**
@@ -795,6 +1044,7 @@ public abstract class AbstractResultSetHandler
     public void prepareThrowsSQLException(String sql)
     {
         throwsSQLException.put(sql, new SQLException("Statement " + sql + " was specified to throw an exception"));
+        increaseVersion();
     }
     
     /**
@@ -810,6 +1060,165 @@ public abstract class AbstractResultSetHandler
     public void prepareThrowsSQLException(String sql, SQLException exc)
     {
         throwsSQLException.put(sql, exc);
+        increaseVersion();
+    }
+    
+    /**
+     * Writes the prepared state of this handler as records
+     * of a {@link HandlerSnapshot}. Subclasses that prepare
+     * additional objects must call this method and write
+     * their own records.
+     * @param out the snapshot output
+     */
+    void writeSnapshot(HandlerSnapshot.Output out)
+    {
+        out.writeRecord(HandlerSnapshot.SETTINGS);
+        out.writeBoolean(caseSensitive);
+        out.writeBoolean(exactMatch);
+        out.writeBoolean(useRegularExpressions);
+        out.writeBoolean(continueProcessingOnBatchFailure);
+        if(globalResultSets instanceof MockResultSet)
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_RESULT_SET);
+            out.writeResultSet((MockResultSet)globalResultSets);
+        }
+        else if(globalResultSets instanceof MockResultSet[])
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_RESULT_SETS);
+            out.writeResultSets((MockResultSet[])globalResultSets);
+        }
+        Iterator entries = resultSetsForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            if(entry.getValue() instanceof MockResultSet[])
+            {
+                out.writeRecord(HandlerSnapshot.RESULT_SETS);
+                out.writeString((String)entry.getKey());
+                out.writeResultSets((MockResultSet[])entry.getValue());
+            }
+            else
+            {
+                out.writeRecord(HandlerSnapshot.RESULT_SET);
+                out.writeString((String)entry.getKey());
+                out.writeResultSet((MockResultSet)entry.getValue());
+            }
+        }
+        if(globalUpdateCounts instanceof Integer)
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_UPDATE_COUNT);
+            out.writeSignedVarInt(((Integer)globalUpdateCounts).intValue());
+        }
+        else if(globalUpdateCounts instanceof int[])
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_UPDATE_COUNTS);
+            out.writeIntArray((int[])globalUpdateCounts);
+        }
+        entries = updateCountForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            if(entry.getValue() instanceof Integer)
+            {
+                out.writeRecord(HandlerSnapshot.UPDATE_COUNT);
+                out.writeString((String)entry.getKey());
+                out.writeSignedVarInt(((Integer)entry.getValue()).intValue());
+            }
+            else
+            {
+                out.writeRecord(HandlerSnapshot.UPDATE_COUNTS);
+                out.writeString((String)entry.getKey());
+                out.writeIntArray((int[])ArrayUtil.convertToPrimitiveArray((Object[])entry.getValue()));
+            }
+        }
+        if(null != globalGeneratedKeys)
+        {
+            out.writeRecord(HandlerSnapshot.GLOBAL_GENERATED_KEYS);
+            out.writeResultSet(globalGeneratedKeys);
+        }
+        entries = generatedKeysForStatement.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            out.writeRecord(HandlerSnapshot.GENERATED_KEYS);
+            out.writeString((String)entry.getKey());
+            out.writeResultSet((MockResultSet)entry.getValue());
+        }
+        entries = returnsResultSetMap.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            out.writeRecord(HandlerSnapshot.RETURNS_RESULT_SET);
+            out.writeString((String)entry.getKey());
+            out.writeBoolean(((Boolean)entry.getValue()).booleanValue());
+        }
+        entries = throwsSQLException.getMap().entrySet().iterator();
+        while(entries.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)entries.next();
+            out.writeRecord(HandlerSnapshot.THROWS_SQL_EXCEPTION);
+            out.writeString((String)entry.getKey());
+            out.writeSQLException((SQLException)entry.getValue());
+        }
+    }
+    
+    /**
+     * Reads a record of a {@link HandlerSnapshot} and prepares
+     * the corresponding object. Subclasses that write additional
+     * records must read them and call this method for all other records.
+     * @param tag the tag of the record
+     * @param in the snapshot input
+     * @return <code>true</code> if the record was read,
+     *         <code>false</code> if the record is not supported
+     */
+    boolean readSnapshotRecord(int tag, HandlerSnapshot.Input in)
+    {
+        switch(tag)
+        {
+            case HandlerSnapshot.SETTINGS:
+                setCaseSensitive(in.readBoolean());
+                setExactMatch(in.readBoolean());
+                setUseRegularExpressions(in.readBoolean());
+                setContinueProcessingOnBatchFailure(in.readBoolean());
+                return true;
+            case HandlerSnapshot.GLOBAL_RESULT_SET:
+                prepareGlobalResultSet(in.readResultSet());
+                return true;
+            case HandlerSnapshot.GLOBAL_RESULT_SETS:
+                prepareGlobalResultSets(in.readResultSets());
+                return true;
+            case HandlerSnapshot.RESULT_SET:
+                prepareResultSet(in.readString(), in.readResultSet());
+                return true;
+            case HandlerSnapshot.RESULT_SETS:
+                prepareResultSets(in.readString(), in.readResultSets());
+                return true;
+            case HandlerSnapshot.GLOBAL_UPDATE_COUNT:
+                prepareGlobalUpdateCount(in.readSignedVarInt());
+                return true;
+            case HandlerSnapshot.GLOBAL_UPDATE_COUNTS:
+                prepareGlobalUpdateCounts(in.readIntArray());
+                return true;
+            case HandlerSnapshot.UPDATE_COUNT:
+                prepareUpdateCount(in.readString(), in.readSignedVarInt());
+                return true;
+            case HandlerSnapshot.UPDATE_COUNTS:
+                prepareUpdateCounts(in.readString(), in.readIntArray());
+                return true;
+            case HandlerSnapshot.GLOBAL_GENERATED_KEYS:
+                prepareGlobalGeneratedKeys(in.readResultSet());
+                return true;
+            case HandlerSnapshot.GENERATED_KEYS:
+                prepareGeneratedKeys(in.readString(), in.readResultSet());
+                return true;
+            case HandlerSnapshot.RETURNS_RESULT_SET:
+                prepareReturnsResultSet(in.readString(), in.readBoolean());
+                return true;
+            case HandlerSnapshot.THROWS_SQL_EXCEPTION:
+                prepareThrowsSQLException(in.readString(), in.readSQLException());
+                return true;
+        }
+        return false;
     }
     
     /**
@@ -839,6 +1248,23 @@ public abstract class AbstractResultSetHandler
         return useRegularExpressions;
     }
 
+    /**
+     * Returns the <code>SQLStatementMatcher</code> for the current
+     * match parameters. The matcher is created once and reused until
+     * one of the match parameters is changed.
+     * @return the <code>SQLStatementMatcher</code>
+     */
+    protected SQLStatementMatcher getSQLStatementMatcher()
+    {
+        SQLStatementMatcher current = matcher;
+        if(null == current)
+        {
+            current = new SQLStatementMatcher(getCaseSensitive(), getExactMatch(), getUseRegularExpressions(), canonicalizer);
+            matcher = current;
+        }
+        return current;
+    }
+
     /**
      * Returns if batch processing should be continued if one of 
      * the commands in the batch fails.
@@ -0,0 +1,605 @@
+package jp.sf.amateras.mockquery;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+import jp.sf.amateras.mockquery.mock.MockResultSetMetaData;
+
+/**
+ * {@link ResultSetFactory} that reads the rows from a CSV or TSV file.
+ * Each line of the file is a row, the values are separated by the
+ * delimiter (a comma by default). Values may be enclosed in double quotes,
+ * which allows delimiters, line breaks and (doubled) double quotes in
+ * the value. Empty lines are ignored.
+ * <p>
+ * The file is memory mapped and split into chunks, which are parsed in
+ * parallel. Each chunk starts after the first line break behind its split
+ * point. If this line break turns out to be part of a quoted value, i.e.
+ * the previous chunk does not end there, the chunk is parsed again from
+ * the end of the previous chunk. Each chunk stores its values by column,
+ * the columns of the <code>ResultSet</code> are concatenated from the
+ * columns of the chunks. If a {@link MockResultSetMetaData}
+ * is set, the values of the columns with a declared type (e.g.
+ * <code>Types.INTEGER</code> or <code>Types.DATE</code>) are converted to
+ * the corresponding Java type, empty values of these columns are
+ * <code>null</code>. All other values are strings.
+ * <p>
+ * The charset must encode the delimiter, the double quote and the line
+ * break as single bytes like ASCII does, e.g. UTF-8 or ISO-8859-1.
+ * Files larger than 2GB are not supported.
+ * <p>
+ * Java provides no method to unmap a memory mapped file. The mapping is
+ * released when the buffer is garbage collected, until then the file
+ * cannot be deleted or replaced on some platforms, e.g. Windows.
+ */
+public class CSVResultSetFactory implements ResultSetFactory
+{
+    private final static int MINIMUM_CHUNK_SIZE = 1 << 20;
+
+    private File file;
+    private char delimiter;
+    private Charset charset;
+    private boolean firstLineContainsColumnNames;
+    private boolean trim;
+    private MockResultSetMetaData resultSetMetaData;
+    private int threads;
+
+    public CSVResultSetFactory(String fileName)
+    {
+        this(new File(fileName));
+    }
+
+    public CSVResultSetFactory(File file)
+    {
+        this.file = file;
+        delimiter = ',';
+        charset = Charset.forName("UTF-8");
+        firstLineContainsColumnNames = false;
+        trim = true;
+        resultSetMetaData = null;
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the file.
+     * @return the file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Sets the delimiter. Default is a comma. Use a tab for TSV files.
+     * @param delimiter the delimiter
+     */
+    public void setDelimiter(char delimiter)
+    {
+        if('"' == delimiter || '\n' == delimiter || '\r' == delimiter || delimiter > 127)
+        {
+            throw new IllegalArgumentException("Invalid delimiter " + delimiter);
+        }
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Sets the charset of the file. Default is UTF-8.
+     * @param charset the name of the charset
+     */
+    public void setCharset(String charset)
+    {
+        this.charset = Charset.forName(charset);
+    }
+
+    /**
+     * Set if the first line contains the column names. Default is
+     * <code>false</code>. If the first line does not contain the
+     * column names, the columns are named <i>ColumnX</i> where
+     * <i>X</i> is the column index.
+     * @param firstLineContainsColumnNames does the first line contain
+     *        the column names
+     */
+    public void setFirstLineContainsColumnNames(boolean firstLineContainsColumnNames)
+    {
+        this.firstLineContainsColumnNames = firstLineContainsColumnNames;
+    }
+
+    /**
+     * Set if values that are not enclosed in double quotes should be
+     * trimmed. Default is <code>true</code>.
+     * @param trim should values be trimmed
+     */
+    public void setTrim(boolean trim)
+    {
+        this.trim = trim;
+    }
+
+    /**
+     * Sets the <code>ResultSetMetaData</code>. The column types select
+     * the conversion of the values. The <code>ResultSetMetaData</code>
+     * is also set on the created <code>ResultSet</code>.
+     * @param resultSetMetaData the <code>ResultSetMetaData</code>
+     */
+    public void setResultSetMetaData(MockResultSetMetaData resultSetMetaData)
+    {
+        this.resultSetMetaData = resultSetMetaData;
+    }
+
+    /**
+     * Sets the number of threads that parse the file.
+     * Defaults to the number of available processors.
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads)
+    {
+        if(threads <= 0)
+        {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+        this.threads = threads;
+    }
+
+    public MockResultSet create(String id)
+    {
+        try
+        {
+            return load(id);
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private MockResultSet load(String id) throws IOException
+    {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+            {
+                throw new IOException("File " + file + " is too large");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int)size;
+            int start = skipByteOrderMark(buffer, end);
+            List columnNames = new ArrayList();
+            if(firstLineContainsColumnNames)
+            {
+                start = new ChunkParser(buffer, start, end, end).parseHeader(columnNames);
+            }
+            List chunks = parseChunks(buffer, start, end);
+            return createResultSet(id, columnNames, chunks);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private int skipByteOrderMark(ByteBuffer buffer, int end)
+    {
+        if(end >= 3 && "UTF-8".equals(charset.name()) &&
+           (byte)0xEF == buffer.get(0) && (byte)0xBB == buffer.get(1) && (byte)0xBF == buffer.get(2))
+        {
+            return 3;
+        }
+        return 0;
+    }
+
+    private List parseChunks(ByteBuffer buffer, int start, int end) throws IOException
+    {
+        int chunkCount = 1;
+        if(threads > 1)
+        {
+            chunkCount = Math.min(threads * 4, Math.max(1, (end - start) / MINIMUM_CHUNK_SIZE));
+        }
+        if(chunkCount <= 1)
+        {
+            List chunks = new ArrayList(1);
+            chunks.add(new ChunkParser(buffer, start, end, end).call());
+            return chunks;
+        }
+        int[] boundaries = findChunkBoundaries(buffer, start, end, chunkCount);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, boundaries.length - 1));
+        try
+        {
+            List futures = new ArrayList(boundaries.length - 1);
+            for(int ii = 0; ii < boundaries.length - 1; ii++)
+            {
+                futures.add(executor.submit(new ChunkParser(buffer, boundaries[ii], boundaries[ii + 1], end)));
+            }
+            List chunks = new ArrayList(futures.size());
+            int position = start;
+            for(int ii = 0; ii < futures.size(); ii++)
+            {
+                Future future = (Future)futures.get(ii);
+                if(boundaries[ii] == position)
+                {
+                    chunks.add(future.get());
+                }
+                else
+                {
+                    future.cancel(true);
+                    chunks.add(new ChunkParser(buffer, position, boundaries[ii + 1], end).call());
+                }
+                position = ((ChunkParser)chunks.get(ii)).getStop();
+            }
+            return chunks;
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new NestedApplicationException(exc);
+        }
+        catch(ExecutionException exc)
+        {
+            if(exc.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException)exc.getCause();
+            }
+            throw new NestedApplicationException(exc.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private int[] findChunkBoundaries(ByteBuffer buffer, int start, int end, int chunkCount)
+    {
+        List boundaries = new ArrayList(chunkCount + 1);
+        boundaries.add(new Integer(start));
+        int position = start;
+        for(int ii = 1; ii < chunkCount; ii++)
+        {
+            position = Math.max(position, (int)(start + (long)(end - start) * ii / chunkCount));
+            while(position < end && '\n' != buffer.get(position))
+            {
+                position++;
+            }
+            position++;
+            if(position >= end) break;
+            boundaries.add(new Integer(position));
+        }
+        boundaries.add(new Integer(end));
+        int[] result = new int[boundaries.size()];
+        for(int ii = 0; ii < result.length; ii++)
+        {
+            result[ii] = ((Integer)boundaries.get(ii)).intValue();
+        }
+        return result;
+    }
+
+    private MockResultSet createResultSet(String id, List columnNames, List chunks)
+    {
+        int columnCount = columnNames.size();
+        int rowCount = 0;
+        for(int ii = 0; ii < chunks.size(); ii++)
+        {
+            ChunkParser chunk = (ChunkParser)chunks.get(ii);
+            rowCount += chunk.getRowCount();
+            columnCount = Math.max(columnCount, chunk.getColumnCount());
+        }
+        String[] names = new String[columnCount];
+        for(int ii = 0; ii < columnCount; ii++)
+        {
+            if(ii < columnNames.size())
+            {
+                names[ii] = (String)columnNames.get(ii);
+            }
+            else
+            {
+                names[ii] = "Column" + (ii + 1);
+            }
+        }
+        Object[][] values = new Object[columnCount][rowCount];
+        int rowIndex = 0;
+        for(int ii = 0; ii < chunks.size(); ii++)
+        {
+            ChunkParser chunk = (ChunkParser)chunks.get(ii);
+            for(int kk = 0; kk < chunk.getColumnCount(); kk++)
+            {
+                System.arraycopy(chunk.getColumn(kk), 0, values[kk], rowIndex, chunk.getRowCount());
+            }
+            rowIndex += chunk.getRowCount();
+            chunks.set(ii, null);
+        }
+        MockResultSet resultSet = new MockResultSet(id);
+        if(null != resultSetMetaData)
+        {
+            resultSet.setResultSetMetaData(resultSetMetaData);
+        }
+        resultSet.addColumns(names, values);
+        return resultSet;
+    }
+
+    private int getSQLType(int columnIndex)
+    {
+        if(null == resultSetMetaData) return Types.OTHER;
+        try
+        {
+            return resultSetMetaData.getColumnType(columnIndex);
+        }
+        catch(SQLException exc)
+        {
+            return Types.OTHER;
+        }
+    }
+
+    private Object convert(String value, int sqlType, int columnIndex)
+    {
+        switch(sqlType)
+        {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.OTHER:
+                return value;
+        }
+        String trimmedValue = value.trim();
+        if(trimmedValue.length() == 0) return null;
+        try
+        {
+            switch(sqlType)
+            {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    return Boolean.valueOf(trimmedValue);
+                case Types.TINYINT:
+                    return new Byte(trimmedValue);
+                case Types.SMALLINT:
+                    return new Short(trimmedValue);
+                case Types.INTEGER:
+                    return new Integer(trimmedValue);
+                case Types.BIGINT:
+                    return new Long(trimmedValue);
+                case Types.REAL:
+                    return new Float(trimmedValue);
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return new Double(trimmedValue);
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return new BigDecimal(trimmedValue);
+                case Types.DATE:
+                    return java.sql.Date.valueOf(trimmedValue);
+                case Types.TIME:
+                    return Time.valueOf(trimmedValue);
+                case Types.TIMESTAMP:
+                    return Timestamp.valueOf(trimmedValue);
+                default:
+                    return value;
+            }
+        }
+        catch(IllegalArgumentException exc)
+        {
+            throw new NestedApplicationException("Invalid value " + value + " in column " + columnIndex, exc);
+        }
+    }
+
+    private class ChunkParser implements Callable
+    {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private final int limit;
+        private byte[] field;
+        private int length;
+        private int[] sqlTypes;
+        private Object[][] columns;
+        private int rowCount;
+        private int stop;
+
+        public ChunkParser(ByteBuffer buffer, int start, int end, int limit)
+        {
+            this.buffer = buffer.duplicate();
+            this.start = start;
+            this.end = end;
+            this.limit = limit;
+            field = new byte[64];
+            sqlTypes = new int[0];
+            columns = new Object[0][];
+            rowCount = 0;
+            stop = start;
+        }
+
+        public Object call()
+        {
+            List values = new ArrayList();
+            int position = start;
+            while(position < end)
+            {
+                int nextPosition = skipEmptyLine(position);
+                if(nextPosition != position)
+                {
+                    position = nextPosition;
+                    continue;
+                }
+                values.clear();
+                position = parseRecord(position, values);
+                addRow(values);
+            }
+            stop = Math.max(position, start);
+            return this;
+        }
+
+        public int getStop()
+        {
+            return stop;
+        }
+
+        public int getRowCount()
+        {
+            return rowCount;
+        }
+
+        public int getColumnCount()
+        {
+            return columns.length;
+        }
+
+        public Object[] getColumn(int index)
+        {
+            return columns[index];
+        }
+
+        public int parseHeader(List columnNames)
+        {
+            int position = start;
+            while(position < end)
+            {
+                int nextPosition = skipEmptyLine(position);
+                if(nextPosition == position) break;
+                position = nextPosition;
+            }
+            if(position >= end) return end;
+            position = parseRecord(position, columnNames);
+            for(int ii = 0; ii < columnNames.size(); ii++)
+            {
+                columnNames.set(ii, ((String)columnNames.get(ii)).trim());
+            }
+            return Math.min(position, end);
+        }
+
+        private void addRow(List values)
+        {
+            int capacity = (columns.length > 0) ? columns[0].length : 16;
+            if(rowCount == capacity)
+            {
+                capacity *= 2;
+                for(int ii = 0; ii < columns.length; ii++)
+                {
+                    Object[] newColumn = new Object[capacity];
+                    System.arraycopy(columns[ii], 0, newColumn, 0, rowCount);
+                    columns[ii] = newColumn;
+                }
+            }
+            if(values.size() > columns.length)
+            {
+                Object[][] newColumns = new Object[values.size()][];
+                System.arraycopy(columns, 0, newColumns, 0, columns.length);
+                for(int ii = columns.length; ii < newColumns.length; ii++)
+                {
+                    newColumns[ii] = new Object[capacity];
+                }
+                columns = newColumns;
+            }
+            for(int ii = 0; ii < values.size(); ii++)
+            {
+                columns[ii][rowCount] = convert((String)values.get(ii), getSQLType(ii), ii + 1);
+            }
+            rowCount++;
+        }
+
+        private int getSQLType(int index)
+        {
+            if(index >= sqlTypes.length)
+            {
+                int[] newSQLTypes = new int[index + 1];
+                System.arraycopy(sqlTypes, 0, newSQLTypes, 0, sqlTypes.length);
+                for(int ii = sqlTypes.length; ii < newSQLTypes.length; ii++)
+                {
+                    newSQLTypes[ii] = CSVResultSetFactory.this.getSQLType(ii + 1);
+                }
+                sqlTypes = newSQLTypes;
+            }
+            return sqlTypes[index];
+        }
+
+        private int skipEmptyLine(int position)
+        {
+            byte next = buffer.get(position);
+            if('\n' == next) return position + 1;
+            if('\r' == next && (position + 1 == limit || '\n' == buffer.get(position + 1)))
+            {
+                return position + ((position + 1 == limit) ? 1 : 2);
+            }
+            return position;
+        }
+
+        private int parseRecord(int position, List values)
+        {
+            while(true)
+            {
+                length = 0;
+                int quotedLength = -1;
+                if(position < limit && '"' == buffer.get(position))
+                {
+                    position++;
+                    while(position < limit)
+                    {
+                        byte next = buffer.get(position++);
+                        if('"' == next)
+                        {
+                            if(position < limit && '"' == buffer.get(position))
+                            {
+                                append(next);
+                                position++;
+                            }
+                            else
+                            {
+                                break;
+                            }
+                        }
+                        else
+                        {
+                            append(next);
+                        }
+                    }
+                    quotedLength = length;
+                }
+                while(position < limit)
+                {
+                    byte next = buffer.get(position);
+                    if(delimiter == next || '\n' == next) break;
+                    append(next);
+                    position++;
+                }
+                boolean endOfRecord = (position >= limit) || ('\n' == buffer.get(position));
+                if(endOfRecord && length > quotedLength && length > 0 && '\r' == field[length - 1])
+                {
+                    length--;
+                }
+                String value = new String(field, 0, length, charset);
+                if(trim && quotedLength < 0) value = value.trim();
+                values.add(value);
+                position++;
+                if(endOfRecord) return Math.min(position, limit);
+            }
+        }
+
+        private void append(byte next)
+        {
+            if(length == field.length)
+            {
+                byte[] newField = new byte[field.length * 2];
+                System.arraycopy(field, 0, newField, 0, length);
+                field = newField;
+            }
+            field[length++] = next;
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package jp.sf.amateras.mockquery;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import jp.sf.amateras.mockquery.mock.MockCallableStatement;
 
@@ -13,15 +10,6 @@ import jp.sf.amateras.mockquery.mock.MockCallableStatement;
  */
 public class CallableStatementResultSetHandler extends AbstractOutParameterResultSetHandler
 {
-    private List callableStatements;
-    private Map callbaleStatementMap;
-
-    public CallableStatementResultSetHandler()
-    {
-        callableStatements = new ArrayList();
-        callbaleStatementMap = new TreeMap();
-    }
-
     /**
      * The <code>Connection</code> adds new statements with
      * this method.
@@ -30,23 +18,18 @@ public class CallableStatementResultSetHandler extends AbstractOutParameterResul
     public void addCallableStatement(MockCallableStatement statement)
     { 
         statement.setCallableStatementResultSetHandler(this);
-        List list = (List)callbaleStatementMap.get(statement.getSQL());
-        if(null == list)
-        {
-            list = new ArrayList();
-            callbaleStatementMap.put(statement.getSQL(), list);
-        }
-        list.add(statement);
-        callableStatements.add(statement);
+        getStatementRegistry().add(statement.getSQL(), statement);
     }
 
     /**
      * Returns a <code>List</code> of all callable statements.
+     * If the {@link StatementRegistry} is weak, only the
+     * statements it keeps are returned.
      * @return the <code>List</code> of {@link MockCallableStatement} objects
      */
     public List getCallableStatements()
     {
-        return Collections.unmodifiableList(callableStatements);
+        return getStatementRegistry().getStatements();
     }
 
     /**
@@ -57,7 +40,7 @@ public class CallableStatementResultSetHandler extends AbstractOutParameterResul
      */
     public Map getCallableStatementMap()
     {
-        return Collections.unmodifiableMap(callbaleStatementMap);
+        return getStatementRegistry().getStatementMap();
     }
 
     /**
@@ -65,7 +48,6 @@ public class CallableStatementResultSetHandler extends AbstractOutParameterResul
      */
     public void clearCallableStatements()
     {
-        callableStatements.clear();
-        callbaleStatementMap.clear();
+        getStatementRegistry().clear();
     }   
 }
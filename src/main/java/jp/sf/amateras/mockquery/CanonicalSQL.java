@@ -0,0 +1,66 @@
+package jp.sf.amateras.mockquery;
+
+import jp.sf.amateras.mockquery.util.SQLUtil;
+
+/**
+ * The canonical form of an SQL string, as created by a
+ * {@link SQLCanonicalizer}. Two instances are equal, if their
+ * canonical SQL strings are equal, regardless of the original
+ * SQL strings. The fingerprint is computed when it is requested,
+ * it is not used for matching.
+ */
+public class CanonicalSQL
+{
+    private final String sql;
+    private final String canonicalSQL;
+    
+    public CanonicalSQL(String sql, String canonicalSQL)
+    {
+        this.sql = sql;
+        this.canonicalSQL = canonicalSQL;
+    }
+    
+    /**
+     * Returns the original SQL string.
+     * @return the original SQL string
+     */
+    public String getSQL()
+    {
+        return sql;
+    }
+    
+    /**
+     * Returns the canonical SQL string.
+     * @return the canonical SQL string
+     */
+    public String getCanonicalSQL()
+    {
+        return canonicalSQL;
+    }
+    
+    /**
+     * Returns the 64 bit fingerprint of the canonical SQL string,
+     * computed with {@link SQLUtil#computeFingerprint}.
+     * @return the fingerprint
+     */
+    public long getFingerprint()
+    {
+        return SQLUtil.computeFingerprint(canonicalSQL);
+    }
+    
+    public boolean equals(Object obj)
+    {
+        if(!(obj instanceof CanonicalSQL)) return false;
+        return canonicalSQL.equals(((CanonicalSQL)obj).canonicalSQL);
+    }
+
+    public int hashCode()
+    {
+        return canonicalSQL.hashCode();
+    }
+    
+    public String toString()
+    {
+        return canonicalSQL;
+    }
+}
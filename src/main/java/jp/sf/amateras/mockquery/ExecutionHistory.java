@@ -0,0 +1,534 @@
+package jp.sf.amateras.mockquery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * History of the executed statements, returned <code>ResultSet</code>
+ * objects or parameter sets of a result set handler. The retention
+ * policy is defined by the capacity:
+ * <ul>
+ * <li>{@link #UNBOUNDED} keeps all entries. This is the default.</li>
+ * <li>A positive capacity keeps the last <i>capacity</i> entries in a
+ * ring buffer. The ring buffer is preallocated and lock-free.</li>
+ * <li>{@link #COUNTERS_ONLY} keeps no entries.</li>
+ * </ul>
+ * Regardless of the policy, the history counts all added entries, in
+ * total and per key, e.g. per SQL string. The counts are kept, when
+ * entries are evicted from the ring buffer. A bounded history counts
+ * at most <i>maximumKeys</i> keys (default is {@link #DEFAULT_MAXIMUM_KEYS}),
+ * so it does not grow with the number of distinct SQL strings. Entries
+ * with other keys are only counted in {@link #getOverflowCount}.
+ * <p>
+ * A writer only stores its entry in the ring buffer, if the slot does
+ * not contain a newer entry. If a writer is delayed until a newer entry
+ * of the same slot has been stored, its entry is dropped as if it was
+ * evicted. It is still counted.
+ * <p>
+ * An indexed history also keeps the retained entries by their keys, so
+ * {@link #getEntries(Object)} and {@link #getFirstEntry} do not have to
+ * search or copy the entries. The index is updated when entries are
+ * added, evicted or cleared.
+ * <p>
+ * Entries can be added and read by multiple threads.
+ */
+public class ExecutionHistory
+{
+    public final static int UNBOUNDED = -1;
+    public final static int COUNTERS_ONLY = 0;
+    public final static int DEFAULT_MAXIMUM_KEYS = 1024;
+
+    private final int capacity;
+    private final int maximumKeys;
+    private final boolean indexed;
+    private final List entries;
+    private final AtomicReferenceArray slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong count = new AtomicLong();
+    private final ConcurrentMap keyCounts = new ConcurrentHashMap();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final Map index;
+    private final LinkedList indexOrder;
+
+    /**
+     * Creates an unbounded history.
+     */
+    public ExecutionHistory()
+    {
+        this(UNBOUNDED);
+    }
+
+    /**
+     * Creates a history with the specified capacity.
+     * @param capacity the maximum number of entries, {@link #UNBOUNDED}
+     *        or {@link #COUNTERS_ONLY}
+     * @throws IllegalArgumentException if the capacity is less than
+     *         {@link #UNBOUNDED}
+     */
+    public ExecutionHistory(int capacity)
+    {
+        this(capacity, DEFAULT_MAXIMUM_KEYS);
+    }
+
+    /**
+     * Creates a history with the specified capacity and the
+     * specified maximum number of counted keys. The maximum
+     * number of keys is ignored by an unbounded history.
+     * @param capacity the maximum number of entries, {@link #UNBOUNDED}
+     *        or {@link #COUNTERS_ONLY}
+     * @param maximumKeys the maximum number of counted keys
+     * @throws IllegalArgumentException if the capacity is less than
+     *         {@link #UNBOUNDED} or if the maximum number of keys is
+     *         not positive
+     */
+    public ExecutionHistory(int capacity, int maximumKeys)
+    {
+        this(capacity, maximumKeys, false);
+    }
+
+    /**
+     * Creates a history with the specified capacity and the
+     * specified maximum number of counted keys, that indexes
+     * its entries by their keys, if <code>indexed</code> is
+     * <code>true</code>.
+     * @param capacity the maximum number of entries, {@link #UNBOUNDED}
+     *        or {@link #COUNTERS_ONLY}
+     * @param maximumKeys the maximum number of counted keys
+     * @param indexed should the entries be indexed by their keys
+     * @throws IllegalArgumentException if the capacity is less than
+     *         {@link #UNBOUNDED} or if the maximum number of keys is
+     *         not positive
+     */
+    public ExecutionHistory(int capacity, int maximumKeys, boolean indexed)
+    {
+        if(capacity < UNBOUNDED)
+        {
+            throw new IllegalArgumentException("capacity must be UNBOUNDED, COUNTERS_ONLY or positive");
+        }
+        if(maximumKeys <= 0)
+        {
+            throw new IllegalArgumentException("maximumKeys must be positive");
+        }
+        this.capacity = capacity;
+        this.maximumKeys = maximumKeys;
+        this.indexed = indexed;
+        index = (indexed && COUNTERS_ONLY != capacity) ? new HashMap() : null;
+        indexOrder = (null != index && capacity > 0) ? new LinkedList() : null;
+        if(UNBOUNDED == capacity)
+        {
+            entries = Collections.synchronizedList(new ArrayList());
+            slots = null;
+            sequences = null;
+        }
+        else
+        {
+            entries = null;
+            slots = new AtomicReferenceArray(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for(int ii = 0; ii < capacity; ii++)
+            {
+                sequences.set(ii, -1);
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity.
+     * @return the maximum number of entries, {@link #UNBOUNDED}
+     *         or {@link #COUNTERS_ONLY}
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the maximum number of counted keys.
+     * @return the maximum number of counted keys
+     */
+    public int getMaximumKeys()
+    {
+        return maximumKeys;
+    }
+
+    /**
+     * Returns if the entries are indexed by their keys.
+     * @return <code>true</code> if the entries are indexed
+     */
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
+    /**
+     * Adds an entry. If the ring buffer is full, the oldest
+     * entry is evicted.
+     * @param key the key that is counted, e.g. the SQL string,
+     *        may be <code>null</code>
+     * @param entry the entry
+     */
+    public void add(Object key, Object entry)
+    {
+        long sequence = addEntry(entry);
+        if(null == key) return;
+        increaseCount(key);
+        if(null != index)
+        {
+            addToIndex(sequence, new Object[] {key}, new Object[] {entry});
+        }
+    }
+
+    /**
+     * Adds an entry that is counted for each of the specified keys,
+     * e.g. an array of <code>ResultSet</code> objects that is
+     * counted for the id of each <code>ResultSet</code>. If the
+     * entry is an array with the same length as the keys, each
+     * element of the array is indexed by the corresponding key.
+     * Otherwise the entry is indexed by all keys.
+     * @param keys the keys that are counted
+     * @param entry the entry
+     */
+    public void addWithKeys(Object[] keys, Object entry)
+    {
+        long sequence = addEntry(entry);
+        for(int ii = 0; ii < keys.length; ii++)
+        {
+            if(null != keys[ii]) increaseCount(keys[ii]);
+        }
+        if(null == index) return;
+        Object[] values;
+        if(entry instanceof Object[] && ((Object[])entry).length == keys.length)
+        {
+            values = (Object[])entry;
+        }
+        else
+        {
+            values = new Object[keys.length];
+            Arrays.fill(values, entry);
+        }
+        addToIndex(sequence, keys, values);
+    }
+
+    /**
+     * Returns the retained entries, the oldest entry first.
+     * An unbounded history returns an unmodifiable view
+     * of its entries. Otherwise a copy is returned.
+     * @return the <code>List</code> of entries
+     */
+    public List getEntries()
+    {
+        if(null != entries) return Collections.unmodifiableList(entries);
+        if(capacity <= 0) return Collections.EMPTY_LIST;
+        long end = count.get();
+        long start = Math.max(0, end - capacity);
+        List result = new ArrayList((int)(end - start));
+        for(long ii = start; ii < end; ii++)
+        {
+            int index = (int)(ii % capacity);
+            if(sequences.get(index) != ii) continue;
+            Object entry = slots.get(index);
+            if(sequences.get(index) == ii) result.add(entry);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the retained entries that were added with the specified
+     * key, the oldest entry first. The history must be indexed.
+     * The returned <code>List</code> is an unmodifiable view of
+     * the index, not a copy. Like the <code>List</code> returned by
+     * <code>Collections.synchronizedList</code>, it must be synchronized
+     * on when it is iterated while entries are added.
+     * @param key the key
+     * @return the <code>List</code> of entries
+     * @throws IllegalStateException if the history is not indexed
+     */
+    public List getEntries(Object key)
+    {
+        List list = getIndexedEntries(key);
+        if(null == list) return Collections.EMPTY_LIST;
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the oldest retained entry that was added with
+     * the specified key. The history must be indexed.
+     * @param key the key
+     * @return the entry, <code>null</code> if there is none
+     * @throws IllegalStateException if the history is not indexed
+     */
+    public Object getFirstEntry(Object key)
+    {
+        List list = getIndexedEntries(key);
+        if(null == list) return null;
+        synchronized(list)
+        {
+            if(list.isEmpty()) return null;
+            return list.get(0);
+        }
+    }
+
+    /**
+     * Returns the retained entry with the specified index, the
+     * oldest retained entry has the index <code>0</code>. Unlike
+     * {@link #getEntries}, the entries are not copied.
+     * @param index the index
+     * @return the entry, <code>null</code> if the entry was evicted
+     *         or dropped or if it is being stored by another thread
+     * @throws IndexOutOfBoundsException if the index is negative or
+     *         not less than {@link #size}
+     */
+    public Object get(int index)
+    {
+        if(null != entries) return entries.get(index);
+        long end = count.get();
+        long sequence = Math.max(0, end - capacity) + index;
+        if(index < 0 || capacity <= 0 || sequence >= end)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        int slot = (int)(sequence % capacity);
+        if(sequences.get(slot) != sequence) return null;
+        Object entry = slots.get(slot);
+        if(sequences.get(slot) != sequence) return null;
+        return entry;
+    }
+
+    /**
+     * Returns the number of retained entries.
+     * @return the number of retained entries
+     */
+    public int size()
+    {
+        if(null != entries) return entries.size();
+        return (int)Math.min(count.get(), capacity);
+    }
+
+    /**
+     * Returns the number of all added entries, including
+     * the evicted entries.
+     * @return the number of added entries
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     * @return the number of evicted entries
+     */
+    public long getEvictedCount()
+    {
+        return getCount() - size();
+    }
+
+    /**
+     * Returns the number of added entries for the specified key,
+     * including the evicted entries.
+     * @param key the key
+     * @return the number of added entries for the key, <code>0</code>
+     *         if the key was not counted, because the maximum number
+     *         of keys was reached
+     */
+    public long getCount(Object key)
+    {
+        AtomicLong keyCount = (AtomicLong)keyCounts.get(key);
+        if(null == keyCount) return 0;
+        return keyCount.get();
+    }
+
+    /**
+     * Returns the number of added entries for each key. The keys
+     * map to <code>Long</code> objects.
+     * @return the <code>Map</code> of counts
+     */
+    public Map getCounts()
+    {
+        Map counts = new HashMap();
+        Iterator iterator = keyCounts.entrySet().iterator();
+        while(iterator.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            counts.put(entry.getKey(), new Long(((AtomicLong)entry.getValue()).get()));
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of added entries whose key was not
+     * counted, because the maximum number of keys was reached.
+     * @return the number of entries with uncounted keys
+     */
+    public long getOverflowCount()
+    {
+        return overflowCount.get();
+    }
+
+    /**
+     * Removes all entries and resets the counts.
+     */
+    public void clear()
+    {
+        if(null != entries) entries.clear();
+        if(capacity > 0)
+        {
+            for(int ii = 0; ii < capacity; ii++)
+            {
+                sequences.set(ii, -1);
+                slots.set(ii, null);
+            }
+        }
+        count.set(0);
+        keyCounts.clear();
+        overflowCount.set(0);
+        if(null != index)
+        {
+            synchronized(index)
+            {
+                index.clear();
+                if(null != indexOrder) indexOrder.clear();
+            }
+        }
+    }
+
+    private long addEntry(Object entry)
+    {
+        long sequence = count.getAndIncrement();
+        if(null != entries)
+        {
+            entries.add(entry);
+        }
+        else if(capacity > 0)
+        {
+            store(sequence, entry);
+        }
+        return sequence;
+    }
+
+    private void addToIndex(long sequence, Object[] keys, Object[] values)
+    {
+        synchronized(index)
+        {
+            for(int ii = 0; ii < keys.length; ii++)
+            {
+                if(null == keys[ii]) continue;
+                List list = (List)index.get(keys[ii]);
+                if(null == list)
+                {
+                    list = Collections.synchronizedList((null != indexOrder) ? (List)new LinkedList() : (List)new ArrayList(1));
+                    index.put(keys[ii], list);
+                }
+                list.add(values[ii]);
+                if(null != indexOrder) indexOrder.addLast(new IndexEntry(keys[ii], values[ii], sequence));
+            }
+            purgeIndex();
+        }
+    }
+
+    private void purgeIndex()
+    {
+        if(null == indexOrder) return;
+        long start = count.get() - capacity;
+        while(!indexOrder.isEmpty() && ((IndexEntry)indexOrder.getFirst()).sequence < start)
+        {
+            IndexEntry indexEntry = (IndexEntry)indexOrder.removeFirst();
+            List list = (List)index.get(indexEntry.key);
+            if(null == list) continue;
+            removeValue(list, indexEntry.value);
+            if(list.isEmpty()) index.remove(indexEntry.key);
+        }
+    }
+
+    private void removeValue(List list, Object value)
+    {
+        synchronized(list)
+        {
+            Iterator iterator = list.iterator();
+            while(iterator.hasNext())
+            {
+                if(iterator.next() == value)
+                {
+                    iterator.remove();
+                    return;
+                }
+            }
+        }
+    }
+
+    private List getIndexedEntries(Object key)
+    {
+        if(!indexed)
+        {
+            throw new IllegalStateException("history is not indexed");
+        }
+        if(null == index) return null;
+        synchronized(index)
+        {
+            purgeIndex();
+            return (List)index.get(key);
+        }
+    }
+
+    private void store(long sequence, Object entry)
+    {
+        int index = (int)(sequence % capacity);
+        long busy = -(sequence + 2);
+        while(true)
+        {
+            long current = sequences.get(index);
+            if(current < -1)
+            {
+                if(-(current + 2) > sequence) return;
+                Thread.yield();
+                continue;
+            }
+            if(current > sequence) return;
+            if(sequences.compareAndSet(index, current, busy)) break;
+        }
+        slots.set(index, entry);
+        sequences.set(index, sequence);
+    }
+
+    private void increaseCount(Object key)
+    {
+        AtomicLong keyCount = (AtomicLong)keyCounts.get(key);
+        if(null == keyCount)
+        {
+            if(UNBOUNDED != capacity && keyCounts.size() >= maximumKeys)
+            {
+                overflowCount.incrementAndGet();
+                return;
+            }
+            AtomicLong newCount = new AtomicLong();
+            keyCount = (AtomicLong)keyCounts.putIfAbsent(key, newCount);
+            if(null == keyCount) keyCount = newCount;
+        }
+        keyCount.incrementAndGet();
+    }
+
+    private static class IndexEntry
+    {
+        private final Object key;
+        private final Object value;
+        private final long sequence;
+
+        public IndexEntry(Object key, Object value, long sequence)
+        {
+            this.key = key;
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+}
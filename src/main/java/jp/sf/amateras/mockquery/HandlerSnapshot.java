@@ -0,0 +1,1151 @@
+package jp.sf.amateras.mockquery;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.BatchUpdateException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import jp.sf.amateras.mockquery.mock.MockBlob;
+import jp.sf.amateras.mockquery.mock.MockClob;
+import jp.sf.amateras.mockquery.mock.MockNClob;
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+import jp.sf.amateras.mockquery.mock.MockResultSetMetaData;
+import jp.sf.amateras.mockquery.mock.MockStreamingResultSet;
+
+/**
+ * Saves the prepared state of a result set handler, i.e. of a
+ * {@link StatementResultSetHandler}, {@link PreparedStatementResultSetHandler}
+ * or {@link CallableStatementResultSetHandler}, in a compact binary format
+ * and loads it into a handler again. The snapshot contains the match
+ * parameters, the prepared result sets, update counts, generated keys,
+ * exceptions and <i>returnsResultSet</i> flags, the parameter dependent
+ * results and the out parameters. The executed statements, the
+ * <code>Statement</code> objects and the {@link SQLCanonicalizer}
+ * are not saved.
+ * <p>
+ * The format starts with a header, the format version and the type of
+ * the handler, followed by one record for each prepared object. A
+ * snapshot can only be loaded into a handler of the same type, i.e.
+ * a statement, prepared statement or callable statement handler. Numbers are stored as variable
+ * length integers. Strings are stored once, the following occurrences
+ * refer to the first one. Result sets are stored column by column,
+ * columns that only contain <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> or <code>String</code> values are stored
+ * without type information for each value. A result set that is prepared
+ * more than once is stored once. A file is loaded with a memory mapped
+ * reader, so loading a snapshot is usually much faster than building
+ * the result sets again.
+ * <p>
+ * Values of the types <code>Boolean</code>, <code>Byte</code>,
+ * <code>Short</code>, <code>Integer</code>, <code>Long</code>,
+ * <code>Float</code>, <code>Double</code>, <code>Character</code>,
+ * <code>String</code>, <code>BigDecimal</code>, <code>BigInteger</code>,
+ * <code>byte[]</code>, the date and time types and {@link MockBlob},
+ * {@link MockClob} and {@link MockNClob} are stored in the binary format.
+ * Values of other types cannot be saved, Java serialization is not used,
+ * so loading a snapshot never instantiates arbitrary classes. A
+ * {@link MockStreamingResultSet} cannot
+ * be saved. The <code>ResultSetMetaData</code> of a result set is only saved,
+ * if it is a {@link MockResultSetMetaData}. Exceptions are restored with
+ * their class, message, SQL state, error code and the chained exceptions,
+ * but without stack trace. A class that is not a subclass of
+ * <code>SQLException</code> is neither initialized nor instantiated,
+ * such exceptions are restored as <code>SQLException</code>.
+ */
+public class HandlerSnapshot
+{
+    public final static int VERSION = 2;
+
+    final static int HANDLER_OTHER = 0;
+    final static int HANDLER_STATEMENT = 1;
+    final static int HANDLER_PREPARED_STATEMENT = 2;
+    final static int HANDLER_CALLABLE_STATEMENT = 3;
+
+    final static int END = 0;
+    final static int SETTINGS = 1;
+    final static int GLOBAL_RESULT_SET = 2;
+    final static int GLOBAL_RESULT_SETS = 3;
+    final static int RESULT_SET = 4;
+    final static int RESULT_SETS = 5;
+    final static int GLOBAL_UPDATE_COUNT = 6;
+    final static int GLOBAL_UPDATE_COUNTS = 7;
+    final static int UPDATE_COUNT = 8;
+    final static int UPDATE_COUNTS = 9;
+    final static int GLOBAL_GENERATED_KEYS = 10;
+    final static int GENERATED_KEYS = 11;
+    final static int RETURNS_RESULT_SET = 12;
+    final static int THROWS_SQL_EXCEPTION = 13;
+    final static int PARAMETER_SETTINGS = 20;
+    final static int PARAMETER_RESULT_SET = 21;
+    final static int PARAMETER_RESULT_SETS = 22;
+    final static int PARAMETER_UPDATE_COUNT = 23;
+    final static int PARAMETER_UPDATE_COUNTS = 24;
+    final static int PARAMETER_GENERATED_KEYS = 25;
+    final static int PARAMETER_THROWS_SQL_EXCEPTION = 26;
+    final static int OUT_PARAMETER_SETTINGS = 30;
+    final static int GLOBAL_OUT_PARAMETER = 31;
+    final static int OUT_PARAMETER = 32;
+    final static int PARAMETER_OUT_PARAMETER = 33;
+
+    private final static byte[] MAGIC = {'M', 'Q', 'H', 'S'};
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static int VALUE_NULL = 0;
+    private final static int VALUE_FALSE = 1;
+    private final static int VALUE_TRUE = 2;
+    private final static int VALUE_BYTE = 3;
+    private final static int VALUE_SHORT = 4;
+    private final static int VALUE_INTEGER = 5;
+    private final static int VALUE_LONG = 6;
+    private final static int VALUE_FLOAT = 7;
+    private final static int VALUE_DOUBLE = 8;
+    private final static int VALUE_CHARACTER = 9;
+    private final static int VALUE_STRING = 10;
+    private final static int VALUE_BIG_DECIMAL = 11;
+    private final static int VALUE_BIG_INTEGER = 12;
+    private final static int VALUE_BYTES = 13;
+    private final static int VALUE_DATE = 14;
+    private final static int VALUE_TIME = 15;
+    private final static int VALUE_TIMESTAMP = 16;
+    private final static int VALUE_UTIL_DATE = 17;
+    private final static int VALUE_BLOB = 18;
+    private final static int VALUE_CLOB = 19;
+    private final static int VALUE_NCLOB = 20;
+
+    private final static int COLUMN_OBJECT = 0;
+    private final static int COLUMN_INTEGER = 1;
+    private final static int COLUMN_LONG = 2;
+    private final static int COLUMN_DOUBLE = 3;
+    private final static int COLUMN_STRING = 4;
+
+    private final static int FLAG_COLUMNS_CASE_SENSITIVE = 1;
+    private final static int FLAG_DATABASE_VIEW = 2;
+    private final static int FLAG_META_DATA = 4;
+
+    /**
+     * Saves the prepared state of the specified handler to the specified file.
+     * @param handler the handler
+     * @param file the file
+     * @throws IllegalArgumentException if the handler contains objects
+     *         that cannot be saved
+     */
+    public static void save(AbstractResultSetHandler handler, File file)
+    {
+        try
+        {
+            OutputStream stream = new FileOutputStream(file);
+            try
+            {
+                save(handler, stream);
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Saves the prepared state of the specified handler to the specified
+     * stream. The stream is not closed.
+     * @param handler the handler
+     * @param stream the stream
+     * @throws IllegalArgumentException if the handler contains objects
+     *         that cannot be saved
+     */
+    public static void save(AbstractResultSetHandler handler, OutputStream stream)
+    {
+        try
+        {
+            createOutput(handler).writeTo(stream);
+            stream.flush();
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Returns the prepared state of the specified handler as snapshot.
+     * @param handler the handler
+     * @return the snapshot
+     * @throws IllegalArgumentException if the handler contains objects
+     *         that cannot be saved
+     */
+    public static byte[] toByteArray(AbstractResultSetHandler handler)
+    {
+        return createOutput(handler).toByteArray();
+    }
+
+    /**
+     * Loads the snapshot in the specified file into the specified handler.
+     * The file is memory mapped. The objects of the snapshot are prepared
+     * in addition to the objects that are already prepared, the match
+     * parameters are replaced.
+     * @param handler the handler
+     * @param file the file
+     * @throws IllegalArgumentException if the file does not contain a
+     *         snapshot or the snapshot was saved from a handler
+     *         of another type
+     */
+    public static void load(AbstractResultSetHandler handler, File file)
+    {
+        try
+        {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+                if(size > Integer.MAX_VALUE)
+                {
+                    throw new IOException("File " + file + " is too large");
+                }
+                load(handler, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Loads the specified snapshot into the specified handler.
+     * See {@link #load(AbstractResultSetHandler, File)}.
+     * @param handler the handler
+     * @param snapshot the snapshot
+     */
+    public static void load(AbstractResultSetHandler handler, byte[] snapshot)
+    {
+        load(handler, ByteBuffer.wrap(snapshot));
+    }
+
+    /**
+     * Loads the snapshot in the specified buffer into the specified handler.
+     * The snapshot is read from the current position of the buffer.
+     * See {@link #load(AbstractResultSetHandler, File)}.
+     * @param handler the handler
+     * @param buffer the buffer
+     */
+    public static void load(AbstractResultSetHandler handler, ByteBuffer buffer)
+    {
+        Input in = new Input(buffer.slice());
+        int handlerType = in.readHeader();
+        if(handlerType != getHandlerType(handler))
+        {
+            throw new IllegalArgumentException("Snapshot of handler type " + handlerType + " cannot be loaded into " + handler.getClass().getName());
+        }
+        int tag = in.readByte();
+        while(END != tag)
+        {
+            if(!handler.readSnapshotRecord(tag, in))
+            {
+                throw new IllegalArgumentException("Snapshot record " + tag + " cannot be loaded into " + handler.getClass().getName());
+            }
+            tag = in.readByte();
+        }
+    }
+
+    private static Output createOutput(AbstractResultSetHandler handler)
+    {
+        Output out = new Output();
+        out.writeHeader(getHandlerType(handler));
+        handler.writeSnapshot(out);
+        out.writeByte(END);
+        return out;
+    }
+
+    private static int getHandlerType(AbstractResultSetHandler handler)
+    {
+        if(handler instanceof CallableStatementResultSetHandler) return HANDLER_CALLABLE_STATEMENT;
+        if(handler instanceof PreparedStatementResultSetHandler) return HANDLER_PREPARED_STATEMENT;
+        if(handler instanceof StatementResultSetHandler) return HANDLER_STATEMENT;
+        return HANDLER_OTHER;
+    }
+
+    /**
+     * Writes the records of a snapshot. Strings, result sets and
+     * values are encoded as described in {@link HandlerSnapshot}.
+     */
+    static class Output
+    {
+        private byte[] buffer = new byte[1024];
+        private int size = 0;
+        private Map strings = new HashMap();
+        private Map resultSets = new IdentityHashMap();
+
+        void writeHeader(int handlerType)
+        {
+            writeBytes(MAGIC, 0, MAGIC.length);
+            writeVarInt(VERSION);
+            writeVarInt(handlerType);
+        }
+
+        void writeRecord(int tag)
+        {
+            writeByte(tag);
+        }
+
+        void writeByte(int value)
+        {
+            ensureCapacity(1);
+            buffer[size++] = (byte)value;
+        }
+
+        void writeBoolean(boolean value)
+        {
+            writeByte(value ? 1 : 0);
+        }
+
+        void writeVarInt(int value)
+        {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeSignedVarInt(int value)
+        {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        void writeVarLong(long value)
+        {
+            ensureCapacity(10);
+            while((value & ~0x7FL) != 0)
+            {
+                buffer[size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte)value;
+        }
+
+        void writeSignedVarLong(long value)
+        {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value)
+        {
+            long bits = Double.doubleToLongBits(value);
+            ensureCapacity(8);
+            for(int ii = 0; ii < 8; ii++)
+            {
+                buffer[size++] = (byte)(bits >>> (ii * 8));
+            }
+        }
+
+        void writeByteArray(byte[] value)
+        {
+            writeVarInt(value.length);
+            writeBytes(value, 0, value.length);
+        }
+
+        void writeString(String value)
+        {
+            if(null == value)
+            {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = (Integer)strings.get(value);
+            if(null != index)
+            {
+                writeVarInt(index.intValue() + 1);
+                return;
+            }
+            int newIndex = strings.size();
+            strings.put(value, new Integer(newIndex));
+            writeVarInt(newIndex + 1);
+            writeByteArray(value.getBytes(UTF8));
+        }
+
+        void writeIntArray(int[] values)
+        {
+            writeVarInt(values.length);
+            for(int ii = 0; ii < values.length; ii++)
+            {
+                writeSignedVarInt(values[ii]);
+            }
+        }
+
+        void writeMap(Map map)
+        {
+            writeVarInt(map.size());
+            Iterator entries = map.entrySet().iterator();
+            while(entries.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)entries.next();
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        void writeResultSets(MockResultSet[] values)
+        {
+            writeVarInt(values.length);
+            for(int ii = 0; ii < values.length; ii++)
+            {
+                writeResultSet(values[ii]);
+            }
+        }
+
+        void writeResultSet(MockResultSet resultSet)
+        {
+            if(null == resultSet)
+            {
+                writeVarInt(0);
+                return;
+            }
+            if(resultSet instanceof MockStreamingResultSet)
+            {
+                throw new IllegalArgumentException("MockStreamingResultSet " + resultSet.getId() + " cannot be saved");
+            }
+            Integer index = (Integer)resultSets.get(resultSet);
+            if(null != index)
+            {
+                writeVarInt(index.intValue() + 1);
+                return;
+            }
+            int newIndex = resultSets.size();
+            resultSets.put(resultSet, new Integer(newIndex));
+            writeVarInt(newIndex + 1);
+            writeResultSetData(resultSet);
+        }
+
+        void writeSQLException(SQLException exc)
+        {
+            writeString(exc.getClass().getName());
+            writeString(exc.getMessage());
+            writeString(exc.getSQLState());
+            writeSignedVarInt(exc.getErrorCode());
+            writeBoolean(exc instanceof BatchUpdateException);
+            if(exc instanceof BatchUpdateException)
+            {
+                int[] updateCounts = ((BatchUpdateException)exc).getUpdateCounts();
+                writeBoolean(null != updateCounts);
+                if(null != updateCounts) writeIntArray(updateCounts);
+            }
+            SQLException next = exc.getNextException();
+            writeBoolean(null != next);
+            if(null != next) writeSQLException(next);
+        }
+
+        void writeValue(Object value)
+        {
+            if(null == value)
+            {
+                writeByte(VALUE_NULL);
+            }
+            else if(value instanceof String)
+            {
+                writeByte(VALUE_STRING);
+                writeString((String)value);
+            }
+            else if(value instanceof Integer)
+            {
+                writeByte(VALUE_INTEGER);
+                writeSignedVarInt(((Integer)value).intValue());
+            }
+            else if(value instanceof Long)
+            {
+                writeByte(VALUE_LONG);
+                writeSignedVarLong(((Long)value).longValue());
+            }
+            else if(value instanceof Double)
+            {
+                writeByte(VALUE_DOUBLE);
+                writeDouble(((Double)value).doubleValue());
+            }
+            else if(value instanceof Boolean)
+            {
+                writeByte(((Boolean)value).booleanValue() ? VALUE_TRUE : VALUE_FALSE);
+            }
+            else if(value instanceof Byte)
+            {
+                writeByte(VALUE_BYTE);
+                writeByte(((Byte)value).byteValue());
+            }
+            else if(value instanceof Short)
+            {
+                writeByte(VALUE_SHORT);
+                writeSignedVarInt(((Short)value).shortValue());
+            }
+            else if(value instanceof Float)
+            {
+                writeByte(VALUE_FLOAT);
+                writeDouble(((Float)value).floatValue());
+            }
+            else if(value instanceof Character)
+            {
+                writeByte(VALUE_CHARACTER);
+                writeVarInt(((Character)value).charValue());
+            }
+            else if(value instanceof BigDecimal && BigDecimal.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_BIG_DECIMAL);
+                writeByteArray(((BigDecimal)value).unscaledValue().toByteArray());
+                writeSignedVarInt(((BigDecimal)value).scale());
+            }
+            else if(value instanceof BigInteger && BigInteger.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_BIG_INTEGER);
+                writeByteArray(((BigInteger)value).toByteArray());
+            }
+            else if(value instanceof byte[])
+            {
+                writeByte(VALUE_BYTES);
+                writeByteArray((byte[])value);
+            }
+            else if(java.sql.Date.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_DATE);
+                writeSignedVarLong(((java.sql.Date)value).getTime());
+            }
+            else if(Time.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_TIME);
+                writeSignedVarLong(((Time)value).getTime());
+            }
+            else if(Timestamp.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_TIMESTAMP);
+                writeSignedVarLong(((Timestamp)value).getTime());
+                writeVarInt(((Timestamp)value).getNanos());
+            }
+            else if(java.util.Date.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_UTIL_DATE);
+                writeSignedVarLong(((java.util.Date)value).getTime());
+            }
+            else if(MockBlob.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_BLOB);
+                writeByteArray(getBlobData((MockBlob)value));
+            }
+            else if(MockClob.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_CLOB);
+                writeString(getClobData((MockClob)value));
+            }
+            else if(MockNClob.class.equals(value.getClass()))
+            {
+                writeByte(VALUE_NCLOB);
+                writeString(getClobData((MockClob)value));
+            }
+            else
+            {
+                throw new IllegalArgumentException("Values of type " + value.getClass().getName() + " cannot be saved");
+            }
+        }
+
+        byte[] toByteArray()
+        {
+            byte[] data = new byte[size];
+            System.arraycopy(buffer, 0, data, 0, size);
+            return data;
+        }
+
+        void writeTo(OutputStream stream) throws IOException
+        {
+            stream.write(buffer, 0, size);
+        }
+
+        private void writeResultSetData(MockResultSet resultSet)
+        {
+            String cursorName = null;
+            ResultSetMetaData metaData = null;
+            try
+            {
+                cursorName = resultSet.getCursorName();
+                if(resultSet.hasResultSetMetaData()) metaData = resultSet.getMetaData();
+            }
+            catch(SQLException exc)
+            {
+
+            }
+            int flags = 0;
+            if(resultSet.getColumnsCaseSensitive()) flags |= FLAG_COLUMNS_CASE_SENSITIVE;
+            if(resultSet.isDatabaseView()) flags |= FLAG_DATABASE_VIEW;
+            if(metaData instanceof MockResultSetMetaData) flags |= FLAG_META_DATA;
+            writeString(resultSet.getId());
+            writeString(cursorName);
+            writeByte(flags);
+            List columnNames = resultSet.getColumnNames();
+            int rowCount = resultSet.getRowCount();
+            writeVarInt(columnNames.size());
+            writeVarInt(rowCount);
+            for(int ii = 0; ii < columnNames.size(); ii++)
+            {
+                writeString((String)columnNames.get(ii));
+                writeColumn(resultSet.getColumn(ii + 1), rowCount);
+            }
+            if(metaData instanceof MockResultSetMetaData)
+            {
+                writeMetaData(metaData);
+            }
+        }
+
+        private void writeColumn(List column, int rowCount)
+        {
+            int columnType = getColumnType(column);
+            writeByte(columnType);
+            if(COLUMN_STRING == columnType)
+            {
+                for(int ii = 0; ii < rowCount; ii++)
+                {
+                    writeString((String)column.get(ii));
+                }
+                return;
+            }
+            if(COLUMN_OBJECT == columnType)
+            {
+                for(int ii = 0; ii < rowCount; ii++)
+                {
+                    writeValue(column.get(ii));
+                }
+                return;
+            }
+            writeNulls(column, rowCount);
+            for(int ii = 0; ii < rowCount; ii++)
+            {
+                Object value = column.get(ii);
+                if(null == value) continue;
+                if(COLUMN_INTEGER == columnType)
+                {
+                    writeSignedVarInt(((Integer)value).intValue());
+                }
+                else if(COLUMN_LONG == columnType)
+                {
+                    writeSignedVarLong(((Long)value).longValue());
+                }
+                else
+                {
+                    writeDouble(((Double)value).doubleValue());
+                }
+            }
+        }
+
+        private int getColumnType(List column)
+        {
+            Class valueClass = null;
+            for(int ii = 0; ii < column.size(); ii++)
+            {
+                Object value = column.get(ii);
+                if(null == value) continue;
+                if(null == valueClass)
+                {
+                    valueClass = value.getClass();
+                }
+                else if(!valueClass.equals(value.getClass()))
+                {
+                    return COLUMN_OBJECT;
+                }
+            }
+            if(Integer.class.equals(valueClass)) return COLUMN_INTEGER;
+            if(Long.class.equals(valueClass)) return COLUMN_LONG;
+            if(Double.class.equals(valueClass)) return COLUMN_DOUBLE;
+            if(String.class.equals(valueClass)) return COLUMN_STRING;
+            return COLUMN_OBJECT;
+        }
+
+        private void writeNulls(List column, int rowCount)
+        {
+            byte[] nulls = new byte[(rowCount + 7) / 8];
+            int nullCount = 0;
+            for(int ii = 0; ii < rowCount; ii++)
+            {
+                if(null == column.get(ii))
+                {
+                    nulls[ii >> 3] |= 1 << (ii & 7);
+                    nullCount++;
+                }
+            }
+            writeVarInt(nullCount);
+            if(nullCount > 0)
+            {
+                writeBytes(nulls, 0, nulls.length);
+            }
+        }
+
+        private void writeMetaData(ResultSetMetaData metaData)
+        {
+            try
+            {
+                int columnCount = metaData.getColumnCount();
+                writeVarInt(columnCount);
+                for(int ii = 1; ii <= columnCount; ii++)
+                {
+                    writeSignedVarInt(metaData.getColumnType(ii));
+                    writeString(metaData.getColumnName(ii));
+                    writeString(metaData.getColumnLabel(ii));
+                    writeString(metaData.getColumnTypeName(ii));
+                    writeString(metaData.getColumnClassName(ii));
+                    writeString(metaData.getTableName(ii));
+                    writeString(metaData.getSchemaName(ii));
+                    writeString(metaData.getCatalogName(ii));
+                    writeSignedVarInt(metaData.getColumnDisplaySize(ii));
+                    writeSignedVarInt(metaData.getPrecision(ii));
+                    writeSignedVarInt(metaData.getScale(ii));
+                    writeSignedVarInt(metaData.isNullable(ii));
+                    int flags = 0;
+                    if(metaData.isAutoIncrement(ii)) flags |= 1;
+                    if(metaData.isCaseSensitive(ii)) flags |= 2;
+                    if(metaData.isCurrency(ii)) flags |= 4;
+                    if(metaData.isDefinitelyWritable(ii)) flags |= 8;
+                    if(metaData.isReadOnly(ii)) flags |= 16;
+                    if(metaData.isSearchable(ii)) flags |= 32;
+                    if(metaData.isSigned(ii)) flags |= 64;
+                    if(metaData.isWritable(ii)) flags |= 128;
+                    writeVarInt(flags);
+                }
+            }
+            catch(SQLException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        private byte[] getBlobData(MockBlob blob)
+        {
+            try
+            {
+                return blob.getBytes(1, (int)blob.length());
+            }
+            catch(SQLException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        private String getClobData(MockClob clob)
+        {
+            try
+            {
+                return clob.getSubString(1, (int)clob.length());
+            }
+            catch(SQLException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        private void writeBytes(byte[] data, int offset, int length)
+        {
+            ensureCapacity(length);
+            System.arraycopy(data, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void ensureCapacity(int length)
+        {
+            if(size + length <= buffer.length) return;
+            int newLength = Math.max(buffer.length * 2, size + length);
+            byte[] newBuffer = new byte[newLength];
+            System.arraycopy(buffer, 0, newBuffer, 0, size);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Reads the records of a snapshot from a <code>ByteBuffer</code>.
+     */
+    static class Input
+    {
+        private ByteBuffer buffer;
+        private List strings = new ArrayList();
+        private List resultSets = new ArrayList();
+
+        Input(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        int readHeader()
+        {
+            if(buffer.remaining() < MAGIC.length)
+            {
+                throw new IllegalArgumentException("Data is not a snapshot");
+            }
+            for(int ii = 0; ii < MAGIC.length; ii++)
+            {
+                if(buffer.get() != MAGIC[ii])
+                {
+                    throw new IllegalArgumentException("Data is not a snapshot");
+                }
+            }
+            int version = readVarInt();
+            if(version != VERSION)
+            {
+                throw new IllegalArgumentException("Snapshot version " + version + " is not supported");
+            }
+            return readVarInt();
+        }
+
+        int readByte()
+        {
+            return buffer.get() & 0xFF;
+        }
+
+        boolean readBoolean()
+        {
+            return 0 != buffer.get();
+        }
+
+        int readVarInt()
+        {
+            return (int)readVarLong();
+        }
+
+        int readSignedVarInt()
+        {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readVarLong()
+        {
+            long value = 0;
+            int shift = 0;
+            while(true)
+            {
+                byte next = buffer.get();
+                value |= (long)(next & 0x7F) << shift;
+                if(next >= 0) return value;
+                shift += 7;
+                if(shift > 63)
+                {
+                    throw new IllegalArgumentException("Invalid number in snapshot");
+                }
+            }
+        }
+
+        long readSignedVarLong()
+        {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble()
+        {
+            long bits = 0;
+            for(int ii = 0; ii < 8; ii++)
+            {
+                bits |= (long)(buffer.get() & 0xFF) << (ii * 8);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        byte[] readByteArray()
+        {
+            byte[] data = new byte[readVarInt()];
+            buffer.get(data);
+            return data;
+        }
+
+        String readString()
+        {
+            int index = readVarInt();
+            if(0 == index) return null;
+            if(index <= strings.size())
+            {
+                return (String)strings.get(index - 1);
+            }
+            if(index != strings.size() + 1)
+            {
+                throw new IllegalArgumentException("Invalid string reference in snapshot");
+            }
+            String value = new String(readByteArray(), UTF8);
+            strings.add(value);
+            return value;
+        }
+
+        int[] readIntArray()
+        {
+            int[] values = new int[readVarInt()];
+            for(int ii = 0; ii < values.length; ii++)
+            {
+                values[ii] = readSignedVarInt();
+            }
+            return values;
+        }
+
+        Map readMap()
+        {
+            int size = readVarInt();
+            Map map = new HashMap();
+            for(int ii = 0; ii < size; ii++)
+            {
+                Object key = readValue();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        MockResultSet[] readResultSets()
+        {
+            MockResultSet[] values = new MockResultSet[readVarInt()];
+            for(int ii = 0; ii < values.length; ii++)
+            {
+                values[ii] = readResultSet();
+            }
+            return values;
+        }
+
+        MockResultSet readResultSet()
+        {
+            int index = readVarInt();
+            if(0 == index) return null;
+            if(index <= resultSets.size())
+            {
+                return (MockResultSet)resultSets.get(index - 1);
+            }
+            if(index != resultSets.size() + 1)
+            {
+                throw new IllegalArgumentException("Invalid result set reference in snapshot");
+            }
+            MockResultSet resultSet = readResultSetData();
+            resultSets.add(resultSet);
+            return resultSet;
+        }
+
+        SQLException readSQLException()
+        {
+            String className = readString();
+            String message = readString();
+            String sqlState = readString();
+            int errorCode = readSignedVarInt();
+            SQLException exc;
+            if(readBoolean())
+            {
+                int[] updateCounts = readBoolean() ? readIntArray() : null;
+                Class[] parameterTypes = new Class[] {String.class, String.class, int.class, int[].class};
+                Object[] parameters = new Object[] {message, sqlState, new Integer(errorCode), updateCounts};
+                exc = createSQLException(className, parameterTypes, parameters);
+                if(!(exc instanceof BatchUpdateException))
+                {
+                    exc = new BatchUpdateException(message, sqlState, errorCode, updateCounts);
+                }
+            }
+            else
+            {
+                Class[] parameterTypes = new Class[] {String.class, String.class, int.class};
+                Object[] parameters = new Object[] {message, sqlState, new Integer(errorCode)};
+                exc = createSQLException(className, parameterTypes, parameters);
+                if(null == exc)
+                {
+                    exc = new SQLException(message, sqlState, errorCode);
+                }
+            }
+            if(readBoolean())
+            {
+                exc.setNextException(readSQLException());
+            }
+            return exc;
+        }
+
+        Object readValue()
+        {
+            int type = readByte();
+            switch(type)
+            {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_BYTE:
+                    return new Byte(buffer.get());
+                case VALUE_SHORT:
+                    return new Short((short)readSignedVarInt());
+                case VALUE_INTEGER:
+                    return new Integer(readSignedVarInt());
+                case VALUE_LONG:
+                    return new Long(readSignedVarLong());
+                case VALUE_FLOAT:
+                    return new Float((float)readDouble());
+                case VALUE_DOUBLE:
+                    return new Double(readDouble());
+                case VALUE_CHARACTER:
+                    return new Character((char)readVarInt());
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_BIG_DECIMAL:
+                    BigInteger unscaledValue = new BigInteger(readByteArray());
+                    return new BigDecimal(unscaledValue, readSignedVarInt());
+                case VALUE_BIG_INTEGER:
+                    return new BigInteger(readByteArray());
+                case VALUE_BYTES:
+                    return readByteArray();
+                case VALUE_DATE:
+                    return new java.sql.Date(readSignedVarLong());
+                case VALUE_TIME:
+                    return new Time(readSignedVarLong());
+                case VALUE_TIMESTAMP:
+                    Timestamp timestamp = new Timestamp(readSignedVarLong());
+                    timestamp.setNanos(readVarInt());
+                    return timestamp;
+                case VALUE_UTIL_DATE:
+                    return new java.util.Date(readSignedVarLong());
+                case VALUE_BLOB:
+                    return new MockBlob(readByteArray());
+                case VALUE_CLOB:
+                    return new MockClob(readString());
+                case VALUE_NCLOB:
+                    return new MockNClob(readString());
+            }
+            throw new IllegalArgumentException("Invalid value type " + type + " in snapshot");
+        }
+
+        private MockResultSet readResultSetData()
+        {
+            String id = readString();
+            String cursorName = readString();
+            int flags = readByte();
+            MockResultSet resultSet = new MockResultSet(id, cursorName);
+            if(0 != (flags & FLAG_COLUMNS_CASE_SENSITIVE))
+            {
+                resultSet.setColumnsCaseSensitive(true);
+            }
+            int columnCount = readVarInt();
+            int rowCount = readVarInt();
+            String[] columnNames = new String[columnCount];
+            Object[][] values = new Object[columnCount][];
+            for(int ii = 0; ii < columnCount; ii++)
+            {
+                columnNames[ii] = readString();
+                values[ii] = readColumn(rowCount);
+            }
+            resultSet.addColumns(columnNames, values);
+            if(0 != (flags & FLAG_META_DATA))
+            {
+                resultSet.setResultSetMetaData(readMetaData());
+            }
+            resultSet.setDatabaseView(0 != (flags & FLAG_DATABASE_VIEW));
+            return resultSet;
+        }
+
+        private Object[] readColumn(int rowCount)
+        {
+            int columnType = readByte();
+            Object[] values = new Object[rowCount];
+            if(COLUMN_STRING == columnType)
+            {
+                for(int ii = 0; ii < rowCount; ii++)
+                {
+                    values[ii] = readString();
+                }
+                return values;
+            }
+            if(COLUMN_OBJECT == columnType)
+            {
+                for(int ii = 0; ii < rowCount; ii++)
+                {
+                    values[ii] = readValue();
+                }
+                return values;
+            }
+            byte[] nulls = null;
+            if(readVarInt() > 0)
+            {
+                nulls = new byte[(rowCount + 7) / 8];
+                buffer.get(nulls);
+            }
+            for(int ii = 0; ii < rowCount; ii++)
+            {
+                if(null != nulls && 0 != (nulls[ii >> 3] & (1 << (ii & 7)))) continue;
+                if(COLUMN_INTEGER == columnType)
+                {
+                    values[ii] = new Integer(readSignedVarInt());
+                }
+                else if(COLUMN_LONG == columnType)
+                {
+                    values[ii] = new Long(readSignedVarLong());
+                }
+                else if(COLUMN_DOUBLE == columnType)
+                {
+                    values[ii] = new Double(readDouble());
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Invalid column type " + columnType + " in snapshot");
+                }
+            }
+            return values;
+        }
+
+        private MockResultSetMetaData readMetaData()
+        {
+            MockResultSetMetaData metaData = new MockResultSetMetaData();
+            int columnCount = readVarInt();
+            metaData.setColumnCount(columnCount);
+            for(int ii = 1; ii <= columnCount; ii++)
+            {
+                metaData.setColumnType(ii, readSignedVarInt());
+                metaData.setColumnName(ii, readString());
+                metaData.setColumnLabel(ii, readString());
+                metaData.setColumnTypeName(ii, readString());
+                metaData.setColumnClassName(ii, readString());
+                metaData.setTableName(ii, readString());
+                metaData.setSchemaName(ii, readString());
+                metaData.setCatalogName(ii, readString());
+                metaData.setColumnDisplaySize(ii, readSignedVarInt());
+                metaData.setPrecision(ii, readSignedVarInt());
+                metaData.setScale(ii, readSignedVarInt());
+                metaData.setNullable(ii, readSignedVarInt());
+                int flags = readVarInt();
+                metaData.setAutoIncrement(ii, 0 != (flags & 1));
+                metaData.setCaseSensitive(ii, 0 != (flags & 2));
+                metaData.setCurrency(ii, 0 != (flags & 4));
+                metaData.setDefinitelyWritable(ii, 0 != (flags & 8));
+                metaData.setReadOnly(ii, 0 != (flags & 16));
+                metaData.setSearchable(ii, 0 != (flags & 32));
+                metaData.setSigned(ii, 0 != (flags & 64));
+                metaData.setWritable(ii, 0 != (flags & 128));
+            }
+            return metaData;
+        }
+
+        private SQLException createSQLException(String className, Class[] parameterTypes, Object[] parameters)
+        {
+            try
+            {
+                Class exceptionClass = Class.forName(className, false, HandlerSnapshot.class.getClassLoader());
+                if(!SQLException.class.isAssignableFrom(exceptionClass)) return null;
+                Constructor constructor = exceptionClass.getConstructor(parameterTypes);
+                return (SQLException)constructor.newInstance(parameters);
+            }
+            catch(Exception exc)
+            {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package jp.sf.amateras.mockquery;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An event of the mock JDBC objects, e.g. an executed statement,
+ * a commit or a closed <code>ResultSet</code>. Events are delivered
+ * to the {@link JDBCEventListener} objects of a
+ * {@link JDBCEventDispatcher}.
+ * <p>
+ * The start and end time are <code>System.nanoTime</code> values, i.e.
+ * they can only be compared with each other. The thread is the thread
+ * that created the event. The fingerprint of the SQL string is created
+ * by the {@link SQLCanonicalizer} of the dispatcher, when it is requested
+ * for the first time, so statements that only differ in whitespace or
+ * literals have the same fingerprint.
+ * <p>
+ * Events are immutable, so they can be passed between threads.
+ */
+public class JDBCEvent
+{
+    public final static int QUERY = 1;
+    public final static int UPDATE = 2;
+    public final static int BATCH = 3;
+    public final static int COMMIT = 4;
+    public final static int ROLLBACK = 5;
+    public final static int RESULT_SET_CLOSE = 6;
+
+    public final static int NO_STATEMENT = 0;
+    public final static int STATEMENT = 1;
+    public final static int PREPARED_STATEMENT = 2;
+    public final static int CALLABLE_STATEMENT = 3;
+
+    private final int type;
+    private final int statementType;
+    private final String sql;
+    private final Map parameters;
+    private final String fixtureKey;
+    private final String resultSetId;
+    private final int rowCount;
+    private final SQLException exception;
+    private final long startTime;
+    private final long endTime;
+    private final String threadName;
+    private final long threadId;
+    private volatile SQLCanonicalizer canonicalizer;
+    private volatile CanonicalSQL canonicalSQL;
+
+    /**
+     * Creates an event on the current thread.
+     * @param type the event type, e.g. {@link #QUERY}
+     * @param statementType the statement type, e.g. {@link #STATEMENT}
+     * @param sql the SQL string, may be <code>null</code>
+     * @param parameters the parameters of the statement, may be <code>null</code>
+     * @param fixtureKey the prepared SQL string whose results were used,
+     *        may be <code>null</code>
+     * @param resultSetId the id of the <code>ResultSet</code>, may be <code>null</code>
+     * @param rowCount the number of rows or the update count, <code>-1</code>
+     *        if there is none or if the number of rows is unknown
+     * @param exception the <code>SQLException</code>, may be <code>null</code>
+     * @param startTime the start time in nanoseconds
+     * @param endTime the end time in nanoseconds
+     */
+    public JDBCEvent(int type, int statementType, String sql, Map parameters, String fixtureKey, String resultSetId, int rowCount, SQLException exception, long startTime, long endTime)
+    {
+        this.type = type;
+        this.statementType = statementType;
+        this.sql = sql;
+        this.parameters = (null == parameters) ? null : Collections.unmodifiableMap(new HashMap(parameters));
+        this.fixtureKey = fixtureKey;
+        this.resultSetId = resultSetId;
+        this.rowCount = rowCount;
+        this.exception = exception;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        Thread thread = Thread.currentThread();
+        this.threadName = thread.getName();
+        this.threadId = thread.getId();
+    }
+
+    /**
+     * Returns the event type.
+     * @return the event type, e.g. {@link #QUERY}
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the type of the statement.
+     * @return the statement type, e.g. {@link #PREPARED_STATEMENT},
+     *         {@link #NO_STATEMENT} for commits and rollbacks
+     */
+    public int getStatementType()
+    {
+        return statementType;
+    }
+
+    /**
+     * Returns the SQL string.
+     * @return the SQL string or <code>null</code>
+     */
+    public String getSQL()
+    {
+        return sql;
+    }
+
+    /**
+     * Returns the canonical form of the SQL string.
+     * @return the <code>CanonicalSQL</code> or <code>null</code>,
+     *         if the event has no SQL string
+     */
+    public CanonicalSQL getCanonicalSQL()
+    {
+        CanonicalSQL current = canonicalSQL;
+        if(null == current && null != sql)
+        {
+            SQLCanonicalizer currentCanonicalizer = canonicalizer;
+            if(null == currentCanonicalizer)
+            {
+                currentCanonicalizer = JDBCEventDispatcher.DEFAULT_CANONICALIZER;
+            }
+            current = currentCanonicalizer.getCanonicalSQL(sql);
+            canonicalSQL = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the fingerprint of the SQL string.
+     * @return the fingerprint, <code>0</code> if the event
+     *         has no SQL string
+     */
+    public long getFingerprint()
+    {
+        CanonicalSQL current = getCanonicalSQL();
+        if(null == current) return 0;
+        return current.getFingerprint();
+    }
+
+    /**
+     * Returns an unmodifiable copy of the parameters.
+     * @return the parameters or <code>null</code>
+     */
+    public Map getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * Returns the prepared SQL string whose results or exception
+     * were used. The SQL string is returned as it was prepared.
+     * @return the prepared SQL string or <code>null</code>, if the
+     *         global results were used
+     */
+    public String getFixtureKey()
+    {
+        return fixtureKey;
+    }
+
+    /**
+     * Returns the id of the returned or closed <code>ResultSet</code>.
+     * @return the id or <code>null</code>
+     */
+    public String getResultSetId()
+    {
+        return resultSetId;
+    }
+
+    /**
+     * Returns the number of rows of the <code>ResultSet</code> or
+     * the update count. The number of rows is the total number
+     * of rows, see {@link jp.sf.amateras.mockquery.mock.MockResultSet#getTotalRowCount}.
+     * @return the row count, <code>-1</code> if there is none or if it is unknown
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns the <code>SQLException</code> that was thrown.
+     * @return the <code>SQLException</code> or <code>null</code>
+     */
+    public SQLException getException()
+    {
+        return exception;
+    }
+
+    /**
+     * Returns the start time.
+     * @return the start time in nanoseconds
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * Returns the end time.
+     * @return the end time in nanoseconds
+     */
+    public long getEndTime()
+    {
+        return endTime;
+    }
+
+    /**
+     * Returns the duration, i.e. the end time minus the start time.
+     * @return the duration in nanoseconds
+     */
+    public long getDuration()
+    {
+        return endTime - startTime;
+    }
+
+    /**
+     * Returns the name of the thread that created the event.
+     * @return the thread name
+     */
+    public String getThreadName()
+    {
+        return threadName;
+    }
+
+    /**
+     * Returns the id of the thread that created the event.
+     * @return the thread id
+     */
+    public long getThreadId()
+    {
+        return threadId;
+    }
+
+    void setSQLCanonicalizer(SQLCanonicalizer canonicalizer)
+    {
+        this.canonicalizer = canonicalizer;
+    }
+
+    public String toString()
+    {
+        return "JDBCEvent: type=" + type + ", statementType=" + statementType + ", sql=" + sql + ", parameters=" + parameters + ", fixtureKey=" + fixtureKey + ", rowCount=" + rowCount + ", exception=" + exception + ", duration=" + getDuration() + "ns, thread=" + threadName;
+    }
+}
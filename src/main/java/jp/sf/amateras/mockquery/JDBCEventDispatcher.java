@@ -0,0 +1,297 @@
+package jp.sf.amateras.mockquery;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the {@link JDBCEvent} objects of the mock JDBC objects to
+ * the registered {@link JDBCEventListener} objects. Each
+ * {@link jp.sf.amateras.mockquery.mock.MockConnection} has a dispatcher
+ * for the events of the connection, its statements and their
+ * <code>ResultSet</code> objects. The mock objects only create
+ * events if the dispatcher has listeners.
+ * <p>
+ * Synchronous listeners are called by the thread that creates the event,
+ * in the order they were added. Asynchronous listeners are called by a
+ * daemon thread of the dispatcher. The events are passed to this thread
+ * with a lock-free queue, so the threads that execute statements are not
+ * blocked by the listeners. The thread is started when the first event
+ * for an asynchronous listener is queued. Use {@link #flush} to wait until
+ * all queued events are delivered, e.g. before the events are evaluated
+ * in a test, and {@link #shutdown} to stop the thread.
+ * <p>
+ * Exceptions and errors of the listeners are logged and counted. They
+ * are not thrown to the JDBC calls and do not stop the delivery to the
+ * other listeners.
+ * <p>
+ * The fingerprints of the events are created with the
+ * {@link SQLCanonicalizer} of the dispatcher. By default,
+ * the case is folded and the literals are replaced.
+ */
+public class JDBCEventDispatcher
+{
+    final static SQLCanonicalizer DEFAULT_CANONICALIZER = new SQLCanonicalizer(true, true);
+
+    private final static Logger log = Logger.getLogger(JDBCEventDispatcher.class.getName());
+
+    private final List listeners = new CopyOnWriteArrayList();
+    private final List asynchronousListeners = new CopyOnWriteArrayList();
+    private final ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicInteger flushCount = new AtomicInteger();
+    private final Object flushLock = new Object();
+    private volatile boolean hasListeners = false;
+    private volatile SQLCanonicalizer canonicalizer = DEFAULT_CANONICALIZER;
+    private volatile Thread dispatcherThread;
+
+    /**
+     * Adds a synchronous listener.
+     * @param listener the listener
+     */
+    public void addListener(JDBCEventListener listener)
+    {
+        listeners.add(listener);
+        hasListeners = true;
+    }
+
+    /**
+     * Adds an asynchronous listener.
+     * @param listener the listener
+     */
+    public void addAsynchronousListener(JDBCEventListener listener)
+    {
+        asynchronousListeners.add(listener);
+        hasListeners = true;
+    }
+
+    /**
+     * Removes a synchronous or asynchronous listener.
+     * @param listener the listener
+     */
+    public void removeListener(JDBCEventListener listener)
+    {
+        listeners.remove(listener);
+        asynchronousListeners.remove(listener);
+        hasListeners = !listeners.isEmpty() || !asynchronousListeners.isEmpty();
+    }
+
+    /**
+     * Removes all listeners.
+     */
+    public void clearListeners()
+    {
+        listeners.clear();
+        asynchronousListeners.clear();
+        hasListeners = false;
+    }
+
+    /**
+     * Returns if there are listeners. The mock objects use
+     * this method to check if they have to create events.
+     * @return <code>true</code> if there are listeners
+     */
+    public boolean hasListeners()
+    {
+        return hasListeners;
+    }
+
+    /**
+     * Sets the {@link SQLCanonicalizer} for the fingerprints of the events.
+     * @param canonicalizer the <code>SQLCanonicalizer</code>
+     * @throws IllegalArgumentException if the canonicalizer is <code>null</code>
+     */
+    public void setSQLCanonicalizer(SQLCanonicalizer canonicalizer)
+    {
+        if(null == canonicalizer)
+        {
+            throw new IllegalArgumentException("canonicalizer must not be null");
+        }
+        this.canonicalizer = canonicalizer;
+    }
+
+    /**
+     * Returns the {@link SQLCanonicalizer} for the fingerprints of the events.
+     * @return the <code>SQLCanonicalizer</code>
+     */
+    public SQLCanonicalizer getSQLCanonicalizer()
+    {
+        return canonicalizer;
+    }
+
+    /**
+     * Delivers the specified event to the synchronous listeners and
+     * queues it for the asynchronous listeners.
+     * @param event the event
+     */
+    public void fireEvent(JDBCEvent event)
+    {
+        event.setSQLCanonicalizer(canonicalizer);
+        Iterator iterator = listeners.iterator();
+        while(iterator.hasNext())
+        {
+            notifyListener((JDBCEventListener)iterator.next(), event);
+        }
+        if(asynchronousListeners.isEmpty()) return;
+        queuedCount.incrementAndGet();
+        queue.offer(event);
+        LockSupport.unpark(getDispatcherThread());
+    }
+
+    /**
+     * Waits until all queued events are delivered to the
+     * asynchronous listeners.
+     */
+    public void flush()
+    {
+        long queued = queuedCount.get();
+        if(deliveredCount.get() >= queued) return;
+        flushCount.incrementAndGet();
+        try
+        {
+            while(deliveredCount.get() < queued)
+            {
+                LockSupport.unpark(getDispatcherThread());
+                synchronized(flushLock)
+                {
+                    if(deliveredCount.get() < queued) flushLock.wait();
+                }
+            }
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            flushCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Delivers the queued events and stops the dispatcher thread.
+     * The thread is started again, if further events are queued.
+     * A new thread is not started before the stopped thread
+     * has finished.
+     */
+    public synchronized void shutdown()
+    {
+        Thread thread = dispatcherThread;
+        if(null == thread) return;
+        dispatcherThread = null;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join();
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of events that were queued for the
+     * asynchronous listeners and not yet delivered.
+     * @return the number of pending events
+     */
+    public long getPendingEventCount()
+    {
+        return queuedCount.get() - deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of exceptions and errors that
+     * were thrown by listeners.
+     * @return the number of exceptions
+     */
+    public long getFailureCount()
+    {
+        return failureCount.get();
+    }
+
+    private Thread getDispatcherThread()
+    {
+        Thread thread = dispatcherThread;
+        if(null != thread) return thread;
+        synchronized(this)
+        {
+            if(null == dispatcherThread)
+            {
+                thread = new DispatcherThread();
+                dispatcherThread = thread;
+                thread.start();
+            }
+            return dispatcherThread;
+        }
+    }
+
+    private void deliver(JDBCEvent event)
+    {
+        Iterator iterator = asynchronousListeners.iterator();
+        while(iterator.hasNext())
+        {
+            notifyListener((JDBCEventListener)iterator.next(), event);
+        }
+        deliveredCount.incrementAndGet();
+        if(flushCount.get() > 0)
+        {
+            synchronized(flushLock)
+            {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    private void notifyListener(JDBCEventListener listener, JDBCEvent event)
+    {
+        try
+        {
+            listener.eventOccurred(event);
+        }
+        catch(Throwable exc)
+        {
+            failureCount.incrementAndGet();
+            log.log(Level.WARNING, "Listener " + listener + " failed for event " + event, exc);
+        }
+    }
+
+    private class DispatcherThread extends Thread
+    {
+        public DispatcherThread()
+        {
+            super("JDBCEventDispatcher");
+            setDaemon(true);
+        }
+
+        public void run()
+        {
+            while(this == dispatcherThread)
+            {
+                JDBCEvent event = (JDBCEvent)queue.poll();
+                if(null == event)
+                {
+                    LockSupport.park(this);
+                }
+                else
+                {
+                    deliver(event);
+                }
+            }
+            JDBCEvent event = (JDBCEvent)queue.poll();
+            while(null != event)
+            {
+                deliver(event);
+                event = (JDBCEvent)queue.poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package jp.sf.amateras.mockquery;
+
+/**
+ * Listener for the {@link JDBCEvent} objects of a {@link JDBCEventDispatcher}.
+ * A synchronous listener is called by the thread that uses the mock
+ * JDBC objects, before the JDBC method returns. An asynchronous
+ * listener is called by the dispatcher thread.
+ */
+public interface JDBCEventListener
+{
+    /**
+     * Called for each event.
+     * @param event the event
+     */
+    public void eventOccurred(JDBCEvent event);
+}
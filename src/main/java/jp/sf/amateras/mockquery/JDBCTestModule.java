@@ -5,9 +5,11 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import jp.sf.amateras.mockquery.mock.JDBCMockObjectFactory;
@@ -24,10 +26,13 @@ import jp.sf.amateras.mockquery.util.StringUtil;
  */
 public class JDBCTestModule
 {
+    private final static int MAX_REPORTED_DIFFERENCES = 10;
+
     private JDBCMockObjectFactory mockFactory;
     private boolean caseSensitive = false;
     private boolean exactMatch = false;
     private boolean useRegularExpressions = false;
+    private SQLCanonicalizer canonicalizer = null;
       
     public JDBCTestModule(JDBCMockObjectFactory mockFactory)
     {
@@ -94,6 +99,35 @@ public class JDBCTestModule
         this.useRegularExpressions = useRegularExpressions;
     }
     
+    /**
+     * Sets the {@link SQLCanonicalizer} that is used to canonicalize 
+     * the SQL strings before they are compared. Default is <code>null</code>,
+     * i.e. the SQL strings are compared as they are.
+     * Use the same canonicalizer as the result set handlers, if
+     * they record the executed statements with their canonical form.
+     * In contrast to {@link AbstractResultSetHandler#setSQLCanonicalizer(SQLCanonicalizer)} 
+     * it does not control the prepared results that are returned when the 
+     * tested application executes a matching statement.
+     * @param canonicalizer the <code>SQLCanonicalizer</code> or <code>null</code>
+     */
+    public void setSQLCanonicalizer(SQLCanonicalizer canonicalizer)
+    {
+        this.canonicalizer = canonicalizer;
+    }
+    
+    /**
+     * Returns the {@link SQLMetricsRegistry} of the connection.
+     * The registry records per SQL statement statistics, e.g. the
+     * number of executions and a latency histogram, and exports them
+     * as JSON or Prometheus text. It has to be enabled with
+     * {@link SQLMetricsRegistry#setEnabled} before it records metrics.
+     * @return the {@link SQLMetricsRegistry}
+     */
+    public SQLMetricsRegistry getSQLMetricsRegistry()
+    {
+        return mockFactory.getMockConnection().getSQLMetricsRegistry();
+    }
+    
     /**
      * Returns the {@link StatementResultSetHandler}. 
      * The {@link StatementResultSetHandler}
@@ -209,7 +243,7 @@ public class JDBCTestModule
     public ParameterSets getExecutedSQLStatementParameterSets(String sql)
     {
         Map map = getExecutedSQLStatementParameterMap();
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
         List list = matcher.getMatchingObjects(map, sql, false, false);
         if(list != null && list.size() > 0)
         {
@@ -229,12 +263,11 @@ public class JDBCTestModule
      */
     public MockResultSet getReturnedResultSet(String id)
     {
-        List list = getReturnedResultSets(id);
-        if(list != null && list.size() > 0)
-        {
-            return (MockResultSet)list.get(0);
-        }
-        return null;
+        MockResultSet resultSet = mockFactory.getMockConnection().getStatementResultSetHandler().getReturnedResultSet(id);
+        if(null != resultSet) return resultSet;
+        resultSet = mockFactory.getMockConnection().getPreparedStatementResultSetHandler().getReturnedResultSet(id);
+        if(null != resultSet) return resultSet;
+        return mockFactory.getMockConnection().getCallableStatementResultSetHandler().getReturnedResultSet(id);
     }
     
     /**
@@ -248,40 +281,26 @@ public class JDBCTestModule
      * statements. The <code>ResultSet</code> objects in the <code>List</code>
      * returned by this method are really the instances the statement returned
      * and not the instances you have used when preparing them.
+     * If only one of the handlers returned <code>ResultSet</code> objects
+     * with the specified id, the unmodifiable <code>List</code> of that
+     * handler is returned without copying it.
      * @return the <code>List</code> of <code>ResultSet</code> objects
      */
     public List getReturnedResultSets(String id)
     {
-        List list = getReturnedResultSets();
-        ArrayList resultList = new ArrayList();
-        for(int ii = 0; ii < list.size(); ii++)
-        {
-            Object object = list.get(ii);
-            if(object instanceof MockResultSet)
-            {
-                addIfIdMatches((MockResultSet)object, id, resultList);
-            }
-            else if(object instanceof MockResultSet[])
-            {
-                MockResultSet[] resultSets = (MockResultSet[])object;
-                for(int yy = 0; yy < resultSets.length; yy++)
-                {
-                    addIfIdMatches(resultSets[yy], id, resultList);
-                }
-            }
-        }
+        List statementList = mockFactory.getMockConnection().getStatementResultSetHandler().getReturnedResultSets(id);
+        List preparedList = mockFactory.getMockConnection().getPreparedStatementResultSetHandler().getReturnedResultSets(id);
+        List callableList = mockFactory.getMockConnection().getCallableStatementResultSetHandler().getReturnedResultSets(id);
+        if(preparedList.isEmpty() && callableList.isEmpty()) return statementList;
+        if(statementList.isEmpty() && callableList.isEmpty()) return preparedList;
+        if(statementList.isEmpty() && preparedList.isEmpty()) return callableList;
+        ArrayList resultList = new ArrayList(statementList.size() + preparedList.size() + callableList.size());
+        resultList.addAll(statementList);
+        resultList.addAll(preparedList);
+        resultList.addAll(callableList);
         return resultList;
     }
     
-    private void addIfIdMatches(MockResultSet resultSet, String id, List resultList)
-    {
-        if(null == id) return;
-        if(id.equals(resultSet.getId()))
-        {
-            resultList.add(resultSet);
-        }
-    }
-    
     /**
      * Returns a <code>List</code> of all <code>ResultSet</code> objects that were returned
      * by calling an <code>executeQuery</code> method of a {@link com.mockrunner.mock.jdbc.MockStatement},
@@ -364,7 +383,7 @@ public class JDBCTestModule
     public List getPreparedStatements(String sql)
     {
         Map sqlStatements = mockFactory.getMockConnection().getPreparedStatementResultSetHandler().getPreparedStatementMap();
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
         return matcher.getMatchingObjects(sqlStatements, sql, true, false); 
     }
     
@@ -423,7 +442,7 @@ public class JDBCTestModule
     public List getCallableStatements(String sql)
     {
         Map sqlStatements = mockFactory.getMockConnection().getCallableStatementResultSetHandler().getCallableStatementMap();
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
         return matcher.getMatchingObjects(sqlStatements, sql, true, false); 
     }
     
@@ -600,13 +619,16 @@ public class JDBCTestModule
     
     /**
      * Verifies that an SQL statement was executed.
+     * The statements that were evicted from a limited execution
+     * history (see {@link AbstractResultSetHandler#setExecutionHistoryCapacity})
+     * are taken into account.
      * @param sql the expected SQL string
      * @throws VerifyFailedException if verification fails
      */
     public void verifySQLStatementExecuted(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
-        if(!matcher.contains(getExecutedSQLStatements(), sql, false))
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
+        if(!matcher.contains(getExecutedSQLStrings(), sql, false))
         {
             throw new VerifyFailedException("Statement " + sql + " not executed.");
         }
@@ -614,13 +636,15 @@ public class JDBCTestModule
     
     /**
      * Verifies that an SQL statement was not executed.
+     * The statements that were evicted from a limited execution
+     * history are taken into account.
      * @param sql the SQL string
      * @throws VerifyFailedException if verification fails
      */
     public void verifySQLStatementNotExecuted(String sql)
     {
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
-        if(matcher.contains(getExecutedSQLStatements(), sql, false))
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
+        if(matcher.contains(getExecutedSQLStrings(), sql, false))
         {
             throw new VerifyFailedException("Statement " + sql + " was executed.");
         }
@@ -743,10 +767,28 @@ public class JDBCTestModule
         }
     }
 
+    private Set getExecutedSQLStrings()
+    {
+        Set set = new HashSet();
+        addExecutedSQLStrings(set, mockFactory.getMockConnection().getStatementResultSetHandler().getExecutedStatementHistory());
+        addExecutedSQLStrings(set, mockFactory.getMockConnection().getPreparedStatementResultSetHandler().getExecutedStatementHistory());
+        addExecutedSQLStrings(set, mockFactory.getMockConnection().getCallableStatementResultSetHandler().getExecutedStatementHistory());
+        return set;
+    }
+    
+    private void addExecutedSQLStrings(Set set, ExecutionHistory history)
+    {
+        set.addAll(history.getCounts().keySet());
+        if(history.getOverflowCount() > 0)
+        {
+            set.addAll(history.getEntries());
+        }
+    }
+    
     private Map verifyAndGetParametersForSQL(String sql, int indexOfParameterSet)
     {
         verifySQLStatementExecuted(sql);
-        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions);
+        SQLStatementMatcher matcher = new SQLStatementMatcher(caseSensitive, exactMatch, useRegularExpressions, canonicalizer);
         List matchingParameterList = matcher.getMatchingObjects(getExecutedSQLStatementParameterMap(), sql, true, false);
         if(null == matchingParameterList || matchingParameterList.size() == 0)
         {
@@ -1558,6 +1600,8 @@ public class JDBCTestModule
     /**
      * Verifies that a <code>ResultSet</code> is equal to another one.
      * Compares all the rows with {@link com.mockrunner.mock.jdbc.MockResultSet#isEqual}.
+     * If the verification fails, the message starts with the first
+     * differences as reported by {@link MockResultSet#diff}.
      * @param source the source <code>ResultSet</code>
      * @param target the target <code>ResultSet</code>
      * @throws VerifyFailedException if verification fails
@@ -1566,7 +1610,14 @@ public class JDBCTestModule
     {
         if(!source.isEqual(target))
         {
-            StringBuffer buffer = new StringBuffer("Source data:\n");  
+            StringBuffer buffer = new StringBuffer();
+            List differences = source.diff(target, MAX_REPORTED_DIFFERENCES);
+            for(int ii = 0; ii < differences.size(); ii++)
+            {
+                buffer.append(differences.get(ii));
+                buffer.append("\n");
+            }
+            buffer.append("Source data:\n");  
             buffer.append(source.toString());
             buffer.append("\n");
             buffer.append("Target data:\n");
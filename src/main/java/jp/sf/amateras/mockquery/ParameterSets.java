@@ -1,7 +1,5 @@
 package jp.sf.amateras.mockquery;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -13,15 +11,23 @@ import java.util.Map;
  * Each <code>execute</code> call creates a parameter set.
  * A parameter set is a map, the index or the name of the 
  * parameter maps to the value.
+ * The number of parameter sets that are kept can be limited
+ * (see {@link ExecutionHistory}). The index of a parameter set
+ * is relative to the oldest kept parameter set.
  */
 public class ParameterSets
 {
-	private List parameterSets;
+	private ExecutionHistory parameterSets;
 	private String sql;
 	
 	public ParameterSets(String sql)
 	{
-		parameterSets = new ArrayList();
+		this(sql, ExecutionHistory.UNBOUNDED);
+	}
+	
+	public ParameterSets(String sql, int capacity)
+	{
+		parameterSets = new ExecutionHistory(capacity);
 		this.sql = sql;
 	}
 	
@@ -40,7 +46,7 @@ public class ParameterSets
 	 */
 	public void addParameterSet(Map parameterSet)
 	{
-		parameterSets.add(parameterSet);
+		parameterSets.add(null, parameterSet);
 	}
 	
 	/**
@@ -52,6 +58,16 @@ public class ParameterSets
 		return parameterSets.size();
 	}
 	
+	/**
+	 * Get the number of executions, including the executions
+	 * whose parameter sets are no longer kept.
+	 * @return the number of executions
+	 */
+	public long getNumberExecutions()
+	{
+		return parameterSets.getCount();
+	}
+	
 	/**
 	 * Gets a parameter set for a specified index.
 	 * @param indexOfParameterSet the index
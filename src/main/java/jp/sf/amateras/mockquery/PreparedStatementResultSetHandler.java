@@ -1,10 +1,7 @@
 package jp.sf.amateras.mockquery;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import jp.sf.amateras.mockquery.mock.MockPreparedStatement;
 
@@ -12,16 +9,7 @@ import jp.sf.amateras.mockquery.mock.MockPreparedStatement;
  * Concrete handler for {@link MockPreparedStatement}.
  */
 public class PreparedStatementResultSetHandler extends AbstractParameterResultSetHandler
-{ 
-    private List preparedStatements;
-    private Map preparedStatementMap;
-    
-    public PreparedStatementResultSetHandler()
-    {
-        preparedStatements = new ArrayList();
-        preparedStatementMap = new TreeMap();
-    }
-    
+{
     /**
      * The <code>Connection</code> adds new statements with
      * this method.
@@ -30,23 +18,18 @@ public class PreparedStatementResultSetHandler extends AbstractParameterResultSe
     public void addPreparedStatement(MockPreparedStatement statement)
     { 
         statement.setPreparedStatementResultSetHandler(this);
-        List list = (List)preparedStatementMap.get(statement.getSQL());
-        if(null == list)
-        {
-            list = new ArrayList();
-            preparedStatementMap.put(statement.getSQL(), list);
-        }
-        list.add(statement);
-        preparedStatements.add(statement);
+        getStatementRegistry().add(statement.getSQL(), statement);
     }
     
     /**
      * Returns a <code>List</code> of all prepared statements.
+     * If the {@link StatementRegistry} is weak, only the
+     * statements it keeps are returned.
      * @return the <code>List</code> of {@link MockPreparedStatement} objects
      */
     public List getPreparedStatements()
     {
-        return Collections.unmodifiableList(preparedStatements);
+        return getStatementRegistry().getStatements();
     }
     
     /**
@@ -57,7 +40,7 @@ public class PreparedStatementResultSetHandler extends AbstractParameterResultSe
      */
     public Map getPreparedStatementMap()
     {
-        return Collections.unmodifiableMap(preparedStatementMap);
+        return getStatementRegistry().getStatementMap();
     }
 
     /**
@@ -65,7 +48,6 @@ public class PreparedStatementResultSetHandler extends AbstractParameterResultSe
      */
     public void clearPreparedStatements()
     {
-        preparedStatements.clear();
-        preparedStatementMap.clear();
+        getStatementRegistry().clear();
     }
 }
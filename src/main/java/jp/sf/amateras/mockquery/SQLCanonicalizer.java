@@ -0,0 +1,139 @@
+package jp.sf.amateras.mockquery;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jp.sf.amateras.mockquery.util.SQLUtil;
+
+/**
+ * Creates and caches the canonical form of SQL strings using
+ * {@link SQLUtil#canonicalize}. If a canonicalizer is set for a
+ * result set handler, the handler compares the canonical forms
+ * of the prepared and the executed SQL strings, so whitespace
+ * and, with <code>foldCase</code>, the case of the SQL strings
+ * do not matter. The executed SQL strings and the
+ * {@link ParameterSets} are recorded with their canonical form.
+ * If <code>replaceLiterals</code> is set, statements that only
+ * differ in their literals are treated as the same statement.
+ * Regular expressions are not canonicalized.
+ * Each SQL string is canonicalized only once, as long as
+ * it is cached. If the cache is full, the least recently 
+ * used SQL string is discarded.
+ * The same canonicalizer can be shared by multiple handlers
+ * and the {@link JDBCTestModule}.
+ */
+public class SQLCanonicalizer
+{
+    public final static int DEFAULT_MAXIMUM_SIZE = 1024;
+    
+    private final boolean foldCase;
+    private final boolean replaceLiterals;
+    private final int maximumSize;
+    private final Map canonicalSQLMap;
+    
+    public SQLCanonicalizer()
+    {
+        this(true, false);
+    }
+    
+    public SQLCanonicalizer(boolean foldCase, boolean replaceLiterals)
+    {
+        this(foldCase, replaceLiterals, DEFAULT_MAXIMUM_SIZE);
+    }
+    
+    public SQLCanonicalizer(boolean foldCase, boolean replaceLiterals, int maximumSize)
+    {
+        if(maximumSize <= 0)
+        {
+            throw new IllegalArgumentException("maximumSize must be greater than 0");
+        }
+        this.foldCase = foldCase;
+        this.replaceLiterals = replaceLiterals;
+        this.maximumSize = maximumSize;
+        canonicalSQLMap = new LinkedHashMap(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry eldest)
+            {
+                return size() > SQLCanonicalizer.this.maximumSize;
+            }
+        };
+    }
+    
+    /**
+     * Returns if the SQL strings are converted to lower case.
+     * @return <code>true</code> if the SQL strings are converted to lower case
+     */
+    public boolean isFoldCase()
+    {
+        return foldCase;
+    }
+    
+    /**
+     * Returns if literals are replaced by <i>?</i>.
+     * @return <code>true</code> if literals are replaced
+     */
+    public boolean isReplaceLiterals()
+    {
+        return replaceLiterals;
+    }
+    
+    /**
+     * Returns the canonical form of the specified SQL string.
+     * @param sql the SQL string
+     * @return the {@link CanonicalSQL}
+     */
+    public CanonicalSQL getCanonicalSQL(String sql)
+    {
+        if(null == sql) sql = "";
+        synchronized(this)
+        {
+            CanonicalSQL canonicalSQL = (CanonicalSQL)canonicalSQLMap.get(sql);
+            if(null != canonicalSQL) return canonicalSQL;
+        }
+        String canonical = SQLUtil.canonicalize(sql, foldCase, replaceLiterals);
+        CanonicalSQL canonicalSQL = new CanonicalSQL(sql, canonical);
+        synchronized(this)
+        {
+            canonicalSQLMap.put(sql, canonicalSQL);
+        }
+        return canonicalSQL;
+    }
+    
+    /**
+     * Returns the canonical form of the specified SQL string.
+     * @param sql the SQL string
+     * @return the canonical SQL string
+     */
+    public String canonicalize(String sql)
+    {
+        return getCanonicalSQL(sql).getCanonicalSQL();
+    }
+    
+    /**
+     * Returns the fingerprint of the canonical form of the
+     * specified SQL string.
+     * @param sql the SQL string
+     * @return the fingerprint
+     */
+    public long getFingerprint(String sql)
+    {
+        return getCanonicalSQL(sql).getFingerprint();
+    }
+    
+    /**
+     * Returns the number of cached SQL strings.
+     * @return the number of cached SQL strings
+     */
+    public synchronized int size()
+    {
+        return canonicalSQLMap.size();
+    }
+    
+    /**
+     * Removes all cached SQL strings.
+     */
+    public synchronized void clear()
+    {
+        canonicalSQLMap.clear();
+    }
+}
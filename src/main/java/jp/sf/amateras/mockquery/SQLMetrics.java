@@ -0,0 +1,161 @@
+package jp.sf.amateras.mockquery;
+
+import jp.sf.amateras.mockquery.util.LatencyHistogram;
+import jp.sf.amateras.mockquery.util.StripedCounter;
+
+/**
+ * The statistics of one canonical SQL string in a {@link SQLMetricsRegistry}.
+ * The statements record the executions, the rows of the returned
+ * <code>ResultSet</code> objects, the update counts, the exceptions and
+ * the latency of the execution. The <code>ResultSet</code> objects record
+ * the rows that were consumed with <code>next()</code> and the latency
+ * of the pages of a {@link jp.sf.amateras.mockquery.mock.FetchSimulation},
+ * i.e. the injected delay.
+ * <p>
+ * The values are recorded with striped counters, so they can be
+ * updated by many threads. The latencies are in nanoseconds.
+ */
+public class SQLMetrics
+{
+    private final String sql;
+    private final StripedCounter executions = new StripedCounter();
+    private final StripedCounter rowsReturned = new StripedCounter();
+    private final StripedCounter rowsConsumed = new StripedCounter();
+    private final StripedCounter updateCount = new StripedCounter();
+    private final StripedCounter exceptions = new StripedCounter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+
+    public SQLMetrics(String sql)
+    {
+        this.sql = sql;
+    }
+
+    /**
+     * Returns the canonical SQL string.
+     * @return the SQL string
+     */
+    public String getSQL()
+    {
+        return sql;
+    }
+
+    /**
+     * Records an execution.
+     * @param latency the latency of the execution in nanoseconds
+     * @param rowsReturned the number of rows of the returned
+     *        <code>ResultSet</code>, <code>-1</code> if there is none
+     *        or if the number of rows is unknown
+     * @param updateCount the update count, <code>-1</code> if there is none
+     * @param failed <code>true</code> if the execution threw an exception
+     */
+    public void recordExecution(long latency, int rowsReturned, int updateCount, boolean failed)
+    {
+        executions.increment();
+        this.latency.record(latency);
+        if(rowsReturned > 0) this.rowsReturned.add(rowsReturned);
+        if(updateCount > 0) this.updateCount.add(updateCount);
+        if(failed) exceptions.increment();
+    }
+
+    /**
+     * Records a row that was consumed with <code>next()</code>.
+     */
+    public void recordRowConsumed()
+    {
+        rowsConsumed.increment();
+    }
+
+    /**
+     * Records the latency of a fetched page.
+     * @param latency the latency in nanoseconds
+     */
+    public void recordFetchLatency(long latency)
+    {
+        fetchLatency.record(latency);
+    }
+
+    /**
+     * Returns the number of executions.
+     * @return the number of executions
+     */
+    public long getExecutionCount()
+    {
+        return executions.get();
+    }
+
+    /**
+     * Returns the number of rows of the returned <code>ResultSet</code> objects.
+     * Streamed <code>ResultSet</code> objects whose number of rows is unknown
+     * when the statement is executed are not counted.
+     * @return the number of rows
+     */
+    public long getRowsReturned()
+    {
+        return rowsReturned.get();
+    }
+
+    /**
+     * Returns the number of rows that were consumed with <code>next()</code>.
+     * @return the number of rows
+     */
+    public long getRowsConsumed()
+    {
+        return rowsConsumed.get();
+    }
+
+    /**
+     * Returns the sum of the update counts.
+     * @return the sum of the update counts
+     */
+    public long getUpdateCount()
+    {
+        return updateCount.get();
+    }
+
+    /**
+     * Returns the number of executions that threw an exception.
+     * @return the number of exceptions
+     */
+    public long getExceptionCount()
+    {
+        return exceptions.get();
+    }
+
+    /**
+     * Returns the histogram of the execution latencies.
+     * @return the <code>LatencyHistogram</code>
+     */
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Returns the histogram of the page latencies.
+     * @return the <code>LatencyHistogram</code>
+     */
+    public LatencyHistogram getFetchLatency()
+    {
+        return fetchLatency;
+    }
+
+    /**
+     * Resets all values.
+     */
+    public void reset()
+    {
+        executions.reset();
+        rowsReturned.reset();
+        rowsConsumed.reset();
+        updateCount.reset();
+        exceptions.reset();
+        latency.reset();
+        fetchLatency.reset();
+    }
+
+    public String toString()
+    {
+        return "SQLMetrics: sql=" + sql + ", executions=" + getExecutionCount() + ", rowsReturned=" + getRowsReturned() + ", rowsConsumed=" + getRowsConsumed() + ", updateCount=" + getUpdateCount() + ", exceptions=" + getExceptionCount();
+    }
+}
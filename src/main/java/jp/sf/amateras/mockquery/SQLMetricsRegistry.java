@@ -0,0 +1,337 @@
+package jp.sf.amateras.mockquery;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.sf.amateras.mockquery.util.LatencyHistogram;
+
+/**
+ * Registry of {@link SQLMetrics} objects, keyed by the canonical form
+ * of the SQL strings. Each {@link jp.sf.amateras.mockquery.mock.MockConnection}
+ * has a registry that is updated by its statements and their
+ * <code>ResultSet</code> objects. The registry is disabled by default,
+ * i.e. nothing is recorded until it is enabled with {@link #setEnabled}.
+ * <p>
+ * The SQL strings are canonicalized with the {@link SQLCanonicalizer}
+ * of the registry. By default, the case is folded and the literals are
+ * replaced, so statements that only differ in their literals share their
+ * metrics. The metrics of the executed SQL strings are cached, so the
+ * canonicalizer is only used for new SQL strings.
+ * <p>
+ * The metrics can be exported as JSON or in the Prometheus text format.
+ * The JSON latencies are in nanoseconds, the Prometheus latencies
+ * in seconds.
+ */
+public class SQLMetricsRegistry
+{
+    public final static int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final static double[] QUANTILES = new double[] {0.5, 0.9, 0.99, 0.999};
+
+    private volatile boolean enabled = false;
+    private volatile SQLCanonicalizer canonicalizer = JDBCEventDispatcher.DEFAULT_CANONICALIZER;
+    private final ConcurrentMap metrics = new ConcurrentHashMap();
+    private final ConcurrentMap executedSQL = new ConcurrentHashMap();
+
+    /**
+     * Sets if the registry records metrics. Default is <code>false</code>.
+     * @param enabled should the registry record metrics
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns if the registry records metrics.
+     * @return <code>true</code> if the registry records metrics
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Sets the {@link SQLCanonicalizer} for the SQL strings.
+     * The current metrics are removed.
+     * @param canonicalizer the <code>SQLCanonicalizer</code>
+     * @throws IllegalArgumentException if the canonicalizer is <code>null</code>
+     */
+    public void setSQLCanonicalizer(SQLCanonicalizer canonicalizer)
+    {
+        if(null == canonicalizer)
+        {
+            throw new IllegalArgumentException("canonicalizer must not be null");
+        }
+        this.canonicalizer = canonicalizer;
+        clear();
+    }
+
+    /**
+     * Returns the {@link SQLCanonicalizer} for the SQL strings.
+     * @return the <code>SQLCanonicalizer</code>
+     */
+    public SQLCanonicalizer getSQLCanonicalizer()
+    {
+        return canonicalizer;
+    }
+
+    /**
+     * Returns the metrics for the specified SQL string. The
+     * metrics are created, if they do not exist.
+     * @param sql the SQL string
+     * @return the <code>SQLMetrics</code>
+     */
+    public SQLMetrics getMetrics(String sql)
+    {
+        if(null == sql) sql = "";
+        SQLMetrics current = (SQLMetrics)executedSQL.get(sql);
+        if(null != current) return current;
+        String canonicalSQL = canonicalizer.canonicalize(sql);
+        current = (SQLMetrics)metrics.get(canonicalSQL);
+        if(null == current)
+        {
+            SQLMetrics newMetrics = new SQLMetrics(canonicalSQL);
+            current = (SQLMetrics)metrics.putIfAbsent(canonicalSQL, newMetrics);
+            if(null == current) current = newMetrics;
+        }
+        if(executedSQL.size() < DEFAULT_MAXIMUM_SIZE)
+        {
+            executedSQL.put(sql, current);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the metrics of all SQL strings, sorted by
+     * the canonical SQL strings.
+     * @return the <code>List</code> of <code>SQLMetrics</code>
+     */
+    public List getAllMetrics()
+    {
+        return new ArrayList(new TreeMap(metrics).values());
+    }
+
+    /**
+     * Removes all metrics.
+     */
+    public void clear()
+    {
+        executedSQL.clear();
+        metrics.clear();
+    }
+
+    /**
+     * Returns the metrics as JSON.
+     * @return the JSON string
+     */
+    public String toJSON()
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("{\"statements\":[");
+        List allMetrics = getAllMetrics();
+        for(int ii = 0; ii < allMetrics.size(); ii++)
+        {
+            SQLMetrics current = (SQLMetrics)allMetrics.get(ii);
+            if(ii > 0) buffer.append(',');
+            buffer.append("\n{\"sql\":");
+            appendJSONString(buffer, current.getSQL());
+            buffer.append(",\"executions\":").append(current.getExecutionCount());
+            buffer.append(",\"rowsReturned\":").append(current.getRowsReturned());
+            buffer.append(",\"rowsConsumed\":").append(current.getRowsConsumed());
+            buffer.append(",\"updateCount\":").append(current.getUpdateCount());
+            buffer.append(",\"exceptions\":").append(current.getExceptionCount());
+            buffer.append(",\"latency\":");
+            appendJSONHistogram(buffer, current.getLatency());
+            buffer.append(",\"fetchLatency\":");
+            appendJSONHistogram(buffer, current.getFetchLatency());
+            buffer.append('}');
+        }
+        buffer.append("\n]}\n");
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format.
+     * @return the Prometheus text
+     */
+    public String toPrometheus()
+    {
+        List allMetrics = getAllMetrics();
+        StringBuffer buffer = new StringBuffer();
+        appendPrometheusCounter(buffer, allMetrics, "mockquery_sql_executions_total", "Number of executions", 0);
+        appendPrometheusCounter(buffer, allMetrics, "mockquery_sql_rows_returned_total", "Number of rows of the returned result sets", 1);
+        appendPrometheusCounter(buffer, allMetrics, "mockquery_sql_rows_consumed_total", "Number of rows consumed with next()", 2);
+        appendPrometheusCounter(buffer, allMetrics, "mockquery_sql_update_count_total", "Sum of the update counts", 3);
+        appendPrometheusCounter(buffer, allMetrics, "mockquery_sql_exceptions_total", "Number of executions that threw an exception", 4);
+        appendPrometheusSummary(buffer, allMetrics, "mockquery_sql_latency_seconds", "Latency of the executions", false);
+        appendPrometheusSummary(buffer, allMetrics, "mockquery_sql_fetch_latency_seconds", "Latency of the fetched pages", true);
+        return buffer.toString();
+    }
+
+    /**
+     * Writes the metrics as JSON to the specified file.
+     * @param file the file
+     * @throws NestedApplicationException if the file cannot be written
+     */
+    public void writeJSON(File file)
+    {
+        write(file, toJSON());
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format to the specified file.
+     * @param file the file
+     * @throws NestedApplicationException if the file cannot be written
+     */
+    public void writePrometheus(File file)
+    {
+        write(file, toPrometheus());
+    }
+
+    private void write(File file, String content)
+    {
+        try
+        {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try
+            {
+                writer.write(content);
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private void appendJSONHistogram(StringBuffer buffer, LatencyHistogram histogram)
+    {
+        buffer.append("{\"count\":").append(histogram.getCount());
+        buffer.append(",\"min\":").append(histogram.getMin());
+        buffer.append(",\"max\":").append(histogram.getMax());
+        buffer.append(",\"mean\":").append(histogram.getMean());
+        buffer.append(",\"p50\":").append(histogram.getValueAtPercentile(50));
+        buffer.append(",\"p90\":").append(histogram.getValueAtPercentile(90));
+        buffer.append(",\"p99\":").append(histogram.getValueAtPercentile(99));
+        buffer.append(",\"p999\":").append(histogram.getValueAtPercentile(99.9));
+        buffer.append('}');
+    }
+
+    private void appendJSONString(StringBuffer buffer, String string)
+    {
+        buffer.append('"');
+        for(int ii = 0; ii < string.length(); ii++)
+        {
+            char nextChar = string.charAt(ii);
+            if('"' == nextChar || '\\' == nextChar)
+            {
+                buffer.append('\\').append(nextChar);
+            }
+            else if(nextChar < 0x20)
+            {
+                String hex = Integer.toHexString(nextChar);
+                buffer.append("\\u");
+                for(int kk = hex.length(); kk < 4; kk++)
+                {
+                    buffer.append('0');
+                }
+                buffer.append(hex);
+            }
+            else
+            {
+                buffer.append(nextChar);
+            }
+        }
+        buffer.append('"');
+    }
+
+    private void appendPrometheusCounter(StringBuffer buffer, List allMetrics, String name, String help, int counter)
+    {
+        buffer.append("# HELP ").append(name).append(' ').append(help).append(" per SQL statement.\n");
+        buffer.append("# TYPE ").append(name).append(" counter\n");
+        for(int ii = 0; ii < allMetrics.size(); ii++)
+        {
+            SQLMetrics current = (SQLMetrics)allMetrics.get(ii);
+            long value;
+            switch(counter)
+            {
+                case 0: value = current.getExecutionCount(); break;
+                case 1: value = current.getRowsReturned(); break;
+                case 2: value = current.getRowsConsumed(); break;
+                case 3: value = current.getUpdateCount(); break;
+                default: value = current.getExceptionCount(); break;
+            }
+            buffer.append(name);
+            appendPrometheusLabels(buffer, current.getSQL(), null);
+            buffer.append(' ').append(value).append('\n');
+        }
+    }
+
+    private void appendPrometheusSummary(StringBuffer buffer, List allMetrics, String name, String help, boolean fetch)
+    {
+        buffer.append("# HELP ").append(name).append(' ').append(help).append(" per SQL statement.\n");
+        buffer.append("# TYPE ").append(name).append(" summary\n");
+        for(int ii = 0; ii < allMetrics.size(); ii++)
+        {
+            SQLMetrics current = (SQLMetrics)allMetrics.get(ii);
+            LatencyHistogram histogram = fetch ? current.getFetchLatency() : current.getLatency();
+            for(int kk = 0; kk < QUANTILES.length; kk++)
+            {
+                buffer.append(name);
+                appendPrometheusLabels(buffer, current.getSQL(), String.valueOf(QUANTILES[kk]));
+                buffer.append(' ').append(toSeconds(histogram.getValueAtPercentile(QUANTILES[kk] * 100))).append('\n');
+            }
+            buffer.append(name).append("_sum");
+            appendPrometheusLabels(buffer, current.getSQL(), null);
+            buffer.append(' ').append(toSeconds(histogram.getSum())).append('\n');
+            buffer.append(name).append("_count");
+            appendPrometheusLabels(buffer, current.getSQL(), null);
+            buffer.append(' ').append(histogram.getCount()).append('\n');
+        }
+    }
+
+    private void appendPrometheusLabels(StringBuffer buffer, String sql, String quantile)
+    {
+        buffer.append("{sql=\"");
+        for(int ii = 0; ii < sql.length(); ii++)
+        {
+            char nextChar = sql.charAt(ii);
+            if('"' == nextChar || '\\' == nextChar)
+            {
+                buffer.append('\\').append(nextChar);
+            }
+            else if('\n' == nextChar)
+            {
+                buffer.append("\\n");
+            }
+            else
+            {
+                buffer.append(nextChar);
+            }
+        }
+        buffer.append('"');
+        if(null != quantile)
+        {
+            buffer.append(",quantile=\"").append(quantile).append('"');
+        }
+        buffer.append('}');
+    }
+
+    private String toSeconds(long nanos)
+    {
+        return String.valueOf(nanos / 1000000000.0);
+    }
+}
@@ -0,0 +1,24 @@
+package jp.sf.amateras.mockquery;
+
+/**
+ * Index over the SQL strings of a {@link SQLStatementMap}.
+ * An index is created for a sorted array of SQL strings and
+ * the settings of one {@link SQLStatementMatcher}. It must
+ * find the same strings as {@link SQLStatementMatcher#doStringsMatch}
+ * would find, if the executed SQL string is compared to each of
+ * the indexed strings, but it should not need to compare them
+ * one by one.
+ * Implementations must be thread-safe, they are not modified
+ * after creation.
+ */
+public interface SQLStatementIndex
+{
+    /**
+     * Returns the positions of all indexed SQL strings that match
+     * the specified SQL string. The positions refer to the array
+     * the index was created for and are sorted in ascending order.
+     * @param sql the executed SQL string
+     * @return the positions of the matching SQL strings
+     */
+    public int[] getMatchingKeys(String sql);
+}
@@ -0,0 +1,474 @@
+package jp.sf.amateras.mockquery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jp.sf.amateras.mockquery.util.MultiPatternMatcher;
+import jp.sf.amateras.mockquery.util.StringUtil;
+
+/**
+ * Map of SQL strings to prepared objects, e.g. result sets or update counts,
+ * that are returned when a statement is executed.
+ * The SQL strings are sorted like in a <code>TreeMap</code>. Unlike
+ * {@link SQLStatementMatcher#getMatchingObjects}, this class does not
+ * compare the executed SQL string with all prepared SQL strings. It
+ * creates a {@link SQLStatementIndex} when the first statement is executed
+ * after the map was modified (or the match parameters changed)
+ * and uses it for all following lookups:
+ * <br>
+ * <code>exactMatch</code> uses a hash index of the prepared SQL strings
+ * <br>
+ * the default mode, where the executed SQL string must contain the prepared
+ * SQL string, uses an Aho-Corasick automaton of all prepared SQL strings
+ * <br>
+ * <code>useRegularExpressions</code> checks only the regular expressions
+ * whose literal prefix is a prefix of the executed SQL string
+ * (and the ones without such a prefix)
+ * <br>
+ * So the lookup time depends on the length of the executed SQL string
+ * and not on the number of prepared SQL strings.
+ * The matching objects are returned in the order of the sorted SQL
+ * strings, which is the same order {@link SQLStatementMatcher#getMatchingObjects}
+ * would return.
+ * If the matcher has a {@link SQLCanonicalizer}, the index is created
+ * for the canonical forms of the SQL strings.
+ */
+public class SQLStatementMap
+{
+    private final static int[] NO_MATCH = new int[0];
+
+    private final Map statements = new TreeMap();
+    private volatile IndexedStatements indexedStatements;
+
+    /**
+     * Adds an object for the specified SQL string. An object
+     * that was added for the same SQL string before, will be replaced.
+     * @param sql the SQL string
+     * @param value the object
+     */
+    public synchronized void put(String sql, Object value)
+    {
+        statements.put(sql, value);
+        indexedStatements = null;
+    }
+
+    /**
+     * Returns the object for the specified SQL string. The
+     * SQL string must be exactly the same as the one the
+     * object was added for.
+     * @param sql the SQL string
+     * @return the object or <code>null</code>
+     */
+    public synchronized Object get(String sql)
+    {
+        return statements.get(sql);
+    }
+
+    /**
+     * Removes all objects.
+     */
+    public synchronized void clear()
+    {
+        statements.clear();
+        indexedStatements = null;
+    }
+
+    /**
+     * Returns the number of SQL strings.
+     * @return the number of SQL strings
+     */
+    public synchronized int size()
+    {
+        return statements.size();
+    }
+
+    /**
+     * Returns an unmodifiable <code>Map</code> view of the
+     * SQL strings and the corresponding objects.
+     * @return the <code>Map</code> of SQL strings and objects
+     */
+    public Map getMap()
+    {
+        return Collections.unmodifiableMap(statements);
+    }
+
+    /**
+     * Returns all objects whose SQL string matches the specified
+     * SQL string according to the specified {@link SQLStatementMatcher}.
+     * The SQL string of the objects must be contained in the specified
+     * SQL string, i.e. this method returns the same objects as
+     * {@link SQLStatementMatcher#getMatchingObjects} with
+     * <code>queryContainsMapData</code> set to <code>true</code>.
+     * @param matcher the <code>SQLStatementMatcher</code> that defines the match parameters
+     * @param sql the executed SQL string
+     * @param resolveCollection if <code>true</code>, the elements of
+     *        <code>Collection</code> objects are added instead of the <code>Collection</code>
+     * @return the <code>List</code> of matching objects
+     */
+    public List getMatchingObjects(SQLStatementMatcher matcher, String sql, boolean resolveCollection)
+    {
+        sql = matcher.canonicalizeSQL(null == sql ? "" : sql);
+        IndexedStatements current = getIndexedStatements(matcher);
+        int[] positions = current.getMatchingKeys(sql);
+        List resultList = new ArrayList(positions.length);
+        for(int ii = 0; ii < positions.length; ii++)
+        {
+            Object matchingObject = current.values[positions[ii]];
+            if(resolveCollection && (matchingObject instanceof Collection))
+            {
+                resultList.addAll((Collection)matchingObject);
+            }
+            else
+            {
+                resultList.add(matchingObject);
+            }
+        }
+        return resultList;
+    }
+
+    /**
+     * Returns the first object that would be returned by
+     * {@link #getMatchingObjects} with <code>resolveCollection</code>
+     * set to <code>true</code>.
+     * @param matcher the <code>SQLStatementMatcher</code> that defines the match parameters
+     * @param sql the executed SQL string
+     * @return the first matching object or <code>null</code>
+     */
+    public Object getFirstMatchingObject(SQLStatementMatcher matcher, String sql)
+    {
+        sql = matcher.canonicalizeSQL(null == sql ? "" : sql);
+        IndexedStatements current = getIndexedStatements(matcher);
+        int[] positions = current.getMatchingKeys(sql);
+        for(int ii = 0; ii < positions.length; ii++)
+        {
+            Object matchingObject = current.values[positions[ii]];
+            if(!(matchingObject instanceof Collection))
+            {
+                return matchingObject;
+            }
+            Collection collection = (Collection)matchingObject;
+            if(!collection.isEmpty())
+            {
+                return collection.iterator().next();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the SQL strings of the objects that would be returned by
+     * {@link #getMatchingObjects} with <code>resolveCollection</code>
+     * set to <code>false</code>. The SQL strings are returned as they
+     * were added, i.e. not in their canonical form, and in the same
+     * order as the objects.
+     * @param matcher the <code>SQLStatementMatcher</code> that defines the match parameters
+     * @param sql the executed SQL string
+     * @return the <code>List</code> of matching SQL strings
+     */
+    public List getMatchingKeys(SQLStatementMatcher matcher, String sql)
+    {
+        sql = matcher.canonicalizeSQL(null == sql ? "" : sql);
+        IndexedStatements current = getIndexedStatements(matcher);
+        int[] positions = current.getMatchingKeys(sql);
+        List resultList = new ArrayList(positions.length);
+        for(int ii = 0; ii < positions.length; ii++)
+        {
+            resultList.add(current.keys[positions[ii]]);
+        }
+        return resultList;
+    }
+
+    /**
+     * Returns the SQL string of the object that would be returned by
+     * {@link #getFirstMatchingObject}, as it was added.
+     * @param matcher the <code>SQLStatementMatcher</code> that defines the match parameters
+     * @param sql the executed SQL string
+     * @return the first matching SQL string or <code>null</code>
+     */
+    public String getFirstMatchingKey(SQLStatementMatcher matcher, String sql)
+    {
+        sql = matcher.canonicalizeSQL(null == sql ? "" : sql);
+        IndexedStatements current = getIndexedStatements(matcher);
+        int[] positions = current.getMatchingKeys(sql);
+        for(int ii = 0; ii < positions.length; ii++)
+        {
+            Object matchingObject = current.values[positions[ii]];
+            if(!(matchingObject instanceof Collection) || !((Collection)matchingObject).isEmpty())
+            {
+                return current.keys[positions[ii]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the index for the specified SQL strings. Subclasses
+     * may override this method to provide other index implementations.
+     * @param keys the sorted SQL strings
+     * @param matcher the <code>SQLStatementMatcher</code> that defines the match parameters
+     * @return the <code>SQLStatementIndex</code>
+     */
+    protected SQLStatementIndex createIndex(String[] keys, SQLStatementMatcher matcher)
+    {
+        if(matcher.isExactMatch())
+        {
+            return new ExactMatchIndex(keys, matcher.isCaseSensitive());
+        }
+        if(matcher.isUseRegularExpressions())
+        {
+            return new RegularExpressionIndex(keys, matcher);
+        }
+        return new ContainsIndex(keys, matcher.isCaseSensitive());
+    }
+
+    private IndexedStatements getIndexedStatements(SQLStatementMatcher matcher)
+    {
+        IndexedStatements current = indexedStatements;
+        if(null != current && current.isCreatedFor(matcher))
+        {
+            return current;
+        }
+        synchronized(this)
+        {
+            current = indexedStatements;
+            if(null != current && current.isCreatedFor(matcher))
+            {
+                return current;
+            }
+            String[] originalKeys = new String[statements.size()];
+            String[] keys = new String[statements.size()];
+            Object[] values = new Object[statements.size()];
+            Iterator iterator = statements.entrySet().iterator();
+            int position = 0;
+            while(iterator.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)iterator.next();
+                originalKeys[position] = (String)entry.getKey();
+                keys[position] = matcher.canonicalizeKey(originalKeys[position]);
+                values[position] = entry.getValue();
+                position++;
+            }
+            SQLStatementIndex index = (keys.length == 0) ? null : createIndex(keys, matcher);
+            current = new IndexedStatements(matcher, originalKeys, values, index);
+            indexedStatements = current;
+            return current;
+        }
+    }
+
+    private static String foldCase(String string, boolean caseSensitive)
+    {
+        return caseSensitive ? string : StringUtil.foldCase(string);
+    }
+
+    private static class IndexedStatements
+    {
+        private final boolean caseSensitive;
+        private final boolean exactMatch;
+        private final boolean useRegularExpressions;
+        private final SQLCanonicalizer canonicalizer;
+        private final String[] keys;
+        private final Object[] values;
+        private final SQLStatementIndex index;
+
+        public IndexedStatements(SQLStatementMatcher matcher, String[] keys, Object[] values, SQLStatementIndex index)
+        {
+            this.caseSensitive = matcher.isCaseSensitive();
+            this.exactMatch = matcher.isExactMatch();
+            this.useRegularExpressions = matcher.isUseRegularExpressions();
+            this.canonicalizer = matcher.getSQLCanonicalizer();
+            this.keys = keys;
+            this.values = values;
+            this.index = index;
+        }
+
+        public boolean isCreatedFor(SQLStatementMatcher matcher)
+        {
+            return caseSensitive == matcher.isCaseSensitive() && exactMatch == matcher.isExactMatch() && useRegularExpressions == matcher.isUseRegularExpressions() && canonicalizer == matcher.getSQLCanonicalizer();
+        }
+
+        public int[] getMatchingKeys(String sql)
+        {
+            if(null == index) return NO_MATCH;
+            return index.getMatchingKeys(sql);
+        }
+    }
+
+    private static class ExactMatchIndex implements SQLStatementIndex
+    {
+        private final boolean caseSensitive;
+        private final Map positions = new HashMap();
+
+        public ExactMatchIndex(String[] keys, boolean caseSensitive)
+        {
+            this.caseSensitive = caseSensitive;
+            Map lists = new HashMap();
+            for(int ii = 0; ii < keys.length; ii++)
+            {
+                String foldedKey = foldCase(keys[ii], caseSensitive);
+                List list = (List)lists.get(foldedKey);
+                if(null == list)
+                {
+                    list = new ArrayList();
+                    lists.put(foldedKey, list);
+                }
+                list.add(new Integer(ii));
+            }
+            Iterator iterator = lists.entrySet().iterator();
+            while(iterator.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)iterator.next();
+                List list = (List)entry.getValue();
+                int[] keyPositions = new int[list.size()];
+                for(int ii = 0; ii < keyPositions.length; ii++)
+                {
+                    keyPositions[ii] = ((Integer)list.get(ii)).intValue();
+                }
+                positions.put(entry.getKey(), keyPositions);
+            }
+        }
+
+        public int[] getMatchingKeys(String sql)
+        {
+            int[] keyPositions = (int[])positions.get(foldCase(sql, caseSensitive));
+            return (null == keyPositions) ? NO_MATCH : keyPositions;
+        }
+    }
+
+    private static class ContainsIndex implements SQLStatementIndex
+    {
+        private final boolean caseSensitive;
+        private final MultiPatternMatcher automaton;
+
+        public ContainsIndex(String[] keys, boolean caseSensitive)
+        {
+            this.caseSensitive = caseSensitive;
+            String[] foldedKeys = new String[keys.length];
+            for(int ii = 0; ii < keys.length; ii++)
+            {
+                foldedKeys[ii] = foldCase(keys[ii], caseSensitive);
+            }
+            automaton = new MultiPatternMatcher(foldedKeys);
+        }
+
+        public int[] getMatchingKeys(String sql)
+        {
+            return automaton.findContained(foldCase(sql, caseSensitive));
+        }
+    }
+
+    private static class RegularExpressionIndex implements SQLStatementIndex
+    {
+        private final static String META_CHARACTERS = "\\^$.|?*+()[]{}";
+        private final static String QUANTIFIERS = "?*+{";
+
+        private final SQLStatementMatcher matcher;
+        private final String[] keys;
+        private final int[] unprefixedKeys;
+        private final int[] prefixedKeys;
+        private final MultiPatternMatcher prefixes;
+
+        public RegularExpressionIndex(String[] keys, SQLStatementMatcher matcher)
+        {
+            this.matcher = matcher;
+            this.keys = keys;
+            List prefixList = new ArrayList();
+            List prefixedList = new ArrayList();
+            List unprefixedList = new ArrayList();
+            for(int ii = 0; ii < keys.length; ii++)
+            {
+                String prefix = getLiteralPrefix(keys[ii]);
+                if(prefix.length() > 0)
+                {
+                    prefixList.add(prefix);
+                    prefixedList.add(new Integer(ii));
+                }
+                else
+                {
+                    unprefixedList.add(new Integer(ii));
+                }
+            }
+            prefixes = new MultiPatternMatcher((String[])prefixList.toArray(new String[prefixList.size()]));
+            prefixedKeys = toIntArray(prefixedList);
+            unprefixedKeys = toIntArray(unprefixedList);
+        }
+
+        public int[] getMatchingKeys(String sql)
+        {
+            int[] prefixMatches = prefixes.findPrefixes(fold(sql));
+            int[] candidates = new int[prefixMatches.length + unprefixedKeys.length];
+            int candidateCount = 0;
+            int prefixIndex = 0;
+            int unprefixedIndex = 0;
+            while(prefixIndex < prefixMatches.length || unprefixedIndex < unprefixedKeys.length)
+            {
+                int next;
+                if(unprefixedIndex >= unprefixedKeys.length || (prefixIndex < prefixMatches.length && prefixedKeys[prefixMatches[prefixIndex]] < unprefixedKeys[unprefixedIndex]))
+                {
+                    next = prefixedKeys[prefixMatches[prefixIndex++]];
+                }
+                else
+                {
+                    next = unprefixedKeys[unprefixedIndex++];
+                }
+                if(matcher.doStringsMatch(sql, keys[next]))
+                {
+                    candidates[candidateCount++] = next;
+                }
+            }
+            if(candidateCount == candidates.length) return candidates;
+            int[] result = new int[candidateCount];
+            System.arraycopy(candidates, 0, result, 0, candidateCount);
+            return result;
+        }
+
+        private String getLiteralPrefix(String regex)
+        {
+            if(regex.indexOf('|') >= 0) return "";
+            int start = regex.startsWith("^") ? 1 : 0;
+            StringBuffer prefix = new StringBuffer();
+            for(int ii = start; ii < regex.length(); ii++)
+            {
+                char nextChar = regex.charAt(ii);
+                if(nextChar >= 128) break;
+                if(META_CHARACTERS.indexOf(nextChar) >= 0)
+                {
+                    if(QUANTIFIERS.indexOf(nextChar) >= 0 && prefix.length() > 0)
+                    {
+                        prefix.setLength(prefix.length() - 1);
+                    }
+                    break;
+                }
+                prefix.append(fold(nextChar));
+            }
+            return prefix.toString();
+        }
+
+        private String fold(String string)
+        {
+            if(matcher.isCaseSensitive()) return string;
+            return StringUtil.foldCase(string);
+        }
+
+        private char fold(char nextChar)
+        {
+            if(matcher.isCaseSensitive()) return nextChar;
+            return StringUtil.foldCase(nextChar);
+        }
+
+        private static int[] toIntArray(List list)
+        {
+            int[] array = new int[list.size()];
+            for(int ii = 0; ii < array.length; ii++)
+            {
+                array[ii] = ((Integer)list.get(ii)).intValue();
+            }
+            return array;
+        }
+    }
+}
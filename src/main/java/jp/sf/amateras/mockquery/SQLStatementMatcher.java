@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import jp.sf.amateras.mockquery.util.PatternCache;
 import jp.sf.amateras.mockquery.util.StringUtil;
 
 /**
@@ -21,12 +22,18 @@ import jp.sf.amateras.mockquery.util.StringUtil;
  * <code>useRegularExpression</code> use regular expressions for matching, if this parameter is
  *                                   <code>false</code>, strings match, if one string starts with the other
  *                                   (default is <code>false</code>)
+ * <br>
+ * Regular expressions are compiled only once and kept in the
+ * shared {@link PatternCache#getDefault PatternCache}.
+ * If a {@link SQLCanonicalizer} is specified, the canonical forms of
+ * the strings are compared. Regular expressions are not canonicalized.
  */
 public class SQLStatementMatcher
 {
     private boolean caseSensitive = false;
     private boolean exactMatch = false;
     private boolean useRegularExpressions = false;
+    private SQLCanonicalizer canonicalizer = null;
     
     public SQLStatementMatcher(boolean caseSensitive, boolean exactMatch)
     {
@@ -40,6 +47,85 @@ public class SQLStatementMatcher
         this.useRegularExpressions = useRegularExpressions;
     }
     
+    public SQLStatementMatcher(boolean caseSensitive, boolean exactMatch, boolean useRegularExpressions, SQLCanonicalizer canonicalizer)
+    {
+        this(caseSensitive, exactMatch, useRegularExpressions);
+        this.canonicalizer = canonicalizer;
+    }
+    
+    /**
+     * Returns the cache of compiled regular expressions that is
+     * shared by all <code>SQLStatementMatcher</code> instances,
+     * i.e. {@link PatternCache#getDefault}.
+     * @return the shared <code>PatternCache</code>
+     */
+    public static PatternCache getPatternCache()
+    {
+        return PatternCache.getDefault();
+    }
+    
+    /**
+     * Returns if strings are compared case sensitive.
+     * @return <code>true</code> if strings are compared case sensitive
+     */
+    public boolean isCaseSensitive()
+    {
+        return caseSensitive;
+    }
+    
+    /**
+     * Returns if strings must match exactly.
+     * @return <code>true</code> if strings must match exactly
+     */
+    public boolean isExactMatch()
+    {
+        return exactMatch;
+    }
+    
+    /**
+     * Returns if regular expressions are used for matching.
+     * @return <code>true</code> if regular expressions are used
+     */
+    public boolean isUseRegularExpressions()
+    {
+        return useRegularExpressions;
+    }
+    
+    /**
+     * Returns the <code>SQLCanonicalizer</code> of this matcher.
+     * @return the <code>SQLCanonicalizer</code> or <code>null</code>
+     */
+    public SQLCanonicalizer getSQLCanonicalizer()
+    {
+        return canonicalizer;
+    }
+    
+    /**
+     * Returns the canonical form of an executed SQL string, if 
+     * this matcher has a <code>SQLCanonicalizer</code>. Otherwise
+     * the SQL string is returned unchanged.
+     * @param sql the SQL string
+     * @return the canonical SQL string
+     */
+    public String canonicalizeSQL(String sql)
+    {
+        if(null == canonicalizer) return sql;
+        return canonicalizer.canonicalize(sql);
+    }
+    
+    /**
+     * Returns the canonical form of a prepared SQL string. Unlike
+     * {@link #canonicalizeSQL}, regular expressions are returned 
+     * unchanged.
+     * @param key the prepared SQL string or regular expression
+     * @return the canonical SQL string
+     */
+    public String canonicalizeKey(String key)
+    {
+        if(null == canonicalizer || (useRegularExpressions && !exactMatch)) return key;
+        return canonicalizer.canonicalize(key);
+    }
+    
     /**
      * Compares all keys in the specified <code>Map</code> with the
      * specified query string using the method {@link #doStringsMatch}.
@@ -129,6 +215,8 @@ public class SQLStatementMatcher
     {
         if(null == source) source = "";
         if(null == query) query = "";
+        source = canonicalizeSQL(source);
+        query = canonicalizeKey(query);
         if(useRegularExpressions && !exactMatch)
         {
             return doRegexMatch(source, query);
@@ -153,6 +241,6 @@ public class SQLStatementMatcher
     
     private boolean doRegexMatch(String source, String query)
     {
-        return StringUtil.matchesRegex(source, query, caseSensitive);
+        return PatternCache.getDefault().matches(source, query, caseSensitive);
     }
 }
@@ -0,0 +1,309 @@
+package jp.sf.amateras.mockquery;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the statements that were created by a <code>Connection</code>
+ * for a result set handler. By default, the registry keeps all statements
+ * until it is cleared. If the registry is weak, it keeps a statement only
+ * while the statement is open, or while it is one of the most recently
+ * closed statements (see {@link #setRecentCapacity}). Other closed
+ * statements are only kept as long as they are reachable otherwise,
+ * e.g. by the tested application. A weak registry does not grow
+ * without bound, if a long running application closes its statements.
+ * <p>
+ * Please note that a returned <code>ResultSet</code> references its
+ * statement and that the handler keeps the returned <code>ResultSet</code>
+ * objects in its execution history. If the registry is weak, a
+ * <code>ResultSet</code> releases its statement when it is closed. If the
+ * application does not close its result sets, the history must be
+ * bounded (see {@link AbstractResultSetHandler#setExecutionHistoryCapacity}),
+ * otherwise the statements remain reachable.
+ * <p>
+ * The statements are returned in the order they were added.
+ * The methods of this class are thread-safe.
+ */
+public class StatementRegistry
+{
+    public final static int DEFAULT_RECENT_CAPACITY = 100;
+
+    private boolean weak = false;
+    private int recentCapacity = DEFAULT_RECENT_CAPACITY;
+    private List statements = new ArrayList();
+    private Map statementMap = new TreeMap();
+    private Map references = new WeakHashMap();
+    private LinkedList recentStatements = new LinkedList();
+    private ReferenceQueue queue = new ReferenceQueue();
+
+    /**
+     * Sets if the registry is weak. Default is <code>false</code>,
+     * i.e. all statements are kept. The statements that are
+     * currently registered are kept in the new mode.
+     * @param weak should the registry be weak
+     */
+    public synchronized void setWeak(boolean weak)
+    {
+        if(this.weak == weak) return;
+        List currentStatements = getStatements();
+        Map currentSQL = new IdentityHashMap();
+        Iterator iterator = statementMap.entrySet().iterator();
+        while(iterator.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            Iterator sqlStatements = ((List)entry.getValue()).iterator();
+            while(sqlStatements.hasNext())
+            {
+                Object statement = getStatement(sqlStatements.next());
+                if(null != statement) currentSQL.put(statement, entry.getKey());
+            }
+        }
+        clear();
+        this.weak = weak;
+        for(int ii = 0; ii < currentStatements.size(); ii++)
+        {
+            Object statement = currentStatements.get(ii);
+            add((String)currentSQL.get(statement), statement, !isClosed(statement));
+        }
+    }
+
+    /**
+     * Returns if the registry is weak.
+     * @return <code>true</code> if the registry is weak
+     */
+    public synchronized boolean isWeak()
+    {
+        return weak;
+    }
+
+    /**
+     * Sets the number of closed statements that a weak registry keeps,
+     * even if they are not reachable otherwise. Default is
+     * {@link #DEFAULT_RECENT_CAPACITY}.
+     * @param recentCapacity the number of recently closed statements
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public synchronized void setRecentCapacity(int recentCapacity)
+    {
+        if(recentCapacity < 0)
+        {
+            throw new IllegalArgumentException("recentCapacity must not be negative");
+        }
+        this.recentCapacity = recentCapacity;
+        trimRecentStatements();
+    }
+
+    /**
+     * Returns the number of closed statements that a weak registry keeps.
+     * @return the number of recently closed statements
+     */
+    public synchronized int getRecentCapacity()
+    {
+        return recentCapacity;
+    }
+
+    /**
+     * Adds an open statement.
+     * @param sql the SQL string of the statement, <code>null</code>
+     *        for a statement without SQL string
+     * @param statement the statement
+     */
+    public synchronized void add(String sql, Object statement)
+    {
+        add(sql, statement, true);
+    }
+
+    /**
+     * Notifies the registry that the specified statement was closed.
+     * A weak registry no longer keeps the statement, unless it is
+     * one of the most recently closed statements.
+     * @param statement the statement
+     */
+    public synchronized void statementClosed(Object statement)
+    {
+        if(!weak) return;
+        StatementReference reference = (StatementReference)references.get(statement);
+        if(null == reference || null == reference.statement) return;
+        reference.statement = null;
+        recentStatements.addLast(statement);
+        trimRecentStatements();
+    }
+
+    /**
+     * Returns the <code>List</code> of statements.
+     * @return the <code>List</code> of statements
+     */
+    public synchronized List getStatements()
+    {
+        if(!weak) return Collections.unmodifiableList(statements);
+        purge();
+        return Collections.unmodifiableList(getStatements(statements));
+    }
+
+    /**
+     * Returns the <code>Map</code> of statements. The SQL strings
+     * map to a <code>List</code> of the corresponding statements.
+     * @return the <code>Map</code> of statements
+     */
+    public synchronized Map getStatementMap()
+    {
+        if(!weak) return Collections.unmodifiableMap(statementMap);
+        purge();
+        Map map = new TreeMap();
+        Iterator iterator = statementMap.entrySet().iterator();
+        while(iterator.hasNext())
+        {
+            Map.Entry entry = (Map.Entry)iterator.next();
+            map.put(entry.getKey(), getStatements((List)entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the number of statements.
+     * @return the number of statements
+     */
+    public synchronized int size()
+    {
+        purge();
+        return statements.size();
+    }
+
+    /**
+     * Removes all statements.
+     */
+    public synchronized void clear()
+    {
+        statements.clear();
+        statementMap.clear();
+        references.clear();
+        recentStatements.clear();
+        while(null != queue.poll())
+        {
+
+        }
+    }
+
+    private void add(String sql, Object statement, boolean open)
+    {
+        purge();
+        Object entry = statement;
+        if(weak)
+        {
+            StatementReference reference = new StatementReference(statement, queue);
+            references.put(statement, reference);
+            if(open)
+            {
+                reference.statement = statement;
+            }
+            else
+            {
+                recentStatements.addLast(statement);
+                trimRecentStatements();
+            }
+            entry = reference;
+        }
+        statements.add(entry);
+        if(null == sql) return;
+        List list = (List)statementMap.get(sql);
+        if(null == list)
+        {
+            list = new ArrayList();
+            statementMap.put(sql, list);
+        }
+        list.add(entry);
+    }
+
+    private void trimRecentStatements()
+    {
+        while(recentStatements.size() > recentCapacity)
+        {
+            recentStatements.removeFirst();
+        }
+    }
+
+    private void purge()
+    {
+        if(!weak || null == queue.poll()) return;
+        while(null != queue.poll())
+        {
+
+        }
+        removeClearedReferences(statements);
+        Iterator iterator = statementMap.values().iterator();
+        while(iterator.hasNext())
+        {
+            List list = (List)iterator.next();
+            removeClearedReferences(list);
+            if(list.isEmpty()) iterator.remove();
+        }
+    }
+
+    private void removeClearedReferences(List list)
+    {
+        int size = 0;
+        for(int ii = 0; ii < list.size(); ii++)
+        {
+            Object entry = list.get(ii);
+            if(null != ((StatementReference)entry).get())
+            {
+                list.set(size, entry);
+                size++;
+            }
+        }
+        list.subList(size, list.size()).clear();
+    }
+
+    private List getStatements(List entries)
+    {
+        List result = new ArrayList(entries.size());
+        for(int ii = 0; ii < entries.size(); ii++)
+        {
+            Object statement = getStatement(entries.get(ii));
+            if(null != statement) result.add(statement);
+        }
+        return result;
+    }
+
+    private Object getStatement(Object entry)
+    {
+        if(entry instanceof StatementReference)
+        {
+            return ((StatementReference)entry).get();
+        }
+        return entry;
+    }
+
+    private boolean isClosed(Object statement)
+    {
+        try
+        {
+            return ((Statement)statement).isClosed();
+        }
+        catch(SQLException exc)
+        {
+            return false;
+        }
+    }
+
+    private static class StatementReference extends WeakReference
+    {
+        private Object statement;
+
+        public StatementReference(Object referent, ReferenceQueue queue)
+        {
+            super(referent, queue);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package jp.sf.amateras.mockquery;
+
+import java.sql.SQLException;
+
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+import jp.sf.amateras.mockquery.util.SQLUtil;
+
+/**
+ * The prepared results of one SQL string, i.e. the exception,
+ * the result sets or update counts, the generated keys and if the
+ * SQL string is a query, as they are returned by an
+ * {@link AbstractResultSetHandler}. Instances are created with
+ * {@link AbstractResultSetHandler#resolveStatement(String)} and
+ * {@link AbstractParameterResultSetHandler#resolveStatement(String, java.util.Map)}.
+ * Statements use one instance per execution, so the prepared results
+ * are looked up only once, even if a statement needs them more than once.
+ * Each kind of result is looked up when it is requested for the
+ * first time. The global results of the handler are not considered,
+ * i.e. the methods return <code>null</code>, if nothing was prepared
+ * for the SQL string.
+ * Handlers cache resolutions in a {@link StatementResolutionCache},
+ * so one instance may be used by multiple statements and threads.
+ */
+public class StatementResolution
+{
+    private final static Object UNRESOLVED = new Object();
+
+    private final AbstractResultSetHandler resultSetHandler;
+    private final String sql;
+    private volatile Object sqlException = UNRESOLVED;
+    private volatile Object resultSets = UNRESOLVED;
+    private volatile Object updateCounts = UNRESOLVED;
+    private volatile Object generatedKeys = UNRESOLVED;
+    private volatile Object returnsResultSet = UNRESOLVED;
+    private volatile Object sqlExceptionKey = UNRESOLVED;
+    private volatile Object resultSetKey = UNRESOLVED;
+    private volatile Object updateCountKey = UNRESOLVED;
+
+    protected StatementResolution(AbstractResultSetHandler resultSetHandler, String sql)
+    {
+        this.resultSetHandler = resultSetHandler;
+        this.sql = sql;
+    }
+
+    /**
+     * Returns the SQL string.
+     * @return the SQL string
+     */
+    public String getSQL()
+    {
+        return sql;
+    }
+
+    /**
+     * Returns the <code>SQLException</code> the SQL string should throw.
+     * @return the <code>SQLException</code> or <code>null</code>
+     */
+    public SQLException getSQLException()
+    {
+        if(UNRESOLVED == sqlException)
+        {
+            sqlException = resolveSQLException();
+        }
+        return (SQLException)sqlException;
+    }
+
+    /**
+     * Returns if multiple result sets were prepared for the SQL string.
+     * @return <code>true</code> if the query returns multiple result sets,
+     *         <code>false</code> otherwise
+     */
+    public boolean hasMultipleResultSets()
+    {
+        return (getMatchingResultSets() instanceof MockResultSet[]);
+    }
+
+    /**
+     * Returns the <code>ResultSet</code> for the SQL string. If multiple
+     * result sets were prepared, the first one will be returned.
+     * @return the {@link MockResultSet} or <code>null</code>
+     */
+    public MockResultSet getResultSet()
+    {
+        Object current = getMatchingResultSets();
+        if(current instanceof MockResultSet)
+        {
+            return (MockResultSet)current;
+        }
+        else if(current instanceof MockResultSet[])
+        {
+            MockResultSet[] actualResults = (MockResultSet[])current;
+            if(actualResults.length > 0)
+            {
+                return actualResults[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the <code>ResultSet[]</code> for the SQL string. If one
+     * single <code>ResultSet</code> was prepared, it will be wrapped
+     * in an array with one element.
+     * @return the <code>MockResultSet[]</code> or <code>null</code>
+     */
+    public MockResultSet[] getResultSets()
+    {
+        Object current = getMatchingResultSets();
+        if(current instanceof MockResultSet)
+        {
+            return new MockResultSet[] {(MockResultSet)current};
+        }
+        else if(current instanceof MockResultSet[])
+        {
+            return (MockResultSet[])current;
+        }
+        return null;
+    }
+
+    /**
+     * Returns if multiple update counts were prepared for the SQL string.
+     * @return <code>true</code> if the SQL string returns multiple update counts,
+     *         <code>false</code> otherwise
+     */
+    public boolean hasMultipleUpdateCounts()
+    {
+        return (getMatchingUpdateCounts() instanceof Integer[]);
+    }
+
+    /**
+     * Returns the update count for the SQL string. If multiple update
+     * counts were prepared, the first one will be returned.
+     * @return the update count or <code>null</code>
+     */
+    public Integer getUpdateCount()
+    {
+        Object current = getMatchingUpdateCounts();
+        if(current instanceof Integer)
+        {
+            return (Integer)current;
+        }
+        else if(current instanceof Integer[])
+        {
+            Integer[] actualUpdateCounts = (Integer[])current;
+            if(actualUpdateCounts.length > 0)
+            {
+                return actualUpdateCounts[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the update count array for the SQL string. If one
+     * update count was prepared, it will be wrapped in an array
+     * with one element.
+     * @return the update count array or <code>null</code>
+     */
+    public Integer[] getUpdateCounts()
+    {
+        Object current = getMatchingUpdateCounts();
+        if(current instanceof Integer)
+        {
+            return new Integer[] {(Integer)current};
+        }
+        else if(current instanceof Integer[])
+        {
+            return (Integer[])current;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the generated keys <code>ResultSet</code> for the SQL string.
+     * @return the generated keys {@link MockResultSet} or <code>null</code>
+     */
+    public MockResultSet getGeneratedKeys()
+    {
+        if(UNRESOLVED == generatedKeys)
+        {
+            generatedKeys = resolveGeneratedKeys();
+        }
+        return (MockResultSet)generatedKeys;
+    }
+
+    /**
+     * Returns if it was prepared that the SQL string returns a
+     * <code>ResultSet</code>.
+     * @return <code>Boolean.TRUE</code> or <code>Boolean.FALSE</code>,
+     *         <code>null</code> if nothing was prepared
+     */
+    public Boolean getReturnsResultSet()
+    {
+        if(UNRESOLVED == returnsResultSet)
+        {
+            returnsResultSet = resolveReturnsResultSet();
+        }
+        return (Boolean)returnsResultSet;
+    }
+
+    /**
+     * Returns if the SQL string is a query. This is the prepared value
+     * of {@link #getReturnsResultSet}, if there is one, otherwise the
+     * SQL string is a query, if it starts with <i>select</i>.
+     * @return <code>true</code> if the SQL string is a query
+     */
+    public boolean isQuery()
+    {
+        Boolean currentReturnsResultSet = getReturnsResultSet();
+        if(null != currentReturnsResultSet)
+        {
+            return currentReturnsResultSet.booleanValue();
+        }
+        return SQLUtil.isSelect(sql);
+    }
+
+    /**
+     * Returns the prepared SQL string that the <code>SQLException</code>
+     * of {@link #getSQLException} was prepared for. The SQL string is
+     * returned as it was prepared, e.g. as regular expression.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    public String getSQLExceptionKey()
+    {
+        if(UNRESOLVED == sqlExceptionKey)
+        {
+            sqlExceptionKey = resolveSQLExceptionKey();
+        }
+        return (String)sqlExceptionKey;
+    }
+
+    /**
+     * Returns the prepared SQL string that the result sets of
+     * {@link #getResultSets} were prepared for.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    public String getResultSetKey()
+    {
+        if(UNRESOLVED == resultSetKey)
+        {
+            resultSetKey = resolveResultSetKey();
+        }
+        return (String)resultSetKey;
+    }
+
+    /**
+     * Returns the prepared SQL string that the update counts of
+     * {@link #getUpdateCounts} were prepared for.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    public String getUpdateCountKey()
+    {
+        if(UNRESOLVED == updateCountKey)
+        {
+            updateCountKey = resolveUpdateCountKey();
+        }
+        return (String)updateCountKey;
+    }
+
+    /**
+     * Returns the handler that created this object.
+     * @return the <code>AbstractResultSetHandler</code>
+     */
+    protected AbstractResultSetHandler getResultSetHandler()
+    {
+        return resultSetHandler;
+    }
+
+    /**
+     * Looks up the <code>SQLException</code>.
+     * @return the <code>SQLException</code> or <code>null</code>
+     */
+    protected SQLException resolveSQLException()
+    {
+        return resultSetHandler.getSQLException(sql);
+    }
+
+    /**
+     * Looks up the result sets.
+     * @return a <code>MockResultSet</code>, a <code>MockResultSet[]</code> or <code>null</code>
+     */
+    protected Object resolveResultSets()
+    {
+        return resultSetHandler.getMatchingResultSets(sql);
+    }
+
+    /**
+     * Looks up the update counts.
+     * @return an <code>Integer</code>, an <code>Integer[]</code> or <code>null</code>
+     */
+    protected Object resolveUpdateCounts()
+    {
+        return resultSetHandler.getMatchingUpdateCounts(sql);
+    }
+
+    /**
+     * Looks up the generated keys.
+     * @return the generated keys <code>MockResultSet</code> or <code>null</code>
+     */
+    protected MockResultSet resolveGeneratedKeys()
+    {
+        return resultSetHandler.getGeneratedKeys(sql);
+    }
+
+    /**
+     * Looks up if the SQL string returns a <code>ResultSet</code>.
+     * @return the prepared value or <code>null</code>
+     */
+    protected Boolean resolveReturnsResultSet()
+    {
+        return resultSetHandler.getReturnsResultSet(sql);
+    }
+
+    /**
+     * Looks up the prepared SQL string of the <code>SQLException</code>.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    protected String resolveSQLExceptionKey()
+    {
+        return resultSetHandler.getMatchingSQLExceptionKey(sql);
+    }
+
+    /**
+     * Looks up the prepared SQL string of the result sets.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    protected String resolveResultSetKey()
+    {
+        return resultSetHandler.getMatchingResultSetKey(sql);
+    }
+
+    /**
+     * Looks up the prepared SQL string of the update counts.
+     * @return the prepared SQL string or <code>null</code>
+     */
+    protected String resolveUpdateCountKey()
+    {
+        return resultSetHandler.getMatchingUpdateCountKey(sql);
+    }
+
+    private Object getMatchingResultSets()
+    {
+        if(UNRESOLVED == resultSets)
+        {
+            resultSets = resolveResultSets();
+        }
+        return resultSets;
+    }
+
+    private Object getMatchingUpdateCounts()
+    {
+        if(UNRESOLVED == updateCounts)
+        {
+            updateCounts = resolveUpdateCounts();
+        }
+        return updateCounts;
+    }
+}
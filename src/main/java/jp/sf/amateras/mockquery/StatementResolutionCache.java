@@ -0,0 +1,168 @@
+package jp.sf.amateras.mockquery;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link StatementResolution} objects used by
+ * {@link AbstractResultSetHandler#resolveStatement(String)} and
+ * {@link AbstractParameterResultSetHandler#resolveStatement(String, Map)}.
+ * The cache is keyed by the executed SQL string or by the SQL string
+ * and the parameters. If the same SQL string is executed again, the
+ * cached resolution is returned and the prepared results do not have
+ * to be looked up again.
+ * Each cached resolution belongs to a version of the handler. The handler
+ * increases its version whenever prepared results or match parameters
+ * change, which invalidates all cached resolutions.
+ * If the cache is full, the least recently used resolution is discarded.
+ * The cache counts hits and misses.
+ */
+public class StatementResolutionCache
+{
+    public final static int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final int maximumSize;
+    private final Map resolutions;
+    private long version;
+    private long hits;
+    private long misses;
+
+    public StatementResolutionCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public StatementResolutionCache(int maximumSize)
+    {
+        if(maximumSize <= 0)
+        {
+            throw new IllegalArgumentException("maximumSize must be greater than 0");
+        }
+        this.maximumSize = maximumSize;
+        resolutions = new LinkedHashMap(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry eldest)
+            {
+                return size() > StatementResolutionCache.this.maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached resolution for the specified key, if
+     * it was cached for the specified version.
+     * All cached resolutions are discarded, if <code>version</code>
+     * differs from the version of the cached resolutions.
+     * @param key the key, i.e. the SQL string or a key of the SQL string and the parameters
+     * @param version the current version of the handler
+     * @return the cached <code>StatementResolution</code> or <code>null</code>
+     */
+    public synchronized StatementResolution get(Object key, long version)
+    {
+        if(this.version != version)
+        {
+            resolutions.clear();
+            this.version = version;
+        }
+        StatementResolution resolution = (StatementResolution)resolutions.get(key);
+        if(null != resolution)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+        return resolution;
+    }
+
+    /**
+     * Caches a resolution for the specified key. The resolution is
+     * not cached, if the cache was invalidated for a newer version
+     * in the meantime.
+     * @param key the key, i.e. the SQL string or a key of the SQL string and the parameters
+     * @param resolution the <code>StatementResolution</code>
+     * @param version the version of the handler the resolution was created for
+     */
+    public synchronized void put(Object key, StatementResolution resolution, long version)
+    {
+        if(this.version != version) return;
+        resolutions.put(key, resolution);
+    }
+
+    /**
+     * Counts a lookup that could not use the cache, e.g. because
+     * the parameters cannot be used as a key.
+     */
+    public synchronized void countMiss()
+    {
+        misses++;
+    }
+
+    /**
+     * Returns the maximum number of cached resolutions.
+     * @return the maximum size
+     */
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of cached resolutions.
+     * @return the number of cached resolutions
+     */
+    public synchronized int size()
+    {
+        return resolutions.size();
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     * @return the number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to resolve the statement.
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the ratio of hits to all lookups.
+     * @return the hit rate between <code>0.0</code> and <code>1.0</code>,
+     *         <code>0.0</code> if there were no lookups
+     */
+    public synchronized double getHitRate()
+    {
+        long lookups = hits + misses;
+        if(lookups == 0) return 0.0;
+        return (double)hits / (double)lookups;
+    }
+
+    /**
+     * Resets the hit and miss counters. The cached resolutions
+     * are not affected.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Removes all cached resolutions and resets the hit and miss counters.
+     */
+    public synchronized void clear()
+    {
+        resolutions.clear();
+        resetStatistics();
+    }
+}
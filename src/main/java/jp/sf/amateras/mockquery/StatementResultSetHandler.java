@@ -1,7 +1,5 @@
 package jp.sf.amateras.mockquery;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import jp.sf.amateras.mockquery.mock.MockStatement;
@@ -11,13 +9,6 @@ import jp.sf.amateras.mockquery.mock.MockStatement;
  */
 public class StatementResultSetHandler extends AbstractResultSetHandler
 {
-    private List statements;
-
-    public StatementResultSetHandler()
-    {
-        statements = new ArrayList();
-    }  
-    
     /**
      * The <code>Connection</code> adds new statements with
      * this method.
@@ -26,16 +17,18 @@ public class StatementResultSetHandler extends AbstractResultSetHandler
     public void addStatement(MockStatement statement)
     {
         statement.setResultSetHandler(this);
-        statements.add(statement);
+        getStatementRegistry().add(null, statement);
     }
     
     /**
      * Returns a <code>List</code> of all statements.
+     * If the {@link StatementRegistry} is weak, only the
+     * statements it keeps are returned.
      * @return the <code>List</code> of {@link MockStatement} objects
      */
     public List getStatements()
     {
-        return Collections.unmodifiableList(statements);
+        return getStatementRegistry().getStatements();
     }
 
     /**
@@ -43,6 +36,6 @@ public class StatementResultSetHandler extends AbstractResultSetHandler
      */
     public void clearStatements()
     {
-        statements.clear();
+        getStatementRegistry().clear();
     }
 }
@@ -0,0 +1,622 @@
+package jp.sf.amateras.mockquery;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jp.sf.amateras.mockquery.mock.MockResultSet;
+import jp.sf.amateras.mockquery.mock.MockResultSetMetaData;
+import jp.sf.amateras.mockquery.mock.MockStreamingResultSet;
+
+/**
+ * {@link ResultSetFactory} that generates the rows from a declaration
+ * of the columns. Each column has a name, a value distribution (a sequence,
+ * uniformly distributed numbers, Zipf distributed ranks or weighted
+ * categories) and optionally a ratio of <code>null</code> values.
+ * Numeric columns have an SQL type, <code>Types.INTEGER</code>,
+ * <code>Types.BIGINT</code>, <code>Types.DOUBLE</code> or
+ * <code>Types.VARCHAR</code>, which determines the class of the values
+ * and is declared in the {@link MockResultSetMetaData}.
+ * <p>
+ * The rows are generated in chunks of {@link #CHUNK_SIZE} rows. Each
+ * column of each chunk uses a <code>Random</code> seeded from the seed of
+ * the factory, the column and the chunk, so the same declaration and seed
+ * always generate the same rows, no matter if the rows are generated by
+ * {@link #create} (in parallel, if there are enough rows) or lazily
+ * by {@link #createStreamingResultSet}. The chunks are generated by
+ * a pool of daemon threads that is shared by all factories.
+ * <p>
+ * Column names are case insensitive, like the column names of a
+ * {@link MockResultSet}.
+ * <p>
+ * The declaration must not be changed while result sets are created.
+ */
+public class SyntheticResultSetFactory implements ResultSetFactory
+{
+    public final static int CHUNK_SIZE = 4096;
+
+    private static ExecutorService executor;
+
+    private final int rowCount;
+    private final long seed;
+    private final List columns;
+    private int threads;
+
+    public SyntheticResultSetFactory(int rowCount, long seed)
+    {
+        if(rowCount < 0)
+        {
+            throw new IllegalArgumentException("rowCount must not be negative");
+        }
+        this.rowCount = rowCount;
+        this.seed = seed;
+        columns = new ArrayList();
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Adds a column with the values <code>start</code>,
+     * <code>start + increment</code>, <code>start + 2 * increment</code>
+     * and so on.
+     * @param name the column name
+     * @param sqlType the SQL type of the values
+     * @param start the value of the first row
+     * @param increment the difference between two rows
+     */
+    public void addSequenceColumn(String name, int sqlType, long start, long increment)
+    {
+        checkSQLType(sqlType);
+        addColumn(new SequenceColumn(name, sqlType, start, increment));
+    }
+
+    /**
+     * Adds a column with uniformly distributed values between
+     * <code>minimum</code> and <code>maximum</code>. The values of
+     * integer columns include the maximum, the values of other
+     * columns do not.
+     * @param name the column name
+     * @param sqlType the SQL type of the values
+     * @param minimum the minimum value
+     * @param maximum the maximum value
+     */
+    public void addUniformColumn(String name, int sqlType, double minimum, double maximum)
+    {
+        checkSQLType(sqlType);
+        if(maximum < minimum)
+        {
+            throw new IllegalArgumentException("maximum must not be less than minimum");
+        }
+        addColumn(new UniformColumn(name, sqlType, minimum, maximum));
+    }
+
+    /**
+     * Adds a column with the ranks <code>1</code> to <code>elements</code>
+     * following a Zipf distribution, i.e. rank <i>k</i> has a probability
+     * proportional to <code>1 / k^exponent</code>.
+     * @param name the column name
+     * @param sqlType the SQL type of the values
+     * @param elements the number of ranks
+     * @param exponent the exponent of the distribution
+     */
+    public void addZipfColumn(String name, int sqlType, int elements, double exponent)
+    {
+        checkSQLType(sqlType);
+        if(elements <= 0)
+        {
+            throw new IllegalArgumentException("elements must be greater than 0");
+        }
+        double[] weights = new double[elements];
+        for(int ii = 0; ii < elements; ii++)
+        {
+            weights[ii] = 1.0 / Math.pow(ii + 1, exponent);
+        }
+        addColumn(new ZipfColumn(name, sqlType, weights));
+    }
+
+    /**
+     * Adds a column with values that are chosen from the specified
+     * categories. The values are returned as they are, they are not
+     * converted to an SQL type.
+     * @param name the column name
+     * @param categories the possible values
+     * @param weights the relative weights of the categories,
+     *        <code>null</code> if all categories are equally likely
+     */
+    public void addCategoricalColumn(String name, Object[] categories, double[] weights)
+    {
+        if(categories.length == 0)
+        {
+            throw new IllegalArgumentException("categories must not be empty");
+        }
+        if(null != weights && weights.length != categories.length)
+        {
+            throw new IllegalArgumentException("weights must have the same length as categories");
+        }
+        addColumn(new CategoricalColumn(name, categories.clone(), weights));
+    }
+
+    /**
+     * Sets the ratio of <code>null</code> values of a column.
+     * Defaults to <code>0.0</code>.
+     * @param name the column name
+     * @param nullRatio the ratio between <code>0.0</code> and <code>1.0</code>
+     */
+    public void setNullRatio(String name, double nullRatio)
+    {
+        if(nullRatio < 0.0 || nullRatio > 1.0)
+        {
+            throw new IllegalArgumentException("nullRatio must be between 0.0 and 1.0");
+        }
+        getColumn(name).nullRatio = nullRatio;
+    }
+
+    /**
+     * Sets the number of threads that generate the rows for {@link #create}.
+     * Defaults to the number of available processors. The threads are
+     * taken from the shared pool, which has one thread per available
+     * processor.
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads)
+    {
+        if(threads <= 0)
+        {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return the number of rows
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns the seed.
+     * @return the seed
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Creates a {@link MockResultSet} with all rows.
+     * @param id the id of the <code>ResultSet</code>
+     * @return the <code>MockResultSet</code>
+     */
+    public MockResultSet create(String id)
+    {
+        int chunks = getChunkCount();
+        Object[][] values = new Object[columns.size()][rowCount];
+        if(threads > 1 && chunks > 1)
+        {
+            generateParallel(values, chunks);
+        }
+        else
+        {
+            for(int ii = 0; ii < chunks; ii++)
+            {
+                copyChunk(values, ii, generateChunk(ii));
+            }
+        }
+        MockResultSet resultSet = new MockResultSet(id);
+        resultSet.setResultSetMetaData(createMetaData());
+        resultSet.addColumns(getColumnNames(), values);
+        return resultSet;
+    }
+
+    /**
+     * Creates a {@link MockStreamingResultSet} that generates the rows
+     * when they are read. Each copy of the <code>ResultSet</code> starts
+     * with the first row again.
+     * @param id the id of the <code>ResultSet</code>
+     * @return the <code>MockStreamingResultSet</code>
+     */
+    public MockStreamingResultSet createStreamingResultSet(String id)
+    {
+        String[] names = getColumnNames();
+        Iterable rows = new Iterable()
+        {
+            public Iterator iterator()
+            {
+                return new RowIterator();
+            }
+        };
+        MockStreamingResultSet resultSet = new MockStreamingResultSet(id, names, rows);
+        resultSet.setResultSetMetaData(createMetaData());
+        return resultSet;
+    }
+
+    private void checkSQLType(int sqlType)
+    {
+        if(Types.INTEGER != sqlType && Types.BIGINT != sqlType &&
+           Types.DOUBLE != sqlType && Types.VARCHAR != sqlType)
+        {
+            throw new IllegalArgumentException("Unsupported SQL type " + sqlType);
+        }
+    }
+
+    private void addColumn(Column column)
+    {
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            if(((Column)columns.get(ii)).name.equalsIgnoreCase(column.name))
+            {
+                throw new IllegalArgumentException("Column " + column.name + " already exists");
+            }
+        }
+        columns.add(column);
+    }
+
+    private Column getColumn(String name)
+    {
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            Column column = (Column)columns.get(ii);
+            if(column.name.equalsIgnoreCase(name)) return column;
+        }
+        throw new IllegalArgumentException("No column " + name);
+    }
+
+    private String[] getColumnNames()
+    {
+        String[] names = new String[columns.size()];
+        for(int ii = 0; ii < names.length; ii++)
+        {
+            names[ii] = ((Column)columns.get(ii)).name;
+        }
+        return names;
+    }
+
+    private MockResultSetMetaData createMetaData()
+    {
+        MockResultSetMetaData metaData = new MockResultSetMetaData();
+        metaData.setColumnCount(columns.size());
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            Column column = (Column)columns.get(ii);
+            metaData.setColumnName(ii + 1, column.name);
+            if(Types.OTHER != column.sqlType)
+            {
+                metaData.setColumnType(ii + 1, column.sqlType);
+            }
+        }
+        return metaData;
+    }
+
+    private int getChunkCount()
+    {
+        return (int)(((long)rowCount + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private void generateParallel(final Object[][] values, final int chunks)
+    {
+        final int tasks = Math.min(threads, chunks);
+        ExecutorService executor = getExecutor();
+        List futures = new ArrayList(tasks);
+        try
+        {
+            for(int ii = 0; ii < tasks; ii++)
+            {
+                final int firstChunk = ii;
+                futures.add(executor.submit(new Callable()
+                {
+                    public Object call()
+                    {
+                        for(int chunk = firstChunk; chunk < chunks; chunk += tasks)
+                        {
+                            copyChunk(values, chunk, generateChunk(chunk));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(int ii = 0; ii < tasks; ii++)
+            {
+                ((Future)futures.get(ii)).get();
+            }
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new NestedApplicationException(exc);
+        }
+        catch(ExecutionException exc)
+        {
+            throw new NestedApplicationException(exc.getCause());
+        }
+        finally
+        {
+            for(int ii = 0; ii < futures.size(); ii++)
+            {
+                ((Future)futures.get(ii)).cancel(false);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor()
+    {
+        if(null == executor)
+        {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "SyntheticResultSetFactory");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private void copyChunk(Object[][] values, int chunk, Object[][] chunkValues)
+    {
+        for(int ii = 0; ii < chunkValues.length; ii++)
+        {
+            System.arraycopy(chunkValues[ii], 0, values[ii], chunk * CHUNK_SIZE, chunkValues[ii].length);
+        }
+    }
+
+    private Object[][] generateChunk(int chunk)
+    {
+        int start = chunk * CHUNK_SIZE;
+        int length = Math.min(CHUNK_SIZE, rowCount - start);
+        Object[][] chunkValues = new Object[columns.size()][];
+        for(int ii = 0; ii < chunkValues.length; ii++)
+        {
+            Column column = (Column)columns.get(ii);
+            Random random = new Random(mix(seed ^ mix(((long)ii << 32) + chunk)));
+            Object[] values = new Object[length];
+            for(int kk = 0; kk < length; kk++)
+            {
+                if(column.nullRatio > 0.0 && random.nextDouble() < column.nullRatio) continue;
+                values[kk] = column.generate(random, start + kk);
+            }
+            chunkValues[ii] = values;
+        }
+        return chunkValues;
+    }
+
+    private static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    private static Object convert(int sqlType, long value)
+    {
+        switch(sqlType)
+        {
+            case Types.INTEGER:
+                return new Integer((int)value);
+            case Types.BIGINT:
+                return new Long(value);
+            case Types.DOUBLE:
+                return new Double(value);
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    private static Object convert(int sqlType, double value)
+    {
+        switch(sqlType)
+        {
+            case Types.INTEGER:
+                return new Integer((int)value);
+            case Types.BIGINT:
+                return new Long((long)value);
+            case Types.DOUBLE:
+                return new Double(value);
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    private static double[] createDistribution(double[] weights)
+    {
+        double[] distribution = new double[weights.length];
+        double sum = 0.0;
+        for(int ii = 0; ii < weights.length; ii++)
+        {
+            if(weights[ii] < 0.0)
+            {
+                throw new IllegalArgumentException("weights must not be negative");
+            }
+            sum += weights[ii];
+            distribution[ii] = sum;
+        }
+        if(sum <= 0.0)
+        {
+            throw new IllegalArgumentException("weights must not all be 0");
+        }
+        for(int ii = 0; ii < distribution.length; ii++)
+        {
+            distribution[ii] /= sum;
+        }
+        return distribution;
+    }
+
+    private static int sample(double[] distribution, Random random)
+    {
+        double value = random.nextDouble();
+        int low = 0;
+        int high = distribution.length - 1;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(distribution[middle] <= value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private class RowIterator implements Iterator
+    {
+        private int row;
+        private Object[][] chunkValues;
+
+        public boolean hasNext()
+        {
+            return row < rowCount;
+        }
+
+        public Object next()
+        {
+            if(!hasNext()) throw new NoSuchElementException();
+            int index = row % CHUNK_SIZE;
+            if(0 == index)
+            {
+                chunkValues = generateChunk(row / CHUNK_SIZE);
+            }
+            Object[] values = new Object[chunkValues.length];
+            for(int ii = 0; ii < values.length; ii++)
+            {
+                values[ii] = chunkValues[ii][index];
+            }
+            row++;
+            return values;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private abstract static class Column
+    {
+        private final String name;
+        private final int sqlType;
+        private double nullRatio;
+
+        public Column(String name, int sqlType)
+        {
+            if(null == name)
+            {
+                throw new IllegalArgumentException("name must not be null");
+            }
+            this.name = name;
+            this.sqlType = sqlType;
+            nullRatio = 0.0;
+        }
+
+        public int getSQLType()
+        {
+            return sqlType;
+        }
+
+        public abstract Object generate(Random random, int row);
+    }
+
+    private static class SequenceColumn extends Column
+    {
+        private final long start;
+        private final long increment;
+
+        public SequenceColumn(String name, int sqlType, long start, long increment)
+        {
+            super(name, sqlType);
+            this.start = start;
+            this.increment = increment;
+        }
+
+        public Object generate(Random random, int row)
+        {
+            return convert(getSQLType(), start + increment * row);
+        }
+    }
+
+    private static class UniformColumn extends Column
+    {
+        private final double minimum;
+        private final double maximum;
+
+        public UniformColumn(String name, int sqlType, double minimum, double maximum)
+        {
+            super(name, sqlType);
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
+
+        public Object generate(Random random, int row)
+        {
+            if(Types.INTEGER == getSQLType() || Types.BIGINT == getSQLType())
+            {
+                long low = (long)Math.ceil(minimum);
+                long range = (long)Math.floor(maximum) - low + 1;
+                if(range <= 0) return convert(getSQLType(), low);
+                return convert(getSQLType(), low + (long)(random.nextDouble() * range));
+            }
+            return convert(getSQLType(), minimum + random.nextDouble() * (maximum - minimum));
+        }
+    }
+
+    private static class ZipfColumn extends Column
+    {
+        private final double[] distribution;
+
+        public ZipfColumn(String name, int sqlType, double[] weights)
+        {
+            super(name, sqlType);
+            distribution = createDistribution(weights);
+        }
+
+        public Object generate(Random random, int row)
+        {
+            return convert(getSQLType(), (long)sample(distribution, random) + 1);
+        }
+    }
+
+    private static class CategoricalColumn extends Column
+    {
+        private final Object[] categories;
+        private final double[] distribution;
+
+        public CategoricalColumn(String name, Object[] categories, double[] weights)
+        {
+            super(name, Types.OTHER);
+            this.categories = categories;
+            if(null == weights)
+            {
+                distribution = null;
+            }
+            else
+            {
+                distribution = createDistribution(weights);
+            }
+        }
+
+        public Object generate(Random random, int row)
+        {
+            if(null == distribution)
+            {
+                return categories[random.nextInt(categories.length)];
+            }
+            return categories[sample(distribution, random)];
+        }
+    }
+}
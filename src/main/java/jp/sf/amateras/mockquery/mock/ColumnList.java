@@ -0,0 +1,1056 @@
+package jp.sf.amateras.mockquery.mock;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import jp.sf.amateras.mockquery.util.ParameterUtil;
+
+/**
+ * <code>List</code> implementation that is used by {@link MockResultSet}
+ * to store the values of a column. The values can be shared between
+ * multiple lists, e.g. between a prepared <code>ResultSet</code> and the
+ * copies that are returned when a statement is executed. A list that
+ * shares its values copies them before it is modified for the first time
+ * (copy-on-write), so the other lists are not affected.
+ * {@link #copy} only shares the values, if all of them are immutable.
+ * Otherwise the values are copied with {@link ParameterUtil#copyParameter},
+ * because the tested code may modify them, e.g. a <code>byte[]</code> or
+ * a <code>Blob</code>.
+ * <p>
+ * Columns that only contain <code>Integer</code>, <code>Long</code> or
+ * <code>Double</code> values are stored in an <code>int[]</code>,
+ * <code>long[]</code> or <code>double[]</code> with a bitmap of the
+ * <code>null</code> values. Columns that only contain strings are stored
+ * as codes into a dictionary of the distinct strings, as long as there are
+ * not too many distinct strings. The type of the storage is chosen from
+ * the first non-<code>null</code> values or declared with
+ * {@link #declareType}. If a value does not fit the storage, the column
+ * is converted to an <code>Object[]</code>. {@link #get} returns the
+ * same values as an <code>Object[]</code> storage, i.e. numbers are
+ * boxed again, but {@link MockResultSet} reads numeric columns with
+ * {@link #getInt}, {@link #getLong}, {@link #getFloat}
+ * and {@link #getDouble}.
+ * <p>
+ * A value that has to be converted for a getter, e.g. a string that is
+ * read with <code>getInt</code> or <code>getDate</code>, is converted
+ * once for each target type. The converted values are stored with
+ * {@link #setConvertedValue} next to the values and are discarded
+ * when the list is modified. Columns with a dictionary store the converted
+ * values for the distinct strings, other columns for each index.
+ * <p>
+ * {@link #getFingerprint} returns a hash of the values and their
+ * indices, which is used to reject unequal columns without comparing
+ * all values. The fingerprint is computed when it is requested for
+ * the first time and then updated when values are set, appended or
+ * removed from the end of the list.
+ * This class is not thread-safe.
+ */
+class ColumnList extends AbstractList implements RandomAccess
+{
+    public final static int UNTYPED = 0;
+    public final static int OBJECT = 1;
+    public final static int INT = 2;
+    public final static int LONG = 3;
+    public final static int DOUBLE = 4;
+    public final static int STRING = 5;
+
+    public final static int CONVERT_BYTE = 0;
+    public final static int CONVERT_SHORT = 1;
+    public final static int CONVERT_INT = 2;
+    public final static int CONVERT_LONG = 3;
+    public final static int CONVERT_FLOAT = 4;
+    public final static int CONVERT_DOUBLE = 5;
+    public final static int CONVERT_BIG_DECIMAL = 6;
+    public final static int CONVERT_DATE = 7;
+    public final static int CONVERT_TIME = 8;
+    public final static int CONVERT_TIMESTAMP = 9;
+
+    private final static int MINIMUM_DICTIONARY_SIZE = 64;
+    private final static int UNKNOWN = 0;
+    private final static int IMMUTABLE = 1;
+    private final static int MUTABLE = 2;
+    private final static int CONVERSION_COUNT = 10;
+    private final static int NULL_HASH = 0x6e756c6c;
+
+    private int type;
+    private int declaredType;
+    private Object[] values;
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private long[] nulls;
+    private Object[] dictionary;
+    private int dictionarySize;
+    private Map dictionaryIndex;
+    private int size;
+    private int gapStart;
+    private int gapLength;
+    private boolean shared;
+    private int immutableState;
+    private Object[][] conversions;
+    private boolean fingerprintValid;
+    private long fingerprint;
+    private int unhashableCount;
+
+    public ColumnList()
+    {
+        type = UNTYPED;
+        declaredType = UNTYPED;
+        size = 0;
+        gapStart = 0;
+        gapLength = 0;
+        shared = false;
+        immutableState = IMMUTABLE;
+        fingerprintValid = true;
+        fingerprint = 0;
+        unhashableCount = 0;
+    }
+
+    public ColumnList(Collection values)
+    {
+        this();
+        init(values.toArray());
+    }
+
+    /**
+     * Returns a copy of the specified <code>List</code>. If the
+     * specified <code>List</code> is a <code>ColumnList</code>, the
+     * copy is created with {@link #copy}, otherwise all values
+     * are copied with {@link ParameterUtil#copyParameter}.
+     * @param list the <code>List</code>
+     * @return the copy
+     */
+    public static ColumnList copyOf(List list)
+    {
+        if(list instanceof ColumnList)
+        {
+            return ((ColumnList)list).copy();
+        }
+        Object[] array = new Object[list.size()];
+        for(int ii = 0; ii < array.length; ii++)
+        {
+            array[ii] = ParameterUtil.copyParameter(list.get(ii));
+        }
+        ColumnList copy = new ColumnList();
+        copy.init(array);
+        return copy;
+    }
+
+    /**
+     * Returns the storage type for the specified SQL type
+     * (as defined in <code>java.sql.Types</code>).
+     * @param sqlType the SQL type
+     * @return the storage type, {@link #UNTYPED} if the SQL type
+     *         does not correspond to a specialized storage
+     */
+    public static int getTypeForSQLType(int sqlType)
+    {
+        switch(sqlType)
+        {
+            case Types.INTEGER:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return DOUBLE;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return STRING;
+            default:
+                return UNTYPED;
+        }
+    }
+
+    /**
+     * Returns a copy of this list. If all values are immutable,
+     * the copy shares the values with this list. Otherwise each
+     * value is copied with {@link ParameterUtil#copyParameter}.
+     * @return the copy
+     */
+    public ColumnList copy()
+    {
+        if(isImmutable())
+        {
+            return share();
+        }
+        ColumnList copy = new ColumnList();
+        copy.type = OBJECT;
+        copy.declaredType = declaredType;
+        copy.values = new Object[size];
+        for(int ii = 0; ii < size; ii++)
+        {
+            copy.values[ii] = ParameterUtil.copyParameter(values[getPosition(ii)]);
+        }
+        copy.size = size;
+        copy.gapStart = size;
+        copy.gapLength = 0;
+        copy.immutableState = MUTABLE;
+        copy.fingerprintValid = fingerprintValid;
+        copy.fingerprint = fingerprint;
+        copy.unhashableCount = unhashableCount;
+        return copy;
+    }
+
+    /**
+     * Declares the type of the values, e.g. {@link #INT} or {@link #STRING}.
+     * The storage is converted, if all current values fit the declared type.
+     * Otherwise the declaration is ignored. A column with a declared
+     * {@link #STRING} type keeps the dictionary, even if there are many
+     * distinct strings.
+     * @param type the storage type
+     */
+    public void declareType(int type)
+    {
+        if(UNTYPED == type || OBJECT == type) return;
+        if(this.type != type)
+        {
+            for(int ii = 0; ii < size; ii++)
+            {
+                if(!fits(type, get(ii))) return;
+            }
+            convert(type);
+        }
+        declaredType = type;
+    }
+
+    /**
+     * Returns the type of the storage, e.g. {@link #INT} or {@link #OBJECT}.
+     * @return the storage type
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns if the values are stored in an <code>int[]</code>,
+     * <code>long[]</code> or <code>double[]</code>.
+     * @return <code>true</code> if the column is numeric
+     */
+    public boolean isNumeric()
+    {
+        return (INT == type) || (LONG == type) || (DOUBLE == type);
+    }
+
+    /**
+     * Returns if the value at the specified index is <code>null</code>.
+     * @param index the index
+     * @return <code>true</code> if the value is <code>null</code>
+     */
+    public boolean isNull(int index)
+    {
+        checkIndex(index);
+        int position = getPosition(index);
+        switch(type)
+        {
+            case UNTYPED:
+                return true;
+            case OBJECT:
+                return null == values[position];
+            case STRING:
+                return ints[position] < 0;
+            default:
+                return isNullBit(position);
+        }
+    }
+
+    /**
+     * Returns the value at the specified index of a numeric column as
+     * <code>int</code>. The value is converted like
+     * {@link Number#intValue}. <code>null</code> is returned as <code>0</code>.
+     * @param index the index
+     * @return the value
+     * @throws IllegalStateException if the column is not numeric
+     */
+    public int getInt(int index)
+    {
+        checkIndex(index);
+        int position = getPosition(index);
+        switch(type)
+        {
+            case INT:
+                return ints[position];
+            case LONG:
+                return (int)longs[position];
+            case DOUBLE:
+                return (int)doubles[position];
+            default:
+                throw new IllegalStateException("Column is not numeric");
+        }
+    }
+
+    /**
+     * Returns the value at the specified index of a numeric column as
+     * <code>long</code>. The value is converted like
+     * {@link Number#longValue}. <code>null</code> is returned as <code>0</code>.
+     * @param index the index
+     * @return the value
+     * @throws IllegalStateException if the column is not numeric
+     */
+    public long getLong(int index)
+    {
+        checkIndex(index);
+        int position = getPosition(index);
+        switch(type)
+        {
+            case INT:
+                return ints[position];
+            case LONG:
+                return longs[position];
+            case DOUBLE:
+                return (long)doubles[position];
+            default:
+                throw new IllegalStateException("Column is not numeric");
+        }
+    }
+
+    /**
+     * Returns the value at the specified index of a numeric column as
+     * <code>float</code>. The value is converted like
+     * {@link Number#floatValue}. <code>null</code> is returned as <code>0</code>.
+     * @param index the index
+     * @return the value
+     * @throws IllegalStateException if the column is not numeric
+     */
+    public float getFloat(int index)
+    {
+        checkIndex(index);
+        int position = getPosition(index);
+        switch(type)
+        {
+            case INT:
+                return ints[position];
+            case LONG:
+                return longs[position];
+            case DOUBLE:
+                return (float)doubles[position];
+            default:
+                throw new IllegalStateException("Column is not numeric");
+        }
+    }
+
+    /**
+     * Returns the value at the specified index of a numeric column as
+     * <code>double</code>. The value is converted like
+     * {@link Number#doubleValue}. <code>null</code> is returned as <code>0</code>.
+     * @param index the index
+     * @return the value
+     * @throws IllegalStateException if the column is not numeric
+     */
+    public double getDouble(int index)
+    {
+        checkIndex(index);
+        int position = getPosition(index);
+        switch(type)
+        {
+            case INT:
+                return ints[position];
+            case LONG:
+                return longs[position];
+            case DOUBLE:
+                return doubles[position];
+            default:
+                throw new IllegalStateException("Column is not numeric");
+        }
+    }
+
+    /**
+     * Returns the value at the specified index converted to the specified
+     * target type, e.g. {@link #CONVERT_INT}, if it was stored with
+     * {@link #setConvertedValue} after the last modification of this list.
+     * @param index the index
+     * @param conversion the target type
+     * @return the converted value or <code>null</code>
+     */
+    public Object getConvertedValue(int index, int conversion)
+    {
+        checkIndex(index);
+        if(null == conversions) return null;
+        Object[] converted = conversions[conversion];
+        if(null == converted) return null;
+        int key = getConversionKey(index);
+        if(key < 0 || key >= converted.length) return null;
+        return converted[key];
+    }
+
+    /**
+     * Stores the value at the specified index converted to the specified
+     * target type. The converted value must only depend on the value, it
+     * is also returned for other indices with the same string in columns
+     * with a dictionary.
+     * @param index the index
+     * @param conversion the target type
+     * @param value the converted value
+     */
+    public void setConvertedValue(int index, int conversion, Object value)
+    {
+        checkIndex(index);
+        int key = getConversionKey(index);
+        if(key < 0) return;
+        if(null == conversions)
+        {
+            conversions = new Object[CONVERSION_COUNT][];
+        }
+        Object[] converted = conversions[conversion];
+        int length = (STRING == type) ? dictionary.length : size;
+        if(null == converted || key >= converted.length)
+        {
+            Object[] newConverted = new Object[Math.max(length, key + 1)];
+            if(null != converted) System.arraycopy(converted, 0, newConverted, 0, converted.length);
+            converted = newConverted;
+            conversions[conversion] = converted;
+        }
+        converted[key] = value;
+    }
+
+    /**
+     * Returns if {@link #getFingerprint} can be used to compare this
+     * list. This is the case, if all values are <code>null</code>,
+     * strings, the wrapper types of the primitives, <code>BigDecimal</code>
+     * or <code>BigInteger</code>.
+     * @return <code>true</code> if the list has a fingerprint
+     */
+    public boolean hasFingerprint()
+    {
+        validateFingerprint();
+        return 0 == unhashableCount;
+    }
+
+    /**
+     * Returns a fingerprint of the values and their indices. Two lists,
+     * whose values are equal according to {@link MockResultSet#isEqual},
+     * i.e. the values are equal or have the same string representation,
+     * have the same fingerprint. The result is only meaningful,
+     * if {@link #hasFingerprint} returns <code>true</code>.
+     * @return the fingerprint
+     */
+    public long getFingerprint()
+    {
+        validateFingerprint();
+        return fingerprint;
+    }
+
+    public Object get(int index)
+    {
+        checkIndex(index);
+        return load(getPosition(index));
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public Object set(int index, Object value)
+    {
+        checkIndex(index);
+        prepareWrite();
+        Object oldValue = load(getPosition(index));
+        removeFromFingerprint(index);
+        prepareValue(value);
+        store(getPosition(index), value);
+        addToFingerprint(index);
+        checkDictionary();
+        return oldValue;
+    }
+
+    public void add(int index, Object value)
+    {
+        if(index < 0 || index > size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        prepareWrite();
+        modCount++;
+        prepareValue(value);
+        if(UNTYPED != type)
+        {
+            ensureCapacity(size + 1);
+            moveGap(index);
+            store(gapStart, value);
+            gapStart++;
+            gapLength--;
+        }
+        size++;
+        if(index == size - 1)
+        {
+            addToFingerprint(index);
+        }
+        else
+        {
+            fingerprintValid = false;
+        }
+        checkDictionary();
+    }
+
+    public Object remove(int index)
+    {
+        checkIndex(index);
+        prepareWrite();
+        modCount++;
+        Object oldValue = load(getPosition(index));
+        if(index == size - 1)
+        {
+            removeFromFingerprint(index);
+        }
+        else
+        {
+            fingerprintValid = false;
+        }
+        if(UNTYPED != type)
+        {
+            moveGap(index);
+            if(OBJECT == type) values[gapStart + gapLength] = null;
+            gapLength++;
+        }
+        size--;
+        return oldValue;
+    }
+
+    public void clear()
+    {
+        modCount++;
+        size = 0;
+        shared = false;
+        immutableState = IMMUTABLE;
+        fingerprintValid = true;
+        fingerprint = 0;
+        unhashableCount = 0;
+        allocate(declaredType, 0);
+    }
+
+    private void init(Object[] array)
+    {
+        immutableState = UNKNOWN;
+        fingerprintValid = false;
+        size = array.length;
+        allocate(getTypeForValues(array), array.length);
+        for(int ii = 0; ii < array.length; ii++)
+        {
+            store(ii, array[ii]);
+        }
+        checkDictionary();
+    }
+
+    private void validateFingerprint()
+    {
+        if(fingerprintValid) return;
+        fingerprint = 0;
+        unhashableCount = 0;
+        fingerprintValid = true;
+        for(int ii = 0; ii < size; ii++)
+        {
+            addToFingerprint(ii);
+        }
+    }
+
+    private void addToFingerprint(int index)
+    {
+        if(!fingerprintValid) return;
+        if(isHashable(index))
+        {
+            fingerprint += mix(getHash(index), index);
+        }
+        else
+        {
+            unhashableCount++;
+        }
+    }
+
+    private void removeFromFingerprint(int index)
+    {
+        if(!fingerprintValid) return;
+        if(isHashable(index))
+        {
+            fingerprint -= mix(getHash(index), index);
+        }
+        else
+        {
+            unhashableCount--;
+        }
+    }
+
+    private boolean isHashable(int index)
+    {
+        if(OBJECT != type) return true;
+        Object value = values[getPosition(index)];
+        if(null == value) return true;
+        Class valueClass = value.getClass();
+        return (String.class == valueClass) || (Integer.class == valueClass) || (Long.class == valueClass) ||
+               (Short.class == valueClass) || (Byte.class == valueClass) || (Boolean.class == valueClass) ||
+               (Character.class == valueClass) || (Double.class == valueClass) || (Float.class == valueClass) ||
+               (BigDecimal.class == valueClass) || (BigInteger.class == valueClass);
+    }
+
+    private int getHash(int index)
+    {
+        int position = getPosition(index);
+        switch(type)
+        {
+            case UNTYPED:
+                return NULL_HASH;
+            case INT:
+                return isNullBit(position) ? NULL_HASH : getDecimalHash(ints[position]);
+            case LONG:
+                return isNullBit(position) ? NULL_HASH : getDecimalHash(longs[position]);
+            case STRING:
+                int code = ints[position];
+                return (code < 0) ? NULL_HASH : dictionary[code].hashCode();
+            default:
+                Object value = load(position);
+                return (null == value) ? NULL_HASH : value.toString().hashCode();
+        }
+    }
+
+    private static int getDecimalHash(long value)
+    {
+        if(Long.MIN_VALUE == value) return Long.toString(value).hashCode();
+        int hash = 0;
+        if(value < 0)
+        {
+            hash = '-';
+            value = -value;
+        }
+        long divisor = 1;
+        while(divisor <= value / 10)
+        {
+            divisor *= 10;
+        }
+        while(divisor > 0)
+        {
+            hash = 31 * hash + (int)('0' + (value / divisor) % 10);
+            divisor /= 10;
+        }
+        return hash;
+    }
+
+    private static long mix(int hash, int index)
+    {
+        long value = ((long)hash << 32) ^ (index & 0xFFFFFFFFL);
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb3f53e8b9b09L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private int getConversionKey(int index)
+    {
+        if(STRING == type) return ints[getPosition(index)];
+        return index;
+    }
+
+    private static int getTypeForValues(Object[] array)
+    {
+        int type = UNTYPED;
+        for(int ii = 0; ii < array.length; ii++)
+        {
+            if(null == array[ii]) continue;
+            if(UNTYPED == type)
+            {
+                type = getTypeForValue(array[ii]);
+            }
+            else if(!fits(type, array[ii]))
+            {
+                return OBJECT;
+            }
+        }
+        return type;
+    }
+
+    private static int getTypeForValue(Object value)
+    {
+        if(null == value) return UNTYPED;
+        if(value instanceof Integer) return INT;
+        if(value instanceof Long) return LONG;
+        if(value instanceof Double) return DOUBLE;
+        if(value instanceof String) return STRING;
+        return OBJECT;
+    }
+
+    private static boolean fits(int type, Object value)
+    {
+        if(null == value) return true;
+        switch(type)
+        {
+            case OBJECT:
+                return true;
+            case INT:
+                return value instanceof Integer;
+            case LONG:
+                return value instanceof Long;
+            case DOUBLE:
+                return value instanceof Double;
+            case STRING:
+                return value instanceof String;
+            default:
+                return false;
+        }
+    }
+
+    private Object load(int index)
+    {
+        switch(type)
+        {
+            case UNTYPED:
+                return null;
+            case OBJECT:
+                return values[index];
+            case INT:
+                return isNullBit(index) ? null : Integer.valueOf(ints[index]);
+            case LONG:
+                return isNullBit(index) ? null : Long.valueOf(longs[index]);
+            case DOUBLE:
+                return isNullBit(index) ? null : Double.valueOf(doubles[index]);
+            default:
+                int code = ints[index];
+                return (code < 0) ? null : dictionary[code];
+        }
+    }
+
+    private void store(int index, Object value)
+    {
+        switch(type)
+        {
+            case UNTYPED:
+                return;
+            case OBJECT:
+                values[index] = value;
+                return;
+            case INT:
+                setNullBit(index, null == value);
+                ints[index] = (null == value) ? 0 : ((Integer)value).intValue();
+                return;
+            case LONG:
+                setNullBit(index, null == value);
+                longs[index] = (null == value) ? 0 : ((Long)value).longValue();
+                return;
+            case DOUBLE:
+                setNullBit(index, null == value);
+                doubles[index] = (null == value) ? 0 : ((Double)value).doubleValue();
+                return;
+            default:
+                ints[index] = (null == value) ? -1 : encode((String)value);
+        }
+    }
+
+    private int encode(String value)
+    {
+        Integer code = (Integer)dictionaryIndex.get(value);
+        if(null != code) return code.intValue();
+        if(dictionarySize == dictionary.length)
+        {
+            Object[] newDictionary = new Object[dictionarySize + (dictionarySize >> 1) + 4];
+            System.arraycopy(dictionary, 0, newDictionary, 0, dictionarySize);
+            dictionary = newDictionary;
+        }
+        dictionary[dictionarySize] = value;
+        dictionaryIndex.put(value, new Integer(dictionarySize));
+        return dictionarySize++;
+    }
+
+    private void prepareValue(Object value)
+    {
+        if(fits(type, value)) return;
+        convert((UNTYPED == type) ? getTypeForValue(value) : OBJECT);
+    }
+
+    private void checkDictionary()
+    {
+        if(STRING != type || STRING == declaredType) return;
+        if(dictionarySize > MINIMUM_DICTIONARY_SIZE && dictionarySize > size / 2)
+        {
+            convert(OBJECT);
+        }
+    }
+
+    private void convert(int newType)
+    {
+        Object[] array = new Object[size];
+        for(int ii = 0; ii < size; ii++)
+        {
+            array[ii] = load(getPosition(ii));
+        }
+        allocate(newType, Math.max(size, 4));
+        for(int ii = 0; ii < size; ii++)
+        {
+            store(ii, array[ii]);
+        }
+        if(newType != declaredType) declaredType = UNTYPED;
+        immutableState = UNKNOWN;
+        shared = false;
+    }
+
+    private void allocate(int newType, int capacity)
+    {
+        type = newType;
+        conversions = null;
+        gapStart = Math.min(size, capacity);
+        gapLength = capacity - gapStart;
+        values = null;
+        ints = null;
+        longs = null;
+        doubles = null;
+        nulls = null;
+        dictionary = null;
+        dictionaryIndex = null;
+        dictionarySize = 0;
+        switch(newType)
+        {
+            case OBJECT:
+                values = new Object[capacity];
+                break;
+            case INT:
+                ints = new int[capacity];
+                break;
+            case LONG:
+                longs = new long[capacity];
+                break;
+            case DOUBLE:
+                doubles = new double[capacity];
+                break;
+            case STRING:
+                ints = new int[capacity];
+                dictionary = new Object[4];
+                dictionaryIndex = new HashMap();
+                break;
+        }
+        if(INT == newType || LONG == newType || DOUBLE == newType)
+        {
+            nulls = new long[(capacity + 63) >> 6];
+        }
+    }
+
+    private int capacity()
+    {
+        switch(type)
+        {
+            case UNTYPED:
+                return Integer.MAX_VALUE;
+            case OBJECT:
+                return values.length;
+            case LONG:
+                return longs.length;
+            case DOUBLE:
+                return doubles.length;
+            default:
+                return ints.length;
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        int currentCapacity = capacity();
+        if(capacity <= currentCapacity) return;
+        resize(Math.max(capacity, currentCapacity + (currentCapacity >> 1) + 4));
+    }
+
+    private void resize(int capacity)
+    {
+        int tailStart = gapStart + gapLength;
+        int tailLength = size - gapStart;
+        if(null != values)
+        {
+            Object[] newValues = new Object[capacity];
+            System.arraycopy(values, 0, newValues, 0, gapStart);
+            System.arraycopy(values, tailStart, newValues, gapStart, tailLength);
+            values = newValues;
+        }
+        if(null != ints)
+        {
+            int[] newInts = new int[capacity];
+            System.arraycopy(ints, 0, newInts, 0, gapStart);
+            System.arraycopy(ints, tailStart, newInts, gapStart, tailLength);
+            ints = newInts;
+        }
+        if(null != longs)
+        {
+            long[] newLongs = new long[capacity];
+            System.arraycopy(longs, 0, newLongs, 0, gapStart);
+            System.arraycopy(longs, tailStart, newLongs, gapStart, tailLength);
+            longs = newLongs;
+        }
+        if(null != doubles)
+        {
+            double[] newDoubles = new double[capacity];
+            System.arraycopy(doubles, 0, newDoubles, 0, gapStart);
+            System.arraycopy(doubles, tailStart, newDoubles, gapStart, tailLength);
+            doubles = newDoubles;
+        }
+        if(null != nulls)
+        {
+            long[] newNulls = new long[(capacity + 63) >> 6];
+            if(gapStart == size)
+            {
+                System.arraycopy(nulls, 0, newNulls, 0, Math.min(nulls.length, newNulls.length));
+            }
+            else
+            {
+                for(int ii = 0; ii < size; ii++)
+                {
+                    if(isNullBit(getPosition(ii))) newNulls[ii >> 6] |= (1L << ii);
+                }
+            }
+            nulls = newNulls;
+        }
+        gapStart = size;
+        gapLength = capacity - size;
+    }
+
+    private void moveGap(int index)
+    {
+        if(index < gapStart)
+        {
+            shift(index, gapStart, index + gapLength);
+            if(null != values) Arrays.fill(values, index, Math.min(gapStart, index + gapLength), null);
+        }
+        else if(index > gapStart)
+        {
+            int tailStart = gapStart + gapLength;
+            shift(tailStart, index + gapLength, gapStart);
+            if(null != values) Arrays.fill(values, Math.max(index, tailStart), index + gapLength, null);
+        }
+        gapStart = index;
+    }
+
+    private int getPosition(int index)
+    {
+        return (index < gapStart) ? index : index + gapLength;
+    }
+
+    private void shift(int from, int to, int target)
+    {
+        int length = to - from;
+        if(length <= 0) return;
+        if(null != values) System.arraycopy(values, from, values, target, length);
+        if(null != ints) System.arraycopy(ints, from, ints, target, length);
+        if(null != longs) System.arraycopy(longs, from, longs, target, length);
+        if(null != doubles) System.arraycopy(doubles, from, doubles, target, length);
+        if(null != nulls)
+        {
+            if(target > from)
+            {
+                for(int ii = length - 1; ii >= 0; ii--)
+                {
+                    setNullBit(target + ii, isNullBit(from + ii));
+                }
+            }
+            else
+            {
+                for(int ii = 0; ii < length; ii++)
+                {
+                    setNullBit(target + ii, isNullBit(from + ii));
+                }
+            }
+        }
+    }
+
+    private boolean isNullBit(int index)
+    {
+        return (nulls[index >> 6] & (1L << index)) != 0;
+    }
+
+    private void setNullBit(int index, boolean isNull)
+    {
+        if(isNull)
+        {
+            nulls[index >> 6] |= (1L << index);
+        }
+        else
+        {
+            nulls[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    private ColumnList share()
+    {
+        ColumnList copy = new ColumnList();
+        copy.type = type;
+        copy.declaredType = declaredType;
+        copy.values = values;
+        copy.ints = ints;
+        copy.longs = longs;
+        copy.doubles = doubles;
+        copy.nulls = nulls;
+        copy.dictionary = dictionary;
+        copy.dictionarySize = dictionarySize;
+        copy.dictionaryIndex = dictionaryIndex;
+        copy.size = size;
+        copy.gapStart = gapStart;
+        copy.gapLength = gapLength;
+        copy.shared = true;
+        copy.immutableState = immutableState;
+        copy.fingerprintValid = fingerprintValid;
+        copy.fingerprint = fingerprint;
+        copy.unhashableCount = unhashableCount;
+        shared = true;
+        return copy;
+    }
+
+    private boolean isImmutable()
+    {
+        if(OBJECT != type) return true;
+        if(UNKNOWN == immutableState)
+        {
+            immutableState = IMMUTABLE;
+            for(int ii = 0; ii < size; ii++)
+            {
+                if(!isImmutable(values[getPosition(ii)]))
+                {
+                    immutableState = MUTABLE;
+                    break;
+                }
+            }
+        }
+        return IMMUTABLE == immutableState;
+    }
+
+    private static boolean isImmutable(Object value)
+    {
+        if(null == value) return true;
+        return (value instanceof String) || (value instanceof Integer) || (value instanceof Long) ||
+               (value instanceof Short) || (value instanceof Byte) || (value instanceof Boolean) ||
+               (value instanceof Character) || (value instanceof Double) || (value instanceof Float) ||
+               BigDecimal.class.equals(value.getClass()) || BigInteger.class.equals(value.getClass());
+    }
+
+    private void prepareWrite()
+    {
+        immutableState = UNKNOWN;
+        conversions = null;
+        if(shared)
+        {
+            resize(Math.max(size, 4));
+            if(null != dictionary)
+            {
+                Object[] newDictionary = new Object[dictionary.length];
+                System.arraycopy(dictionary, 0, newDictionary, 0, dictionarySize);
+                dictionary = newDictionary;
+                dictionaryIndex = new HashMap(dictionaryIndex);
+            }
+            shared = false;
+        }
+    }
+
+    private void checkIndex(int index)
+    {
+        if(index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
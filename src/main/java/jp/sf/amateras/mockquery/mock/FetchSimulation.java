@@ -0,0 +1,234 @@
+package jp.sf.amateras.mockquery.mock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates fetching the rows of a {@link MockResultSet} from the
+ * database in pages. A <code>ResultSet</code> with a
+ * <code>FetchSimulation</code> delivers its rows in pages of fetch size
+ * rows. The fetch size is taken from the <code>ResultSet</code> (and
+ * thereby from the <code>Statement</code>). If no fetch size is set,
+ * the default fetch size of the simulation is used.
+ * <p>
+ * Each page costs the page latency and the page bytes plus the row
+ * bytes for each row of the page. A page is fetched when the cursor
+ * moves to a row that was not fetched before. Rows that were fetched
+ * once can be read again without cost. The latency is simulated with
+ * <code>Thread.sleep</code>, so the effect of different fetch sizes
+ * can be measured. The pages, rows, bytes and latency are recorded and
+ * can be read with the getters of this class. The recorded latency is
+ * the measured time of the sleeps, which is usually a bit longer than
+ * the configured latency.
+ * <p>
+ * A <code>FetchSimulation</code> can be shared by many
+ * <code>ResultSet</code> objects, also by <code>ResultSet</code> objects
+ * that are used by different threads. The recorded values are the totals
+ * of all <code>ResultSet</code> objects. Set it for a single
+ * <code>ResultSet</code> with {@link MockResultSet#setFetchSimulation} or
+ * for all <code>ResultSet</code> objects returned by the statements of a
+ * handler with
+ * {@link jp.sf.amateras.mockquery.AbstractResultSetHandler#setFetchSimulation}.
+ */
+public class FetchSimulation
+{
+    public final static int DEFAULT_FETCH_SIZE = 10;
+
+    private int defaultFetchSize = DEFAULT_FETCH_SIZE;
+    private long pageLatency = 0;
+    private long pageBytes = 0;
+    private long rowBytes = 0;
+    private final AtomicLong pageCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong();
+
+    /**
+     * Sets the number of rows of a page, if the <code>ResultSet</code>
+     * has no fetch size. Default is {@link #DEFAULT_FETCH_SIZE}.
+     * @param defaultFetchSize the default fetch size
+     * @throws IllegalArgumentException if the fetch size is not positive
+     */
+    public void setDefaultFetchSize(int defaultFetchSize)
+    {
+        if(defaultFetchSize <= 0)
+        {
+            throw new IllegalArgumentException("defaultFetchSize must be positive");
+        }
+        this.defaultFetchSize = defaultFetchSize;
+    }
+
+    /**
+     * Returns the number of rows of a page, if the <code>ResultSet</code>
+     * has no fetch size.
+     * @return the default fetch size
+     */
+    public int getDefaultFetchSize()
+    {
+        return defaultFetchSize;
+    }
+
+    /**
+     * Sets the latency of each page in milliseconds. Default is
+     * <code>0</code>, i.e. the pages are fetched without delay.
+     * @param pageLatency the latency in milliseconds
+     * @throws IllegalArgumentException if the latency is negative
+     */
+    public void setPageLatency(long pageLatency)
+    {
+        if(pageLatency < 0)
+        {
+            throw new IllegalArgumentException("pageLatency must not be negative");
+        }
+        this.pageLatency = pageLatency;
+    }
+
+    /**
+     * Returns the latency of each page in milliseconds.
+     * @return the latency in milliseconds
+     */
+    public long getPageLatency()
+    {
+        return pageLatency;
+    }
+
+    /**
+     * Sets the number of bytes that each page costs regardless
+     * of its rows, e.g. the protocol overhead of a round trip.
+     * Default is <code>0</code>.
+     * @param pageBytes the number of bytes
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public void setPageBytes(long pageBytes)
+    {
+        if(pageBytes < 0)
+        {
+            throw new IllegalArgumentException("pageBytes must not be negative");
+        }
+        this.pageBytes = pageBytes;
+    }
+
+    /**
+     * Returns the number of bytes that each page costs.
+     * @return the number of bytes
+     */
+    public long getPageBytes()
+    {
+        return pageBytes;
+    }
+
+    /**
+     * Sets the number of bytes that each row of a page costs.
+     * Default is <code>0</code>.
+     * @param rowBytes the number of bytes
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public void setRowBytes(long rowBytes)
+    {
+        if(rowBytes < 0)
+        {
+            throw new IllegalArgumentException("rowBytes must not be negative");
+        }
+        this.rowBytes = rowBytes;
+    }
+
+    /**
+     * Returns the number of bytes that each row costs.
+     * @return the number of bytes
+     */
+    public long getRowBytes()
+    {
+        return rowBytes;
+    }
+
+    /**
+     * Returns the number of fetched pages.
+     * @return the number of pages
+     */
+    public long getPageCount()
+    {
+        return pageCount.get();
+    }
+
+    /**
+     * Returns the number of fetched rows.
+     * @return the number of rows
+     */
+    public long getRowCount()
+    {
+        return rowCount.get();
+    }
+
+    /**
+     * Returns the number of bytes of all fetched pages.
+     * @return the number of bytes
+     */
+    public long getByteCount()
+    {
+        return byteCount.get();
+    }
+
+    /**
+     * Returns the measured latency of all fetched pages in milliseconds.
+     * @return the latency in milliseconds
+     */
+    public long getLatency()
+    {
+        return latency.get() / 1000000;
+    }
+
+    /**
+     * Resets the recorded pages, rows, bytes and latency.
+     * The settings are not changed.
+     */
+    public void resetMetrics()
+    {
+        pageCount.set(0);
+        rowCount.set(0);
+        byteCount.set(0);
+        latency.set(0);
+    }
+
+    /**
+     * Returns the number of rows of a page for a <code>ResultSet</code>
+     * with the specified fetch size.
+     * @param fetchSize the fetch size of the <code>ResultSet</code>
+     * @return the number of rows of a page
+     */
+    public int getPageSize(int fetchSize)
+    {
+        if(fetchSize > 0) return fetchSize;
+        return defaultFetchSize;
+    }
+
+    /**
+     * Fetches a page with the specified number of rows. Records the
+     * page, waits for the page latency and records the time it waited.
+     * @param rows the number of rows of the page
+     */
+    public void fetchPage(int rows)
+    {
+        long currentLatency = pageLatency;
+        pageCount.incrementAndGet();
+        rowCount.addAndGet(rows);
+        byteCount.addAndGet(pageBytes + rows * rowBytes);
+        if(currentLatency <= 0) return;
+        long startTime = System.nanoTime();
+        try
+        {
+            Thread.sleep(currentLatency);
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            latency.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    public String toString()
+    {
+        return "FetchSimulation: pages=" + getPageCount() + ", rows=" + getRowCount() + ", bytes=" + getByteCount() + ", latency=" + getLatency() + "ms";
+    }
+}
@@ -34,6 +34,7 @@ import java.util.Set;
 
 import jp.sf.amateras.mockquery.NestedApplicationException;
 import jp.sf.amateras.mockquery.AbstractOutParameterResultSetHandler;
+import jp.sf.amateras.mockquery.JDBCEvent;
 import jp.sf.amateras.mockquery.util.StreamUtil;
 
 /**
@@ -137,6 +138,11 @@ public class MockCallableStatement extends MockPreparedStatement implements Call
     {
         batchParameters.add(new HashMap(getParameterMap()));
     }
+    
+    protected int getEventStatementType()
+    {
+        return JDBCEvent.CALLABLE_STATEMENT;
+    }
 
     public int[] executeBatch() throws SQLException
     {
@@ -23,7 +23,10 @@ import java.util.concurrent.Executor;
 
 import jp.sf.amateras.mockquery.NestedApplicationException;
 import jp.sf.amateras.mockquery.CallableStatementResultSetHandler;
+import jp.sf.amateras.mockquery.JDBCEvent;
+import jp.sf.amateras.mockquery.JDBCEventDispatcher;
 import jp.sf.amateras.mockquery.PreparedStatementResultSetHandler;
+import jp.sf.amateras.mockquery.SQLMetricsRegistry;
 import jp.sf.amateras.mockquery.StatementResultSetHandler;
 
 /**
@@ -47,6 +50,8 @@ public class MockConnection implements Connection
     private int numberCommits;
     private int numberRollbacks;
     private Properties clientInfo;
+    private volatile JDBCEventDispatcher eventDispatcher = new JDBCEventDispatcher();
+    private volatile SQLMetricsRegistry metricsRegistry = new SQLMetricsRegistry();
     
     public MockConnection()
     {
@@ -115,6 +120,26 @@ public class MockConnection implements Connection
         savepoints.clear();
     }
     
+    public JDBCEventDispatcher getEventDispatcher()
+    {
+        return eventDispatcher;
+    }
+    
+    public void setEventDispatcher(JDBCEventDispatcher eventDispatcher)
+    {
+        this.eventDispatcher = eventDispatcher;
+    }
+    
+    public SQLMetricsRegistry getSQLMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+    
+    public void setSQLMetricsRegistry(SQLMetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+    
     public StatementResultSetHandler getStatementResultSetHandler()
     {
         return statementHandler;
@@ -390,23 +415,38 @@ public class MockConnection implements Connection
     
     public void commit() throws SQLException
     {
+        long startTime = System.nanoTime();
         numberCommits++;
+        fireTransactionEvent(JDBCEvent.COMMIT, startTime, null);
     }
     
     public void rollback() throws SQLException
     {
+        long startTime = System.nanoTime();
         numberRollbacks++;
+        fireTransactionEvent(JDBCEvent.ROLLBACK, startTime, null);
     }
     
     public void rollback(Savepoint savepoint) throws SQLException
     {
+        long startTime = System.nanoTime();
         MockSavepoint currentSavepoint = (MockSavepoint)savepoints.get(new Integer(savepoint.getSavepointId()));
         if(currentSavepoint.isReleased())
         {
-            throw new SQLException("Savepoint with id " + currentSavepoint.getSavepointId() + " and name " + currentSavepoint.getSavepointName() + " is released");
+            SQLException exc = new SQLException("Savepoint with id " + currentSavepoint.getSavepointId() + " and name " + currentSavepoint.getSavepointName() + " is released");
+            fireTransactionEvent(JDBCEvent.ROLLBACK, startTime, exc);
+            throw exc;
         }
         currentSavepoint.setRolledBack(true);
         numberRollbacks++;
+        fireTransactionEvent(JDBCEvent.ROLLBACK, startTime, null);
+    }
+    
+    private void fireTransactionEvent(int type, long startTime, SQLException exception)
+    {
+        JDBCEventDispatcher dispatcher = eventDispatcher;
+        if(null == dispatcher || !dispatcher.hasListeners()) return;
+        dispatcher.fireEvent(new JDBCEvent(type, JDBCEvent.NO_STATEMENT, null, null, null, null, -1, exception, startTime, System.nanoTime()));
     }
     
     public void clearWarnings() throws SQLException
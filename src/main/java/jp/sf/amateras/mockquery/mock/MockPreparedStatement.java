@@ -32,8 +32,9 @@ import java.util.List;
 import java.util.Map;
 
 import jp.sf.amateras.mockquery.AbstractParameterResultSetHandler;
+import jp.sf.amateras.mockquery.JDBCEvent;
+import jp.sf.amateras.mockquery.StatementResolution;
 import jp.sf.amateras.mockquery.util.ParameterUtil;
-import jp.sf.amateras.mockquery.util.ArrayUtil;
 import jp.sf.amateras.mockquery.util.StreamUtil;
 import jp.sf.amateras.mockquery.util.StringUtil;
 
@@ -80,6 +81,8 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
     {
         super.setResultSetHandler(resultSetHandler);
         this.resultSetHandler = resultSetHandler;
+        // canonicalize the SQL string once, executions find it in the cache
+        resultSetHandler.canonicalizeSQL(sql);
     }
     
     private void prepareParameterMetaData()
@@ -155,66 +158,32 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
     
     protected ResultSet executeQuery(Map params) throws SQLException
     {
-        SQLException exception = resultSetHandler.getSQLException(sql, params);
-        if(null != exception)
-        {
-            throw exception;
-        }
-        exception = resultSetHandler.getSQLException(sql);
-        if(null != exception)
-        {
-            throw exception;
-        }
-        resultSetHandler.addParameterMapForExecutedStatement(getSQL(), getParameterMapCopy(params));
-        if(resultSetHandler.hasMultipleResultSets(getSQL(), params))
-        {
-            MockResultSet[] results = resultSetHandler.getResultSets(getSQL(), params);
-            if(null != results)
-            {
-                resultSetHandler.addExecutedStatement(getSQL());
-                return cloneAndSetMultipleResultSets(results, params);
-            }
-        }
-        else
+        long startTime = System.nanoTime();
+        StatementResolution resolution = resultSetHandler.resolveStatement(getSQL(), params);
+        try
         {
-            MockResultSet result = resultSetHandler.getResultSet(getSQL(), params);
-            if(null != result)
-            {
-                resultSetHandler.addExecutedStatement(getSQL());
-                return cloneAndSetSingleResultSet(result, params);
-            }
+            ResultSet resultSet = executeQuery(params, resolution);
+            finishExecution(JDBCEvent.QUERY, getSQL(), params, resolution, resultSet, -1, null, startTime);
+            return resultSet;
         }
-        ResultSet superResultSet = super.executeQuery(getSQL());
-        setGeneratedKeysResultSet(sql, params);
-        return superResultSet;
-    }
-    
-    private MockResultSet cloneAndSetSingleResultSet(MockResultSet result, Map params)
-    {
-        result = cloneResultSet(result);
-        if(null != result)
+        catch(SQLException exc)
         {
-            resultSetHandler.addReturnedResultSet(result);
+            finishExecution(JDBCEvent.QUERY, getSQL(), params, resolution, null, -1, exc, startTime);
+            throw exc;
         }
-        setResultSets(new MockResultSet[] {result});
-        setGeneratedKeysResultSet(sql, params);
-        return result;
     }
     
-    private MockResultSet cloneAndSetMultipleResultSets(MockResultSet[] results, Map params)
+    private ResultSet executeQuery(Map params, StatementResolution resolution) throws SQLException
     {
-        results = cloneResultSets(results);
-        if(null != results)
-        {
-            resultSetHandler.addReturnedResultSets(results);
-        }
-        setResultSets(results);
-        setGeneratedKeysResultSet(sql, params);
-        if(null != results && results.length > 0)
+        SQLException exception = resolution.getSQLException();
+        if(null != exception)
         {
-            return results[0];
+            throw exception;
         }
-        return null;
+        resultSetHandler.addParameterMapForExecutedStatement(getSQL(), getParameterMapCopy(params));
+        ResultSet resultSet = executeQuery(resolution);
+        setGeneratedKeysResultSet(resolution);
+        return resultSet;
     }
 
     public int executeUpdate() throws SQLException
@@ -224,56 +193,33 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
     
     protected int executeUpdate(Map params) throws SQLException
     {
-        SQLException exception = resultSetHandler.getSQLException(sql, params);
-        if(null != exception)
-        {
-            throw exception;
-        }
-        exception = resultSetHandler.getSQLException(sql);
-        if(null != exception)
+        long startTime = System.nanoTime();
+        StatementResolution resolution = resultSetHandler.resolveStatement(getSQL(), params);
+        int eventType = getUpdateEventType();
+        try
         {
-            throw exception;
-        }
-        resultSetHandler.addParameterMapForExecutedStatement(getSQL(), getParameterMapCopy(params));
-        if(resultSetHandler.hasMultipleUpdateCounts(getSQL(), params))
-        {
-            Integer[] updateCounts = resultSetHandler.getUpdateCounts(getSQL(), params);
-            if(null != updateCounts)
-            {
-                resultSetHandler.addExecutedStatement(getSQL());
-                return setMultipleUpdateCounts((int[])ArrayUtil.convertToPrimitiveArray(updateCounts), params);
-            }
+            int updateCount = executeUpdate(params, resolution);
+            finishExecution(eventType, getSQL(), params, resolution, null, updateCount, null, startTime);
+            return updateCount;
         }
-        else
+        catch(SQLException exc)
         {
-            Integer updateCount = resultSetHandler.getUpdateCount(getSQL(), params);
-            if(null != updateCount)
-            {
-                resultSetHandler.addExecutedStatement(getSQL());
-                return setSingleUpdateCount(updateCount.intValue(), params);
-            }
+            finishExecution(eventType, getSQL(), params, resolution, null, -1, exc, startTime);
+            throw exc;
         }
-        int superUpdateCount = super.executeUpdate(getSQL());
-        setGeneratedKeysResultSet(sql, params);
-        return superUpdateCount;
-    }
-    
-    private int setSingleUpdateCount(int updateCount, Map params)
-    {
-        setUpdateCounts(new int[] {updateCount});
-        setGeneratedKeysResultSet(sql, params);
-        return updateCount;
     }
     
-    private int setMultipleUpdateCounts(int[] updateCounts, Map params)
+    private int executeUpdate(Map params, StatementResolution resolution) throws SQLException
     {
-        setUpdateCounts(updateCounts);
-        setGeneratedKeysResultSet(sql, params);
-        if(null != updateCounts && updateCounts.length > 0)
+        SQLException exception = resolution.getSQLException();
+        if(null != exception)
         {
-            return updateCounts[0];
+            throw exception;
         }
-        return 0;
+        resultSetHandler.addParameterMapForExecutedStatement(getSQL(), getParameterMapCopy(params));
+        int updateCount = executeUpdate(resolution);
+        setGeneratedKeysResultSet(resolution);
+        return updateCount;
     }
     
     public int[] executeBatch() throws SQLException
@@ -285,9 +231,10 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
     {
         int[] results = new int[batchParams.size()];
         SQLException exception = null;
+        StatementResolution resolution = resultSetHandler.resolveStatement(getSQL());
         for(int ii = 0; ii < results.length; ii++)
         {
-            if(isQuery(getSQL()))
+            if(isQuery(resolution))
             {
                 exception = prepareFailedResult(results, ii, "SQL " + getSQL() + " in the list of batches returned a ResultSet.", null);
             }
@@ -296,12 +243,17 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
                 try
                 {
                     Map currentParameters = (Map)batchParams.get(ii);
+                    setUpdateEventType(JDBCEvent.BATCH);
                     results[ii] = executeUpdate(currentParameters);
                 } 
                 catch(SQLException exc)
                 {
                     exception = prepareFailedResult(results, ii, null, exc);
                 }
+                finally
+                {
+                    setUpdateEventType(JDBCEvent.UPDATE);
+                }
             }
             if(null != exception && !resultSetHandler.getContinueProcessingOnBatchFailure())
             {
@@ -315,19 +267,11 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
         return results;
     }
 
-    private void setGeneratedKeysResultSet(String sql, Map params)
+    private void setGeneratedKeysResultSet(StatementResolution resolution)
     {
-        MockResultSet generatedKeys = resultSetHandler.getGeneratedKeys(sql, params);
         if(returnGeneratedKeys)
         {
-            if(null != generatedKeys)
-            {
-                setLastGeneratedKeysResultSet(generatedKeys);
-            }
-            else
-            {
-                setLastGeneratedKeysResultSet(determineGeneratedKeysResultSet(sql));
-            }
+            setLastGeneratedKeysResultSet(determineGeneratedKeysResultSet(resolution));
         }
         else
         {
@@ -335,6 +279,11 @@ public class MockPreparedStatement extends MockStatement implements PreparedStat
         }
     }
 
+    protected int getEventStatementType()
+    {
+        return JDBCEvent.PREPARED_STATEMENT;
+    }
+
     public ResultSetMetaData getMetaData() throws SQLException
     {
         return new MockResultSetMetaData();
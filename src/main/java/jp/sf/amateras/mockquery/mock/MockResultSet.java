@@ -25,13 +25,26 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.sf.amateras.mockquery.AbstractResultSetHandler;
 import jp.sf.amateras.mockquery.NestedApplicationException;
+import jp.sf.amateras.mockquery.JDBCEvent;
+import jp.sf.amateras.mockquery.JDBCEventDispatcher;
+import jp.sf.amateras.mockquery.SQLMetrics;
 import jp.sf.amateras.mockquery.util.ParameterUtil;
 import jp.sf.amateras.mockquery.util.SQLUtil;
 import jp.sf.amateras.mockquery.util.CaseAwareMap;
@@ -50,6 +63,11 @@ import jp.sf.amateras.mockquery.util.StringUtil;
  * Please check out the documentation of <code>ResultSet</code> 
  * for the description of the methods in this interface. 
  * The additional methods are described here.
+ * If the {@link jp.sf.amateras.mockquery.StatementRegistry} of the
+ * handler is weak, a closed <code>ResultSet</code> releases its
+ * <code>Statement</code>, i.e. <code>getStatement</code> returns
+ * <code>null</code>, so the execution history of the handler
+ * does not keep closed statements.
  */
 public class MockResultSet implements ResultSet, Cloneable
 {
@@ -57,16 +75,24 @@ public class MockResultSet implements ResultSet, Cloneable
     private String id;
     private Map columnMap;
     private Map columnMapCopy;
+    private boolean rowsPending;
     private Map insertRow;
     private List columnNameList;
-    private List updatedRows;
-    private List deletedRows;
-    private List insertedRows;
+    private List[] columns;
+    private List[] columnsCopy;
+    private Map columnIndexMap;
+    private BitSet updatedRows;
+    private BitSet deletedRows;
+    private BitSet insertedRows;
     private int cursor;
     private boolean isCursorInInsertRow;
     private boolean wasNull;
     private String cursorName;
     private int fetchSize = 0;
+    private int maxRows = 0;
+    private FetchSimulation fetchSimulation = null;
+    private int fetchedRows = 0;
+    private SQLMetrics sqlMetrics = null;
     private int fetchDirection = ResultSet.FETCH_FORWARD;
     private int resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE;
     private int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
@@ -93,10 +119,11 @@ public class MockResultSet implements ResultSet, Cloneable
     {
         columnMap = createCaseAwareMap();
         columnNameList = new ArrayList();
-        updatedRows = new ArrayList();
-        deletedRows = new ArrayList();
-        insertedRows = new ArrayList();
+        updatedRows = new BitSet();
+        deletedRows = new BitSet();
+        insertedRows = new BitSet();
         cursor = -1;
+        fetchedRows = 0;
         wasNull = false;
         closed = false;
         isCursorInInsertRow = false;
@@ -118,25 +145,46 @@ public class MockResultSet implements ResultSet, Cloneable
         init();
     }
 
+    /**
+     * Returns if column names are case sensitive.
+     * @return are column names case sensitive
+     */
+    public boolean getColumnsCaseSensitive()
+    {
+        return columnsCaseSensitive;
+    }
+
     /**
      * Copies this <code>ResultSet</code>. The data of the
      * <code>ResultSet</code> is copied using the
      * {@link com.mockrunner.jdbc.ParameterUtil#copyParameter}
-     * method.
+     * method. Columns that only contain immutable values, e.g. 
+     * strings and numbers, are not copied. They are shared with the
+     * copy until one of the <code>ResultSet</code> objects modifies 
+     * the column.
      * @return a copy of this <code>ResultSet</code>
      */
     public Object clone()
     {
+        finishPendingRows();
         try
         {       
             MockResultSet copy = (MockResultSet)super.clone();
             copy.columnNameList = new ArrayList(columnNameList);
-            copy.updatedRows = new ArrayList(updatedRows);
-            copy.deletedRows = new ArrayList(deletedRows);
-            copy.insertedRows = new ArrayList(insertedRows);
+            copy.updatedRows = (BitSet)updatedRows.clone();
+            copy.deletedRows = (BitSet)deletedRows.clone();
+            copy.insertedRows = (BitSet)insertedRows.clone();
+            copy.fetchedRows = 0;
+            copy.sqlMetrics = null;
             copy.insertRow = copyColumnDataMap(insertRow);
             copy.columnMap = copyColumnDataMap(columnMap);
-            copy.columnMapCopy = copyColumnDataMap(columnMapCopy);
+            copy.columnMapCopy = copyColumnDataMap(getColumnMapCopy());
+            copy.columns = null;
+            copy.columnsCopy = null;
+            if(null != columnIndexMap)
+            {
+                copy.columnIndexMap = new HashMap(columnIndexMap);
+            }
             if(null != resultSetMetaData && resultSetMetaData instanceof MockResultSetMetaData)
             {
                 copy.resultSetMetaData = (ResultSetMetaData)((MockResultSetMetaData)resultSetMetaData).clone();
@@ -179,18 +227,34 @@ public class MockResultSet implements ResultSet, Cloneable
      * <code>MockResultSetMetaData</code> returns default values for most
      * of its attributes (however the correct number of columns will be
      * returned). Usually you do not have to set the <code>ResultSetMetaData</code>.
+     * If a {@link MockResultSetMetaData} is set, the column types
+     * (e.g. <code>Types.INTEGER</code> or <code>Types.VARCHAR</code>)
+     * select the storage of the columns that are present and of the
+     * columns that are added afterwards. Numeric columns are stored as
+     * primitive arrays, if they only contain <code>Integer</code>,
+     * <code>Long</code> or <code>Double</code> values respectively,
+     * and character columns are stored dictionary encoded.
+     * Without declared types, the storage is chosen from the values.
      * @param resultSetMetaData the <code>ResultSetMetaData</code>
      */
     public void setResultSetMetaData(ResultSetMetaData resultSetMetaData)
     {
         this.resultSetMetaData = resultSetMetaData;
+        for(int ii = 0; ii < columnNameList.size(); ii++)
+        {
+            String columnName = (String)columnNameList.get(ii);
+            declareColumnType(ii + 1, (List)columnMap.get(columnName));
+            declareColumnType(ii + 1, (List)getColumnMapCopy().get(columnName));
+        }
     }
     
     /**
      * Sets the <code>Statement</code> for this <code>ResultSet</code>.
      * The <code>ResultSet</code> takes the result set type, result
-     * set concurrency and the fetch direction from the specified
-     * <code>Statement</code>.
+     * set concurrency, the fetch direction, the fetch size and the
+     * maximum number of rows from the specified <code>Statement</code>.
+     * Rows beyond the maximum number of rows are removed
+     * (see {@link #setMaxRows}).
      * @param statement the statement
      */
     public void setStatement(Statement statement)
@@ -204,6 +268,7 @@ public class MockResultSet implements ResultSet, Cloneable
             resultSetHoldability = statement.getResultSetHoldability();
             fetchSize = statement.getFetchSize();
             cursorName = ((MockStatement)statement).getCursorName();
+            setMaxRows(statement.getMaxRows());
         }
         catch(SQLException exc)
         {
@@ -211,6 +276,83 @@ public class MockResultSet implements ResultSet, Cloneable
         }
     }
     
+    /**
+     * Sets the maximum number of rows. <code>0</code>, which is the
+     * default, means that there is no limit. Like a database, which
+     * silently drops the rows beyond the limit of the statement, this
+     * method removes the rows beyond the limit. Rows that are added
+     * afterwards are not removed.
+     * @param maxRows the maximum number of rows
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+        if(maxRows <= 0 || getRowCount() <= maxRows) return;
+        truncateColumns(columnMap, maxRows);
+        truncateColumns(getColumnMapCopy(), maxRows);
+        truncateFlags(updatedRows, maxRows);
+        truncateFlags(deletedRows, maxRows);
+        truncateFlags(insertedRows, maxRows);
+        if(fetchedRows > maxRows) fetchedRows = maxRows;
+        adjustCursor();
+    }
+    
+    /**
+     * Returns the maximum number of rows.
+     * @return the maximum number of rows, <code>0</code> if there is no limit
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+    
+    /**
+     * Sets the {@link FetchSimulation} for this <code>ResultSet</code>.
+     * If a <code>FetchSimulation</code> is set, the rows are delivered
+     * in pages of fetch size rows and the pages are recorded by the
+     * <code>FetchSimulation</code>. Default is <code>null</code>, i.e.
+     * all rows are available immediately. Copies of this
+     * <code>ResultSet</code> share the <code>FetchSimulation</code>.
+     * @param fetchSimulation the <code>FetchSimulation</code> or <code>null</code>
+     */
+    public void setFetchSimulation(FetchSimulation fetchSimulation)
+    {
+        this.fetchSimulation = fetchSimulation;
+        fetchedRows = Math.min(Math.max(cursor + 1, 0), getRowCount());
+    }
+    
+    /**
+     * Returns the {@link FetchSimulation} for this <code>ResultSet</code>.
+     * @return the <code>FetchSimulation</code> or <code>null</code>
+     */
+    public FetchSimulation getFetchSimulation()
+    {
+        return fetchSimulation;
+    }
+    
+    /**
+     * Sets the {@link SQLMetrics} that record the rows consumed with
+     * {@link #next} and the latency of the fetched pages. Statements
+     * set the metrics of their SQL string, if the
+     * {@link jp.sf.amateras.mockquery.SQLMetricsRegistry} of the
+     * connection is enabled.
+     * @param sqlMetrics the <code>SQLMetrics</code>, <code>null</code>
+     *        to record nothing
+     */
+    public void setSQLMetrics(SQLMetrics sqlMetrics)
+    {
+        this.sqlMetrics = sqlMetrics;
+    }
+    
+    /**
+     * Returns the {@link SQLMetrics} of this <code>ResultSet</code>.
+     * @return the <code>SQLMetrics</code> or <code>null</code>
+     */
+    public SQLMetrics getSQLMetrics()
+    {
+        return sqlMetrics;
+    }
+    
     /**
      * Sets the cursor name. It's not possible to set
      * this in a real <code>ResultSet</code>.
@@ -273,6 +415,16 @@ public class MockResultSet implements ResultSet, Cloneable
     {
         this.isDatabaseView = databaseView;
     }
+
+    /**
+     * Returns if the <code>get</code> methods return the data
+     * in the database. See {@link #setDatabaseView}.
+     * @return <code>true</code> if the data in the database is returned
+     */
+    public boolean isDatabaseView()
+    {
+        return isDatabaseView;
+    }
     
     /**
      * Adds a row to the simulated database table.
@@ -301,6 +453,9 @@ public class MockResultSet implements ResultSet, Cloneable
      * be added automatically. Automatically created columns
      * will get the name <i>ColumnX</i> where <i>X</i> is
      * the column index.
+     * The data is copied to the view of the tested code, when
+     * the <code>ResultSet</code> is used the next time, not for
+     * each added row, so adding many rows takes linear time.
      * @param values the row data as <code>List</code>, the index
      *        in the <code>List</code> corresponds to the column 
      *        index, i.e. values.get(0) will be stored in the first 
@@ -322,8 +477,30 @@ public class MockResultSet implements ResultSet, Cloneable
            nextColumnList.add(nextValue);
         }
         adjustColumns();
-        copyColumnMap();
-        adjustFlags();
+        invalidateColumnMapCopy();
+    }
+    
+    /**
+     * Adds multiple rows to the simulated database table.
+     * Each row is an <code>Object[]</code> or a <code>List</code>
+     * and is added like {@link #addRow(List)}.
+     * @param rows the rows
+     */
+    public void addRows(Iterable rows)
+    {
+        Iterator iterator = rows.iterator();
+        while(iterator.hasNext())
+        {
+            Object nextRow = iterator.next();
+            if(nextRow instanceof Object[])
+            {
+                addRow((Object[])nextRow);
+            }
+            else
+            {
+                addRow((List)nextRow);
+            }
+        }
     }
     
     /**
@@ -419,13 +596,75 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public void addColumn(String columnName, List values)
     {
-        List column = new ArrayList(values);
+        List column = new ColumnList(values);
         columnMap.put(columnName, column);
         columnNameList.add(columnName);
+        declareColumnType(columnNameList.size(), column);
         adjustColumns();
         adjustInsertRow();
+        invalidateColumnMapCopy();
+    }
+    
+    /**
+     * Adds multiple columns to the simulated database table.
+     * This is the same as calling {@link #addColumn(String, Object[])}
+     * for each column, but the columns are adjusted and copied only
+     * once, which is faster for large amounts of data.
+     * If there are columns with not enough rows, the columns
+     * will be extended and filled with <code>null</code> values.
+     * @param columnNames the column names
+     * @param values the column data, <code>values[ii]</code> will be
+     *        stored in the column <code>columnNames[ii]</code>,
+     *        the array index of <code>values[ii]</code>
+     *        corresponds to the row index
+     */
+    public void addColumns(String[] columnNames, Object[][] values)
+    {
+        if(columnNames.length != values.length)
+        {
+            throw new IllegalArgumentException("columnNames and values must have the same length");
+        }
+        for(int ii = 0; ii < columnNames.length; ii++)
+        {
+            List column = new ColumnList(Arrays.asList(values[ii]));
+            columnMap.put(columnNames[ii], column);
+            columnNameList.add(columnNames[ii]);
+            declareColumnType(columnNameList.size(), column);
+        }
+        adjustColumns();
+        adjustInsertRow();
+        copyColumnMap();
+    }
+    
+    /**
+     * Replaces all rows with the specified rows and moves the cursor
+     * before the first row. The columns are kept. Used by
+     * {@link MockStreamingResultSet} to load the next rows.
+     * @param rows the rows, each row is a <code>List</code> of
+     *        the column values
+     */
+    void replaceRows(List rows)
+    {
+        for(int ii = 0; ii < columnNameList.size(); ii++)
+        {
+            Object[] values = new Object[rows.size()];
+            for(int kk = 0; kk < values.length; kk++)
+            {
+                List row = (List)rows.get(kk);
+                if(ii < row.size()) values[kk] = row.get(ii);
+            }
+            List column = new ColumnList(Arrays.asList(values));
+            declareColumnType(ii + 1, column);
+            columnMap.put(columnNameList.get(ii), column);
+        }
+        updatedRows = new BitSet();
+        deletedRows = new BitSet();
+        insertedRows = new BitSet();
+        Map currentColumnIndexMap = columnIndexMap;
         copyColumnMap();
-        adjustFlags();
+        columnIndexMap = currentColumnIndexMap;
+        cursor = -1;
+        fetchedRows = 0;
     }
     
     /**
@@ -434,18 +673,29 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public int getRowCount()
     {
-        if(columnMapCopy.size() == 0) return 0;
-        List column = (List)columnMapCopy.values().iterator().next();
+        if(getColumnMapCopy().size() == 0) return 0;
+        List column = (List)getColumnMapCopy().values().iterator().next();
         return column.size();
     }
     
+    /**
+     * Returns the total number of rows. This is the same as
+     * {@link #getRowCount}, unless the rows are streamed, see
+     * {@link MockStreamingResultSet#getTotalRowCount}.
+     * @return the total number of rows, <code>-1</code> if it is unknown
+     */
+    public int getTotalRowCount()
+    {
+        return getRowCount();
+    }
+    
     /**
      * Returns the current number of columns.
      * @return the number of columns
      */
     public int getColumnCount()
     {
-        return columnMapCopy.size();
+        return getColumnMapCopy().size();
     }
     
     /**
@@ -458,7 +708,8 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowInserted(int number)
     {
         if(number < 1) return false;
-        return ((Boolean)insertedRows.get(number - 1)).booleanValue();
+        finishPendingRows();
+        return getRowFlag(insertedRows, number - 1);
     }
     
     /**
@@ -471,7 +722,8 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowDeleted(int number)
     {
         if(number < 1) return false;
-        return ((Boolean)deletedRows.get(number - 1)).booleanValue();
+        finishPendingRows();
+        return getRowFlag(deletedRows, number - 1);
     }
     
     /**
@@ -484,7 +736,8 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowUpdated(int number)
     {
         if(number < 1) return false;
-        return ((Boolean)updatedRows.get(number - 1)).booleanValue();
+        finishPendingRows();
+        return getRowFlag(updatedRows, number - 1);
     }
     
     /**
@@ -607,31 +860,21 @@ public class MockResultSet implements ResultSet, Cloneable
      * the same type (and cannot be equal according to the 
      * {@link com.mockrunner.jdbc.ParameterUtil#compareParameter} method) they
      * will be converted to a string with the <code>toString()</code> method before
-     * comparison.
+     * comparison. Columns that only contain strings, the wrapper types of the
+     * primitives, <code>BigDecimal</code> or <code>BigInteger</code> values
+     * are compared by their fingerprints first, so unequal columns usually
+     * do not have to be compared value by value. 
+     * Use {@link #diff} to get the differences.
      * @return <code>true</code> if the two <code>ResultSet</code> objects are equal,
      *         <code>false</code> otherwise
      */
     public boolean isEqual(MockResultSet resultSet)
     {
         if(null == resultSet) return false;
-        Map thisMap;
-        Map otherMap;
-        if(isDatabaseView)
-        {
-            thisMap = columnMap;    
-        }
-        else
-        {
-            thisMap = columnMapCopy;  
-        }
-        if(resultSet.isDatabaseView)
-        {
-            otherMap = resultSet.columnMap;
-        }
-        else
-        {
-            otherMap = resultSet.columnMapCopy;
-        }
+        Map thisMap = getDataMap();
+        Map otherMap = resultSet.getDataMap();
+        List thisLists = new ArrayList();
+        List otherLists = new ArrayList();
         Iterator keys = thisMap.keySet().iterator();
         while(keys.hasNext())
         {
@@ -640,27 +883,83 @@ public class MockResultSet implements ResultSet, Cloneable
             List otherList =  (List)otherMap.get(currentKey);
             if(null == otherList) return false;
             if(thisList.size() != otherList.size()) return false;
-            for(int ii = 0; ii < thisList.size(); ii++)
+            if(haveDifferentFingerprints(thisList, otherList)) return false;
+            thisLists.add(thisList);
+            otherLists.add(otherList);
+        }
+        for(int ii = 0; ii < thisLists.size(); ii++)
+        {
+            List thisList = (List)thisLists.get(ii);
+            List otherList = (List)otherLists.get(ii);
+            for(int kk = 0; kk < thisList.size(); kk++)
             {
-                Object source = thisList.get(ii);
-                Object target = otherList.get(ii);
-                if(null != source && null != target)
-                {
-                    if(!source.getClass().isAssignableFrom(target.getClass()) && !target.getClass().isAssignableFrom(source.getClass()))
-                    {
-                        source = source.toString();
-                        target = target.toString();
-                    }
-                }
-                if(!ParameterUtil.compareParameter(source, target))
+                if(!isValueEqual(thisList.get(kk), otherList.get(kk)))
                 {
                     return false;
-                }    
+                }
             }
         }
         return true;
     }
     
+    /**
+     * Compares the specified <code>ResultSet</code> with this 
+     * <code>ResultSet</code> like {@link #isEqual} and returns the
+     * differences. The columns of this <code>ResultSet</code> that are missing
+     * in the specified <code>ResultSet</code> or have a different number of
+     * rows are reported first, followed by the first cells with different 
+     * values, ordered by row and column. The rows that are present in
+     * both columns are compared. Large <code>ResultSet</code> objects are 
+     * compared in parallel. 
+     * @param resultSet the <code>ResultSet</code> to compare with
+     * @param maxDifferences the maximum number of reported differences
+     * @return the <code>List</code> of {@link ResultSetDifference} objects,
+     *         an empty <code>List</code> if the <code>ResultSet</code> objects
+     *         are equal
+     * @throws IllegalArgumentException if <code>maxDifferences</code> is
+     *         less than 1
+     */
+    public List diff(MockResultSet resultSet, int maxDifferences)
+    {
+        if(maxDifferences < 1)
+        {
+            throw new IllegalArgumentException("maxDifferences must be greater than 0");
+        }
+        List differences = new ArrayList();
+        Map thisMap = getDataMap();
+        Map otherMap = (null == resultSet) ? Collections.EMPTY_MAP : resultSet.getDataMap();
+        List columnNames = new ArrayList();
+        List thisLists = new ArrayList();
+        List otherLists = new ArrayList();
+        int rowCount = 0;
+        for(int ii = 0; ii < columnNameList.size(); ii++)
+        {
+            String columnName = (String)columnNameList.get(ii);
+            List thisList =  (List)thisMap.get(columnName);
+            List otherList =  (List)otherMap.get(columnName);
+            if(null == otherList)
+            {
+                differences.add(new ResultSetDifference(columnName, "missing"));
+                continue;
+            }
+            if(thisList.size() != otherList.size())
+            {
+                differences.add(new ResultSetDifference(columnName, thisList.size() + " rows != " + otherList.size() + " rows"));
+            }
+            columnNames.add(columnName);
+            thisLists.add(thisList);
+            otherLists.add(otherList);
+            rowCount = Math.max(rowCount, Math.min(thisList.size(), otherList.size()));
+        }
+        if(differences.size() >= maxDifferences)
+        {
+            return new ArrayList(differences.subList(0, maxDifferences));
+        }
+        CellComparison comparison = new CellComparison(columnNames, thisLists, otherLists, maxDifferences - differences.size());
+        differences.addAll(comparison.compare(rowCount));
+        return differences;
+    }
+    
     /**
      * Returns the row with the specified number.
      * The first row has the number 1.
@@ -688,13 +987,23 @@ public class MockResultSet implements ResultSet, Cloneable
             }
             else
             {
-                nextColumnList = (List)columnMapCopy.get(nextColumnName);
+                nextColumnList = (List)getColumnMapCopy().get(nextColumnName);
             }
             list.add(nextColumnList.get(index));
         }
         return list;
     }
     
+    /**
+     * Returns the names of the columns in the order
+     * of their column numbers.
+     * @return the <code>List</code> of column names
+     */
+    public List getColumnNames()
+    {
+        return new ArrayList(columnNameList);
+    }
+    
     /**
      * Returns the column with the specified number.
      * The first column has the number 1.
@@ -730,7 +1039,7 @@ public class MockResultSet implements ResultSet, Cloneable
         }
         else
         {
-            columnList = (List)columnMapCopy.get(name);
+            columnList = (List)getColumnMapCopy().get(name);
         }
         if(null == columnList) return null;
         list.addAll(columnList);
@@ -739,7 +1048,37 @@ public class MockResultSet implements ResultSet, Cloneable
     
     public void close() throws SQLException
     {
+        if(!closed)
+        {
+            fireCloseEvent();
+        }
         closed = true;
+        if(isStatementRegistryWeak())
+        {
+            statement = null;
+        }
+    }
+    
+    private boolean isStatementRegistryWeak()
+    {
+        if(!(statement instanceof MockStatement)) return false;
+        AbstractResultSetHandler handler = ((MockStatement)statement).getResultSetHandler();
+        return null != handler && handler.getStatementRegistry().isWeak();
+    }
+    
+    private void fireCloseEvent()
+    {
+        if(!(statement instanceof MockStatement)) return;
+        MockStatement mockStatement = (MockStatement)statement;
+        JDBCEventDispatcher dispatcher = mockStatement.getEventDispatcher();
+        if(null == dispatcher) return;
+        long time = System.nanoTime();
+        String sql = null;
+        if(statement instanceof MockPreparedStatement)
+        {
+            sql = ((MockPreparedStatement)statement).getSQL();
+        }
+        dispatcher.fireEvent(new JDBCEvent(JDBCEvent.RESULT_SET_CLOSE, mockStatement.getEventStatementType(), sql, null, null, id, getTotalRowCount(), null, time, time));
     }
 
     public boolean wasNull() throws SQLException
@@ -749,29 +1088,12 @@ public class MockResultSet implements ResultSet, Cloneable
     
     public Object getObject(int columnIndex) throws SQLException
     {
-        checkColumnBounds(columnIndex);
-        checkRowBounds();
-        String columnName = (String)columnNameList.get(columnIndex - 1);
-        return getObject(columnName);
+        return getValue(getCurrentColumn(columnIndex));
     }
     
     public Object getObject(String columnName) throws SQLException
     {
-        checkColumnName(columnName);
-        checkRowBounds();
-        if(rowDeleted()) throw new SQLException("row was deleted");
-        List column;
-        if(isDatabaseView)
-        {
-            column = (List)columnMap.get(columnName);
-        }
-        else
-        {
-            column = (List)columnMapCopy.get(columnName);
-        }
-        Object value = column.get(cursor);
-        wasNull = (null == value);
-        return value;
+        return getValue(getCurrentColumn(columnName));
     }
     
     public Object getObject(int columnIndex, Map map) throws SQLException
@@ -842,134 +1164,62 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public byte getByte(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).byteValue();
-            return new Byte(value.toString()).byteValue();
-        }
-        return 0;
+        return getByteValue(getCurrentColumn(columnIndex));
     }
     
     public byte getByte(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).byteValue();
-            return new Byte(value.toString()).byteValue();
-        }
-        return 0;
+        return getByteValue(getCurrentColumn(columnName));
     }
 
     public short getShort(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).shortValue();
-            return new Short(value.toString()).shortValue();
-        }
-        return 0;
+        return getShortValue(getCurrentColumn(columnIndex));
     }
     
     public short getShort(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).shortValue();
-            return new Short(value.toString()).shortValue();
-        }
-        return 0;
+        return getShortValue(getCurrentColumn(columnName));
     }
 
     public int getInt(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).intValue();
-            return new Integer(value.toString()).intValue();
-        }
-        return 0;
+        return getIntValue(getCurrentColumn(columnIndex));
     }
     
     public int getInt(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).intValue();
-            return new Integer(value.toString()).intValue();
-        }
-        return 0;
+        return getIntValue(getCurrentColumn(columnName));
     }
 
     public long getLong(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).longValue();
-            return new Long(value.toString()).longValue();
-        }
-        return 0;
+        return getLongValue(getCurrentColumn(columnIndex));
     }
     
     public long getLong(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).longValue();
-            return new Long(value.toString()).longValue();
-        }
-        return 0;
+        return getLongValue(getCurrentColumn(columnName));
     }
 
     public float getFloat(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).floatValue();
-            return new Float(value.toString()).floatValue();
-        }
-        return 0;
+        return getFloatValue(getCurrentColumn(columnIndex));
     }
     
     public float getFloat(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).floatValue();
-            return new Float(value.toString()).floatValue();
-        }
-        return 0;
+        return getFloatValue(getCurrentColumn(columnName));
     }
     
     public double getDouble(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).doubleValue();
-            return new Double(value.toString()).doubleValue();
-        }
-        return 0;
+        return getDoubleValue(getCurrentColumn(columnIndex));
     }
     
     public double getDouble(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).doubleValue();
-            return new Double(value.toString()).doubleValue();
-        }
-        return 0;
+        return getDoubleValue(getCurrentColumn(columnName));
     }
 
     public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException
@@ -994,22 +1244,22 @@ public class MockResultSet implements ResultSet, Cloneable
     
     public BigDecimal getBigDecimal(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
+        List column = getCurrentColumn(columnIndex);
+        Object value = getValue(column);
         if(null != value)
         {
-            if(value instanceof Number) return new BigDecimal(((Number)value).doubleValue());
-            return new BigDecimal(value.toString());
+            return (BigDecimal)convertValue(column, value, ColumnList.CONVERT_BIG_DECIMAL);
         }
         return null;
     }
 
     public BigDecimal getBigDecimal(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
+        List column = getCurrentColumn(columnName);
+        Object value = getValue(column);
         if(null != value)
         {
-            if(value instanceof Number) return new BigDecimal(((Number)value).doubleValue());
-            return new BigDecimal(value.toString());
+            return (BigDecimal)convertValue(column, value, ColumnList.CONVERT_BIG_DECIMAL);
         }
         return null;
     }
@@ -1052,22 +1302,24 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public Date getDate(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
+        List column = getCurrentColumn(columnIndex);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Date) return (Date)value;
-            return Date.valueOf(value.toString());
+            return (Date)((Date)convertValue(column, value, ColumnList.CONVERT_DATE)).clone();
         }
         return null;
     }
     
     public Date getDate(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
+        List column = getCurrentColumn(columnName);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Date) return (Date)value;
-            return Date.valueOf(value.toString());
+            return (Date)((Date)convertValue(column, value, ColumnList.CONVERT_DATE)).clone();
         }
         return null;
     }
@@ -1084,22 +1336,24 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public Time getTime(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
+        List column = getCurrentColumn(columnIndex);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Time) return (Time)value;
-            return Time.valueOf(value.toString());
+            return (Time)((Time)convertValue(column, value, ColumnList.CONVERT_TIME)).clone();
         }
         return null;
     }
     
     public Time getTime(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
+        List column = getCurrentColumn(columnName);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Time) return (Time)value;
-            return Time.valueOf(value.toString());
+            return (Time)((Time)convertValue(column, value, ColumnList.CONVERT_TIME)).clone();
         }
         return null;
     }
@@ -1116,22 +1370,24 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public Timestamp getTimestamp(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
+        List column = getCurrentColumn(columnIndex);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Timestamp) return (Timestamp)value;
-            return Timestamp.valueOf(value.toString());
+            return (Timestamp)((Timestamp)convertValue(column, value, ColumnList.CONVERT_TIMESTAMP)).clone();
         }
         return null;
     }
     
     public Timestamp getTimestamp(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
+        List column = getCurrentColumn(columnName);
+        Object value = getValue(column);
         if(null != value)
         {
             if(value instanceof Timestamp) return (Timestamp)value;
-            return Timestamp.valueOf(value.toString());
+            return (Timestamp)((Timestamp)convertValue(column, value, ColumnList.CONVERT_TIMESTAMP)).clone();
         }
         return null;
     }
@@ -1453,6 +1709,17 @@ public class MockResultSet implements ResultSet, Cloneable
         return cursorName;
     }
 
+    /**
+     * Returns if a <code>ResultSetMetaData</code> was set with
+     * {@link #setResultSetMetaData}. Otherwise {@link #getMetaData}
+     * creates a <code>ResultSetMetaData</code> with the column names.
+     * @return <code>true</code> if a <code>ResultSetMetaData</code> was set
+     */
+    public boolean hasResultSetMetaData()
+    {
+        return null != resultSetMetaData;
+    }
+    
     public ResultSetMetaData getMetaData() throws SQLException
     {
         if(null != resultSetMetaData) return resultSetMetaData;
@@ -1505,6 +1772,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetType();
         if(getRowCount() == 0) return;
         cursor = getRowCount();
+        fetchRows(cursor - 1);
     }
     
     public boolean next() throws SQLException
@@ -1513,7 +1781,13 @@ public class MockResultSet implements ResultSet, Cloneable
         if(getRowCount() == 0) return false;
         cursor++;
         adjustCursor();
-        return isCurrentRowValid();
+        fetchRows(cursor);
+        boolean valid = isCurrentRowValid();
+        if(valid && null != sqlMetrics)
+        {
+            sqlMetrics.recordRowConsumed();
+        }
+        return valid;
     }
 
 
@@ -1523,6 +1797,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetType();
         if(getRowCount() == 0) return false;
         cursor = 0;
+        fetchRows(cursor);
         return true;
     }
 
@@ -1532,6 +1807,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetType();
         if(getRowCount() == 0) return false;
         cursor = getRowCount() - 1;
+        fetchRows(cursor);
         return true;
     }
     
@@ -1543,6 +1819,7 @@ public class MockResultSet implements ResultSet, Cloneable
         if(row > 0) cursor = row - 1;
         if(row < 0) cursor = getRowCount() + row;
         adjustCursor();
+        fetchRows(cursor);
         return isCurrentRowValid();
     }
 
@@ -1553,6 +1830,7 @@ public class MockResultSet implements ResultSet, Cloneable
         if(getRowCount() == 0) return false;
         cursor += rows;
         adjustCursor();
+        fetchRows(cursor);
         return isCurrentRowValid();
     }
 
@@ -1581,7 +1859,7 @@ public class MockResultSet implements ResultSet, Cloneable
             return;
         }
         this.fetchDirection = fetchDirection;
-        Iterator columns = columnMapCopy.values().iterator();
+        Iterator columns = getColumnMapCopy().values().iterator();
         while(columns.hasNext())
         {
             List column = (List)columns.next();
@@ -1622,11 +1900,12 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public int findColumn(String columnName) throws SQLException
     {
-        for(int ii = 0; ii < columnNameList.size(); ii++)
+        int index = getColumnIndex(columnName);
+        if(index < 0)
         {
-            if(columnName.equals(columnNameList.get(ii))) return ii + 1;
+            throw new SQLException("No column with name " + columnName + " found");
         }
-        throw new SQLException("No column with name " + columnName + " found");
+        return index + 1;
     }
 
     public void updateObject(int columnIndex, Object value) throws SQLException
@@ -1667,7 +1946,7 @@ public class MockResultSet implements ResultSet, Cloneable
         }
         else
         {
-            List column = (List)columnMapCopy.get(columnName);
+            List column = (List)getColumnMapCopy().get(columnName);
             column.set(cursor, value);
         }
     }
@@ -2085,19 +2364,19 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowUpdated() throws SQLException
     {
         checkRowBounds();
-        return ((Boolean)updatedRows.get(cursor)).booleanValue();
+        return updatedRows.get(cursor);
     }
 
     public boolean rowInserted() throws SQLException
     {
         checkRowBounds();
-        return ((Boolean)insertedRows.get(cursor)).booleanValue();
+        return insertedRows.get(cursor);
     }
 
     public boolean rowDeleted() throws SQLException
     {
         checkRowBounds();
-        return ((Boolean)deletedRows.get(cursor)).booleanValue();
+        return deletedRows.get(cursor);
     }
     
     public void insertRow() throws SQLException
@@ -2114,7 +2393,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetConcurrency();
         checkRowBounds();
         updateRow(cursor, true);
-        updatedRows.set(cursor, new Boolean(true));
+        updatedRows.set(cursor);
     }
 
     public void deleteRow() throws SQLException
@@ -2123,7 +2402,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetConcurrency();
         checkRowBounds();
         deleteRow(cursor);
-        deletedRows.set(cursor, new Boolean(true));
+        deletedRows.set(cursor);
     }
 
     public void refreshRow() throws SQLException
@@ -2137,7 +2416,7 @@ public class MockResultSet implements ResultSet, Cloneable
         if(rowDeleted()) throw new SQLException("row was deleted");
         checkRowBounds();
         updateRow(cursor, false);
-        updatedRows.set(cursor, new Boolean(false));
+        updatedRows.clear(cursor);
     }
 
     public void moveToInsertRow() throws SQLException
@@ -2161,6 +2440,268 @@ public class MockResultSet implements ResultSet, Cloneable
         throw new SQLException("No object found for " + iface);
     }
     
+    private List getCurrentColumn(int columnIndex) throws SQLException
+    {
+        checkColumnBounds(columnIndex);
+        checkRowBounds();
+        List column = getColumns()[columnIndex - 1];
+        if(rowDeleted()) throw new SQLException("row was deleted");
+        return column;
+    }
+    
+    private List getCurrentColumn(String columnName) throws SQLException
+    {
+        int index = getColumnIndex(columnName);
+        if(index < 0)
+        {
+            throw new SQLException("No column " + columnName);
+        }
+        checkRowBounds();
+        if(rowDeleted()) throw new SQLException("row was deleted");
+        return getColumns()[index];
+    }
+    
+    private List[] getColumns()
+    {
+        if(isDatabaseView)
+        {
+            if(null == columns)
+            {
+                columns = createColumnArray(columnMap);
+            }
+            return columns;
+        }
+        if(null == columnsCopy)
+        {
+            columnsCopy = createColumnArray(getColumnMapCopy());
+        }
+        return columnsCopy;
+    }
+    
+    private List[] createColumnArray(Map columnMap)
+    {
+        List[] columnArray = new List[columnNameList.size()];
+        for(int ii = 0; ii < columnArray.length; ii++)
+        {
+            columnArray[ii] = (List)columnMap.get(columnNameList.get(ii));
+        }
+        return columnArray;
+    }
+    
+    private int getColumnIndex(String columnName)
+    {
+        if(null == columnIndexMap)
+        {
+            columnIndexMap = new HashMap();
+        }
+        Integer index = (Integer)columnIndexMap.get(columnName);
+        if(null == index)
+        {
+            index = new Integer(resolveColumnIndex(columnName));
+            columnIndexMap.put(columnName, index);
+        }
+        return index.intValue();
+    }
+    
+    private int resolveColumnIndex(String columnName)
+    {
+        int index = columnNameList.indexOf(columnName);
+        if(index >= 0) return index;
+        List column = (List)columnMap.get(columnName);
+        if(null == column) return -1;
+        for(int ii = 0; ii < columnNameList.size(); ii++)
+        {
+            if(column == columnMap.get(columnNameList.get(ii))) return ii;
+        }
+        return -1;
+    }
+    
+    private Object getValue(List column)
+    {
+        Object value = column.get(cursor);
+        wasNull = (null == value);
+        return value;
+    }
+    
+    private boolean isNumericColumn(List column)
+    {
+        return (column instanceof ColumnList) && ((ColumnList)column).isNumeric();
+    }
+    
+    private byte getByteValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return (byte)numericColumn.getInt(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).byteValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_BYTE)).byteValue();
+        }
+        return 0;
+    }
+    
+    private short getShortValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return (short)numericColumn.getInt(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).shortValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_SHORT)).shortValue();
+        }
+        return 0;
+    }
+    
+    private int getIntValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return numericColumn.getInt(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).intValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_INT)).intValue();
+        }
+        return 0;
+    }
+    
+    private long getLongValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return numericColumn.getLong(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).longValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_LONG)).longValue();
+        }
+        return 0;
+    }
+    
+    private float getFloatValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return numericColumn.getFloat(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).floatValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_FLOAT)).floatValue();
+        }
+        return 0;
+    }
+    
+    private double getDoubleValue(List column)
+    {
+        if(isNumericColumn(column))
+        {
+            ColumnList numericColumn = (ColumnList)column;
+            wasNull = numericColumn.isNull(cursor);
+            return numericColumn.getDouble(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).doubleValue();
+            return ((Number)convertValue(column, value, ColumnList.CONVERT_DOUBLE)).doubleValue();
+        }
+        return 0;
+    }
+    
+    private Map getDataMap()
+    {
+        if(isDatabaseView) return columnMap;
+        return getColumnMapCopy();
+    }
+    
+    private static boolean isValueEqual(Object source, Object target)
+    {
+        if(null != source && null != target)
+        {
+            if(!source.getClass().isAssignableFrom(target.getClass()) && !target.getClass().isAssignableFrom(source.getClass()))
+            {
+                source = source.toString();
+                target = target.toString();
+            }
+        }
+        return ParameterUtil.compareParameter(source, target);
+    }
+    
+    private boolean haveDifferentFingerprints(List thisList, List otherList)
+    {
+        if(!(thisList instanceof ColumnList) || !(otherList instanceof ColumnList)) return false;
+        ColumnList thisColumn = (ColumnList)thisList;
+        ColumnList otherColumn = (ColumnList)otherList;
+        if(!thisColumn.hasFingerprint() || !otherColumn.hasFingerprint()) return false;
+        return thisColumn.getFingerprint() != otherColumn.getFingerprint();
+    }
+    
+    private Object convertValue(List column, Object value, int conversion)
+    {
+        ColumnList columnList = (column instanceof ColumnList) ? (ColumnList)column : null;
+        if(null != columnList)
+        {
+            Object converted = columnList.getConvertedValue(cursor, conversion);
+            if(null != converted) return converted;
+        }
+        Object converted = convertValue(value, conversion);
+        if(null != columnList)
+        {
+            columnList.setConvertedValue(cursor, conversion, converted);
+        }
+        return converted;
+    }
+    
+    private Object convertValue(Object value, int conversion)
+    {
+        switch(conversion)
+        {
+            case ColumnList.CONVERT_BYTE:
+                return new Byte(value.toString());
+            case ColumnList.CONVERT_SHORT:
+                return new Short(value.toString());
+            case ColumnList.CONVERT_INT:
+                return new Integer(value.toString());
+            case ColumnList.CONVERT_LONG:
+                return new Long(value.toString());
+            case ColumnList.CONVERT_FLOAT:
+                return new Float(value.toString());
+            case ColumnList.CONVERT_DOUBLE:
+                return new Double(value.toString());
+            case ColumnList.CONVERT_BIG_DECIMAL:
+                if(value instanceof Number) return new BigDecimal(((Number)value).doubleValue());
+                return new BigDecimal(value.toString());
+            case ColumnList.CONVERT_DATE:
+                return Date.valueOf(value.toString());
+            case ColumnList.CONVERT_TIME:
+                return Time.valueOf(value.toString());
+            default:
+                return Timestamp.valueOf(value.toString());
+        }
+    }
+    
     private void checkColumnName(String columnName) throws SQLException
     {
         if(!columnMap.containsKey(columnName))
@@ -2217,28 +2758,28 @@ public class MockResultSet implements ResultSet, Cloneable
     
     private void insertRow(int index)
     {
-        Iterator columnNames = columnMapCopy.keySet().iterator();
+        Iterator columnNames = getColumnMapCopy().keySet().iterator();
         while(columnNames.hasNext())
         {
             String currentColumnName = (String)columnNames.next();
-            List copyColumn = (List)columnMapCopy.get(currentColumnName);
+            List copyColumn = (List)getColumnMapCopy().get(currentColumnName);
             List databaseColumn = (List)columnMap.get(currentColumnName);
             List sourceColumn = (List)insertRow.get(currentColumnName);
             copyColumn.add(index, ParameterUtil.copyParameter(sourceColumn.get(0)));
             databaseColumn.add(index, ParameterUtil.copyParameter(sourceColumn.get(0)));  
         }
-        updatedRows.add(index, new Boolean(false));
-        deletedRows.add(index, new Boolean(false));
-        insertedRows.add(index, new Boolean(true));
+        insertRowFlag(updatedRows, index, false);
+        insertRowFlag(deletedRows, index, false);
+        insertRowFlag(insertedRows, index, true);
     }
     
     private void deleteRow(int index)
     {
-        Iterator columnNames = columnMapCopy.keySet().iterator();
+        Iterator columnNames = getColumnMapCopy().keySet().iterator();
         while(columnNames.hasNext())
         {
             String currentColumnName = (String)columnNames.next();
-            List copyColumn = (List)columnMapCopy.get(currentColumnName);
+            List copyColumn = (List)getColumnMapCopy().get(currentColumnName);
             List databaseColumn = (List)columnMap.get(currentColumnName);
             copyColumn.set(index, null);
             databaseColumn.set(index, null);
@@ -2247,7 +2788,7 @@ public class MockResultSet implements ResultSet, Cloneable
     
     private void updateRow(int index, boolean toDatabase)
     {
-        Iterator columnNames = columnMapCopy.keySet().iterator();
+        Iterator columnNames = getColumnMapCopy().keySet().iterator();
         while(columnNames.hasNext())
         {
             String currentColumnName = (String)columnNames.next();
@@ -2255,13 +2796,13 @@ public class MockResultSet implements ResultSet, Cloneable
             List targetColumn;
             if(toDatabase)
             {
-                sourceColumn = (List)columnMapCopy.get(currentColumnName);
+                sourceColumn = (List)getColumnMapCopy().get(currentColumnName);
                 targetColumn = (List)columnMap.get(currentColumnName);
             }
             else
             {
                 sourceColumn = (List)columnMap.get(currentColumnName);
-                targetColumn = (List)columnMapCopy.get(currentColumnName);
+                targetColumn = (List)getColumnMapCopy().get(currentColumnName);
             } 
             targetColumn.set(index, ParameterUtil.copyParameter(sourceColumn.get(index)));
         }
@@ -2296,22 +2837,67 @@ public class MockResultSet implements ResultSet, Cloneable
         }
     }
     
-    private void adjustFlags()
+    private boolean getRowFlag(BitSet flags, int index)
     {
-        for(int ii = updatedRows.size(); ii < getRowCount(); ii++)
+        if(index >= getRowCount())
         {
-            updatedRows.add(new Boolean(false));
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getRowCount());
         }
-        for(int ii = deletedRows.size(); ii < getRowCount(); ii++)
+        return flags.get(index);
+    }
+    
+    private void insertRowFlag(BitSet flags, int index, boolean value)
+    {
+        int length = flags.length();
+        if(index < length)
         {
-            deletedRows.add(new Boolean(false));
+            BitSet tail = flags.get(index, length);
+            flags.clear(index, length);
+            for(int ii = tail.nextSetBit(0); ii >= 0; ii = tail.nextSetBit(ii + 1))
+            {
+                flags.set(index + ii + 1);
+            }
         }
-        for(int ii = insertedRows.size(); ii < getRowCount(); ii++)
+        flags.set(index, value);
+    }
+    
+    private void fetchRows(int index)
+    {
+        if(null == fetchSimulation) return;
+        int rowCount = getRowCount();
+        int pageSize = fetchSimulation.getPageSize(fetchSize);
+        while(fetchedRows <= index && fetchedRows < rowCount)
         {
-            insertedRows.add(new Boolean(false));
+            int rows = Math.min(pageSize, rowCount - fetchedRows);
+            long startTime = System.nanoTime();
+            fetchSimulation.fetchPage(rows);
+            if(null != sqlMetrics)
+            {
+                sqlMetrics.recordFetchLatency(System.nanoTime() - startTime);
+            }
+            fetchedRows += rows;
         }
     }
     
+    private void truncateColumns(Map columns, int rowCount)
+    {
+        Iterator iterator = columns.values().iterator();
+        while(iterator.hasNext())
+        {
+            List column = (List)iterator.next();
+            for(int ii = column.size() - 1; ii >= rowCount; ii--)
+            {
+                column.remove(ii);
+            }
+        }
+    }
+    
+    private void truncateFlags(BitSet flags, int rowCount)
+    {
+        int length = flags.length();
+        if(length > rowCount) flags.clear(rowCount, length);
+    }
+    
     private void adjustInsertRow()
     {
         insertRow = createCaseAwareMap();
@@ -2324,9 +2910,48 @@ public class MockResultSet implements ResultSet, Cloneable
         }
     }
     
+    private void declareColumnType(int columnIndex, List column)
+    {
+        if(!(resultSetMetaData instanceof MockResultSetMetaData)) return;
+        if(!(column instanceof ColumnList)) return;
+        try
+        {
+            int sqlType = resultSetMetaData.getColumnType(columnIndex);
+            ((ColumnList)column).declareType(ColumnList.getTypeForSQLType(sqlType));
+        }
+        catch(SQLException exc)
+        {
+            
+        }
+    }
+    
+    private void invalidateColumnMapCopy()
+    {
+        rowsPending = true;
+        columns = null;
+        columnsCopy = null;
+        columnIndexMap = null;
+    }
+    
+    private void finishPendingRows()
+    {
+        if(!rowsPending) return;
+        copyColumnMap();
+    }
+    
+    private Map getColumnMapCopy()
+    {
+        finishPendingRows();
+        return columnMapCopy;
+    }
+    
     private void copyColumnMap()
     {
+        rowsPending = false;
         columnMapCopy = copyColumnDataMap(columnMap);
+        columns = null;
+        columnsCopy = null;
+        columnIndexMap = null;
     }
     
     private String determineValidColumnName()
@@ -2346,15 +2971,9 @@ public class MockResultSet implements ResultSet, Cloneable
         Iterator columns = columnMap.keySet().iterator();
         while(columns.hasNext())
         {
-            List copyList = new ArrayList();
             String nextKey = (String)columns.next();
             List nextColumnList = (List)columnMap.get(nextKey);
-            for(int ii = 0; ii < nextColumnList.size(); ii++)
-            {
-                Object copyParameter = ParameterUtil.copyParameter(nextColumnList.get(ii));
-                copyList.add(copyParameter);
-            }
-            copy.put(nextKey, copyList);
+            copy.put(nextKey, ColumnList.copyOf(nextColumnList));
         }
         return copy;
     }
@@ -2384,4 +3003,154 @@ public class MockResultSet implements ResultSet, Cloneable
         }
         return buffer.toString();
     }
+    
+    /**
+     * Compares the cells of two <code>ResultSet</code> objects in chunks
+     * of rows. The chunks are compared in parallel, if there is more than
+     * one chunk and at least <code>PARALLEL_THRESHOLD</code> cells. The
+     * chunks are compared by a shared pool of daemon threads, which is
+     * created when it is needed for the first time. A chunk stops comparing,
+     * when it found the maximum number of differences or a chunk before
+     * it found them.
+     */
+    private static class CellComparison
+    {
+        private final static int CHUNK_SIZE = 8192;
+        private final static int PARALLEL_THRESHOLD = 1 << 17;
+        
+        private static ExecutorService executor;
+        
+        private final String[] columnNames;
+        private final List[] thisLists;
+        private final List[] otherLists;
+        private final int maxDifferences;
+        private final AtomicInteger lastNeededChunk;
+        
+        public CellComparison(List columnNames, List thisLists, List otherLists, int maxDifferences)
+        {
+            this.columnNames = (String[])columnNames.toArray(new String[columnNames.size()]);
+            this.thisLists = (List[])thisLists.toArray(new List[thisLists.size()]);
+            this.otherLists = (List[])otherLists.toArray(new List[otherLists.size()]);
+            this.maxDifferences = maxDifferences;
+            this.lastNeededChunk = new AtomicInteger(Integer.MAX_VALUE);
+        }
+        
+        public List compare(int rowCount)
+        {
+            int chunks = (rowCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            int threads = Math.min(chunks, Runtime.getRuntime().availableProcessors());
+            if(threads <= 1 || (long)rowCount * columnNames.length < PARALLEL_THRESHOLD)
+            {
+                return compareChunks(chunks, rowCount);
+            }
+            ExecutorService executor = getExecutor();
+            List futures = new ArrayList(chunks);
+            try
+            {
+                for(int ii = 0; ii < chunks; ii++)
+                {
+                    final int chunk = ii;
+                    final int from = ii * CHUNK_SIZE;
+                    final int to = Math.min(rowCount, from + CHUNK_SIZE);
+                    futures.add(executor.submit(new Callable()
+                    {
+                        public Object call()
+                        {
+                            return compareChunk(chunk, from, to);
+                        }
+                    }));
+                }
+                List differences = new ArrayList();
+                for(int ii = 0; ii < chunks && differences.size() < maxDifferences; ii++)
+                {
+                    differences.addAll((List)((Future)futures.get(ii)).get());
+                }
+                return truncate(differences);
+            }
+            catch(InterruptedException exc)
+            {
+                Thread.currentThread().interrupt();
+                throw new NestedApplicationException(exc);
+            }
+            catch(ExecutionException exc)
+            {
+                throw new NestedApplicationException(exc.getCause());
+            }
+            finally
+            {
+                for(int ii = 0; ii < futures.size(); ii++)
+                {
+                    ((Future)futures.get(ii)).cancel(false);
+                }
+            }
+        }
+        
+        private static synchronized ExecutorService getExecutor()
+        {
+            if(null == executor)
+            {
+                executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "MockResultSet-diff");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return executor;
+        }
+        
+        private List compareChunks(int chunks, int rowCount)
+        {
+            List differences = new ArrayList();
+            for(int ii = 0; ii < chunks && differences.size() < maxDifferences; ii++)
+            {
+                int from = ii * CHUNK_SIZE;
+                differences.addAll(compareChunk(ii, from, Math.min(rowCount, from + CHUNK_SIZE)));
+            }
+            return truncate(differences);
+        }
+        
+        private List compareChunk(int chunk, int from, int to)
+        {
+            List differences = new ArrayList();
+            for(int ii = from; ii < to; ii++)
+            {
+                if(chunk > lastNeededChunk.get()) break;
+                for(int kk = 0; kk < columnNames.length; kk++)
+                {
+                    if(ii >= thisLists[kk].size() || ii >= otherLists[kk].size()) continue;
+                    Object source = thisLists[kk].get(ii);
+                    Object target = otherLists[kk].get(ii);
+                    if(!isValueEqual(source, target))
+                    {
+                        differences.add(new ResultSetDifference(ii + 1, columnNames[kk], source, target));
+                        if(differences.size() >= maxDifferences)
+                        {
+                            markLastNeededChunk(chunk);
+                            return differences;
+                        }
+                    }
+                }
+            }
+            return differences;
+        }
+        
+        private void markLastNeededChunk(int chunk)
+        {
+            int current = lastNeededChunk.get();
+            while(chunk < current && !lastNeededChunk.compareAndSet(current, chunk))
+            {
+                current = lastNeededChunk.get();
+            }
+        }
+        
+        private List truncate(List differences)
+        {
+            if(differences.size() <= maxDifferences) return differences;
+            return new ArrayList(differences.subList(0, maxDifferences));
+        }
+    }
 }
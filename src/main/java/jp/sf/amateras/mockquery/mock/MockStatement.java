@@ -8,10 +8,15 @@ import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import jp.sf.amateras.mockquery.NestedApplicationException;
 import jp.sf.amateras.mockquery.AbstractResultSetHandler;
-import jp.sf.amateras.mockquery.util.SQLUtil;
+import jp.sf.amateras.mockquery.JDBCEvent;
+import jp.sf.amateras.mockquery.JDBCEventDispatcher;
+import jp.sf.amateras.mockquery.SQLMetrics;
+import jp.sf.amateras.mockquery.SQLMetricsRegistry;
+import jp.sf.amateras.mockquery.StatementResolution;
 import jp.sf.amateras.mockquery.util.ArrayUtil;
 
 /**
@@ -37,6 +42,7 @@ public class MockStatement implements Statement
     private MockResultSet lastGeneratedKeys = null;
     private boolean closed = false;
     private boolean poolable = false;
+    private int updateEventType = JDBCEvent.UPDATE;
     private Connection connection;
     
     public MockStatement(Connection connection)
@@ -87,6 +93,11 @@ public class MockStatement implements Statement
         this.resultSetHandler = resultSetHandler;
     }
     
+    protected AbstractResultSetHandler getResultSetHandler()
+    {
+        return resultSetHandler;
+    }
+    
     protected void setResultSets(ResultSet[] resultSets)
     {
         closeCurrentResultSets();
@@ -112,20 +123,37 @@ public class MockStatement implements Statement
     
     public ResultSet executeQuery(String sql) throws SQLException
     {
-        SQLException exception = resultSetHandler.getSQLException(sql);
+        long startTime = System.nanoTime();
+        StatementResolution resolution = resultSetHandler.resolveStatement(sql);
+        try
+        {
+            ResultSet resultSet = executeQuery(resolution);
+            finishExecution(JDBCEvent.QUERY, sql, null, resolution, resultSet, -1, null, startTime);
+            return resultSet;
+        }
+        catch(SQLException exc)
+        {
+            finishExecution(JDBCEvent.QUERY, sql, null, resolution, null, -1, exc, startTime);
+            throw exc;
+        }
+    }
+    
+    protected ResultSet executeQuery(StatementResolution resolution) throws SQLException
+    {
+        SQLException exception = resolution.getSQLException();
         if(null != exception)
         {
             throw exception;
         }
-        resultSetHandler.addExecutedStatement(sql);
-        if(resultSetHandler.hasMultipleResultSets(sql))
+        resultSetHandler.addExecutedStatement(resolution.getSQL());
+        if(resolution.hasMultipleResultSets())
         {
-            MockResultSet[] results = resultSetHandler.getResultSets(sql);
+            MockResultSet[] results = resolution.getResultSets();
             if(null != results) return cloneAndSetMultipleResultSets(results);
         }
         else
         {
-            MockResultSet result = resultSetHandler.getResultSet(sql);
+            MockResultSet result = resolution.getResultSet();
             if(null != result) return cloneAndSetSingleResultSet(result);
         }
         if(resultSetHandler.hasMultipleGlobalResultSets())
@@ -186,15 +214,33 @@ public class MockStatement implements Statement
 
     public int executeUpdate(String sql) throws SQLException
     {
-        SQLException exception = resultSetHandler.getSQLException(sql);
+        long startTime = System.nanoTime();
+        StatementResolution resolution = resultSetHandler.resolveStatement(sql);
+        int eventType = getUpdateEventType();
+        try
+        {
+            int updateCount = executeUpdate(resolution);
+            finishExecution(eventType, sql, null, resolution, null, updateCount, null, startTime);
+            return updateCount;
+        }
+        catch(SQLException exc)
+        {
+            finishExecution(eventType, sql, null, resolution, null, -1, exc, startTime);
+            throw exc;
+        }
+    }
+    
+    protected int executeUpdate(StatementResolution resolution) throws SQLException
+    {
+        SQLException exception = resolution.getSQLException();
         if(null != exception)
         {
             throw exception;
         }
-        resultSetHandler.addExecutedStatement(sql);
-        if(resultSetHandler.hasMultipleUpdateCounts(sql))
+        resultSetHandler.addExecutedStatement(resolution.getSQL());
+        if(resolution.hasMultipleUpdateCounts())
         {
-            Integer[] returnValues = resultSetHandler.getUpdateCounts(sql);
+            Integer[] returnValues = resolution.getUpdateCounts();
             if(null != returnValues)
             {
                 return setMultipleUpdateCounts((int[])ArrayUtil.convertToPrimitiveArray(returnValues));
@@ -202,7 +248,7 @@ public class MockStatement implements Statement
         }
         else
         {
-            Integer returnValue = resultSetHandler.getUpdateCount(sql);
+            Integer returnValue = resolution.getUpdateCount();
             if(null != returnValue)
             {
                 return setSingleUpdateCount(returnValue.intValue());
@@ -235,7 +281,7 @@ public class MockStatement implements Statement
     
     public boolean execute(String sql) throws SQLException
     {
-        boolean callExecuteQuery = isQuery(sql);
+        boolean callExecuteQuery = isQuery(resultSetHandler.resolveStatement(sql));
         if(callExecuteQuery)
         {
             executeQuery(sql);
@@ -254,7 +300,7 @@ public class MockStatement implements Statement
         for(int ii = 0; ii < results.length; ii++)
         {
             String nextSQL = (String)batches.get(ii);
-            if(isQuery(nextSQL))
+            if(isQuery(resultSetHandler.resolveStatement(nextSQL)))
             {
                 exception = prepareFailedResult(results, ii, "SQL " + batches.get(ii) + " in the list of batches returned a ResultSet.", null);
             }
@@ -262,12 +308,17 @@ public class MockStatement implements Statement
             {
                 try
                 {
+                    setUpdateEventType(JDBCEvent.BATCH);
                     results[ii] = executeUpdate(nextSQL);
                 } 
                 catch(SQLException exc)
                 {
                     exception = prepareFailedResult(results, ii, null, exc);
                 }
+                finally
+                {
+                    setUpdateEventType(JDBCEvent.UPDATE);
+                }
             }
             if(null != exception && !resultSetHandler.getContinueProcessingOnBatchFailure())
             {
@@ -281,6 +332,73 @@ public class MockStatement implements Statement
         return results;
     }
     
+    protected JDBCEventDispatcher getEventDispatcher()
+    {
+        if(!(connection instanceof MockConnection)) return null;
+        JDBCEventDispatcher dispatcher = ((MockConnection)connection).getEventDispatcher();
+        if(null == dispatcher || !dispatcher.hasListeners()) return null;
+        return dispatcher;
+    }
+    
+    protected SQLMetricsRegistry getSQLMetricsRegistry()
+    {
+        if(!(connection instanceof MockConnection)) return null;
+        SQLMetricsRegistry registry = ((MockConnection)connection).getSQLMetricsRegistry();
+        if(null == registry || !registry.isEnabled()) return null;
+        return registry;
+    }
+    
+    protected int getUpdateEventType()
+    {
+        return updateEventType;
+    }
+    
+    protected void setUpdateEventType(int updateEventType)
+    {
+        this.updateEventType = updateEventType;
+    }
+    
+    protected int getEventStatementType()
+    {
+        return JDBCEvent.STATEMENT;
+    }
+    
+    protected void finishExecution(int eventType, String sql, Map parameters, StatementResolution resolution, ResultSet resultSet, int rowCount, SQLException exception, long startTime)
+    {
+        SQLMetricsRegistry registry = getSQLMetricsRegistry();
+        JDBCEventDispatcher dispatcher = getEventDispatcher();
+        if(null == registry && null == dispatcher) return;
+        long endTime = System.nanoTime();
+        if(null != registry)
+        {
+            SQLMetrics metrics = registry.getMetrics(sql);
+            int rowsReturned = -1;
+            if(resultSet instanceof MockResultSet)
+            {
+                rowsReturned = ((MockResultSet)resultSet).getTotalRowCount();
+                ((MockResultSet)resultSet).setSQLMetrics(metrics);
+            }
+            metrics.recordExecution(endTime - startTime, rowsReturned, rowCount, null != exception);
+        }
+        if(null == dispatcher) return;
+        String fixtureKey = null;
+        if(null != exception)
+        {
+            fixtureKey = resolution.getSQLExceptionKey();
+        }
+        if(null == fixtureKey)
+        {
+            fixtureKey = (JDBCEvent.QUERY == eventType) ? resolution.getResultSetKey() : resolution.getUpdateCountKey();
+        }
+        String resultSetId = null;
+        if(resultSet instanceof MockResultSet)
+        {
+            resultSetId = ((MockResultSet)resultSet).getId();
+            rowCount = ((MockResultSet)resultSet).getTotalRowCount();
+        }
+        dispatcher.fireEvent(new JDBCEvent(eventType, getEventStatementType(), sql, parameters, fixtureKey, resultSetId, rowCount, exception, startTime, endTime));
+    }
+    
     protected SQLException prepareFailedResult(int[] actualResults, int index, String message, SQLException caughtException)
     {
         actualResults[index] = -3;
@@ -359,14 +477,24 @@ public class MockStatement implements Statement
 
     protected MockResultSet determineGeneratedKeysResultSet(String sql)
     {
-        MockResultSet generatedKeys = resultSetHandler.getGeneratedKeys(sql);
+        return determineGeneratedKeysResultSet(resultSetHandler.resolveStatement(sql));
+    }
+    
+    protected MockResultSet determineGeneratedKeysResultSet(StatementResolution resolution)
+    {
+        MockResultSet generatedKeys = resolution.getGeneratedKeys();
         if(null != generatedKeys) return generatedKeys;
         return resultSetHandler.getGlobalGeneratedKeys();
     }
 
     public void close() throws SQLException
     {
+        if(closed) return;
         closed = true;
+        if(null != resultSetHandler)
+        {
+            resultSetHandler.statementClosed(this);
+        }
     }
 
     public int getMaxFieldSize() throws SQLException
@@ -426,17 +554,12 @@ public class MockStatement implements Statement
 
     protected boolean isQuery(String sql)
     {
-        boolean isQuery;
-        Boolean returnsResultSet = resultSetHandler.getReturnsResultSet(sql);
-        if(null != returnsResultSet)
-        {
-            isQuery = returnsResultSet.booleanValue();
-        }
-        else
-        {
-            isQuery = SQLUtil.isSelect(sql);
-        }
-        return isQuery;
+        return isQuery(resultSetHandler.resolveStatement(sql));
+    }
+    
+    protected boolean isQuery(StatementResolution resolution)
+    {
+        return resolution.isQuery();
     }
 
     public ResultSet getResultSet() throws SQLException
@@ -573,6 +696,7 @@ public class MockStatement implements Statement
         if(null == resultSet) return null;
         MockResultSet clone = (MockResultSet)resultSet.clone();
         clone.setStatement(this);
+        setFetchSimulation(clone);
         return clone;
     }
     
@@ -586,11 +710,18 @@ public class MockStatement implements Statement
             {
                 clonedResultsSets[ii] = (MockResultSet)resultSets[ii].clone();
                 clonedResultsSets[ii].setStatement(this);
+                setFetchSimulation(clonedResultsSets[ii]);
             }
         }
         return clonedResultsSets;
     }
 
+    private void setFetchSimulation(MockResultSet resultSet)
+    {
+        if(null == resultSetHandler || null != resultSet.getFetchSimulation()) return;
+        resultSet.setFetchSimulation(resultSetHandler.getFetchSimulation());
+    }
+
 	public void closeOnCompletion() throws SQLException {
 		// TODO Auto-generated method stub
 		
@@ -0,0 +1,262 @@
+package jp.sf.amateras.mockquery.mock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Forward-only {@link MockResultSet} that does not hold all rows in
+ * memory. The rows are pulled from an <code>Iterator</code> when the
+ * cursor is moved with {@link #next}. Each row is an <code>Object[]</code>
+ * or a <code>List</code> of the column values.
+ * <p>
+ * The <code>ResultSet</code> buffers at most as many rows as the fetch size
+ * (or {@link #DEFAULT_FETCH_SIZE} rows, if no fetch size is set). The methods
+ * inherited from <code>MockResultSet</code> that work on all rows, e.g.
+ * {@link #getRowCount}, {@link #getColumn(String)} or {@link #isEqual},
+ * only see the buffered rows. {@link #getTotalRowCount} returns the number
+ * of rows of the source, if it is known. The maximum number of rows can be
+ * set with {@link #setMaxRows}. It is also taken from the <code>Statement</code>.
+ * <p>
+ * If the rows are provided by an <code>Iterable</code>, each copy of this
+ * <code>ResultSet</code> (i.e. each execution of a statement) gets its own
+ * <code>Iterator</code>. If the rows are provided by an <code>Iterator</code>,
+ * all copies share it, so the rows can only be read once. An
+ * <code>Iterator</code> that implements <code>Closeable</code> is closed,
+ * when the <code>ResultSet</code> is closed.
+ * <p>
+ * The <code>ResultSet</code> is always <code>TYPE_FORWARD_ONLY</code> and
+ * <code>CONCUR_READ_ONLY</code>.
+ */
+public class MockStreamingResultSet extends MockResultSet
+{
+    public final static int DEFAULT_FETCH_SIZE = 100;
+
+    private Iterable rowSource;
+    private Iterator rows;
+    private int maxRows;
+    private int rowOffset;
+    private int rowsRead;
+    private int totalRowCount;
+    private boolean exhausted;
+
+    public MockStreamingResultSet(String id, String[] columnNames, Iterable rows)
+    {
+        this(id, columnNames);
+        rowSource = rows;
+    }
+
+    public MockStreamingResultSet(String id, String[] columnNames, Iterator rows)
+    {
+        this(id, columnNames);
+        this.rows = rows;
+    }
+
+    private MockStreamingResultSet(String id, String[] columnNames)
+    {
+        super(id);
+        for(int ii = 0; ii < columnNames.length; ii++)
+        {
+            addColumn(columnNames[ii]);
+        }
+        setResultSetType(ResultSet.TYPE_FORWARD_ONLY);
+        setResultSetConcurrency(ResultSet.CONCUR_READ_ONLY);
+        maxRows = 0;
+        rowOffset = 0;
+        rowsRead = 0;
+        totalRowCount = -1;
+        exhausted = false;
+    }
+
+    /**
+     * Returns a copy of this <code>ResultSet</code>. If the rows are
+     * provided by an <code>Iterable</code>, the copy starts with the first
+     * row. Otherwise it continues with the next row of the shared
+     * <code>Iterator</code>.
+     * @return a copy of this <code>ResultSet</code>
+     */
+    public Object clone()
+    {
+        MockStreamingResultSet copy = (MockStreamingResultSet)super.clone();
+        if(null != rowSource)
+        {
+            copy.rows = null;
+        }
+        copy.rowOffset = 0;
+        copy.rowsRead = 0;
+        copy.totalRowCount = -1;
+        copy.exhausted = false;
+        copy.replaceRows(Collections.EMPTY_LIST);
+        return copy;
+    }
+
+    /**
+     * Sets the maximum number of rows. <code>0</code>, which is the
+     * default, means that there is no limit.
+     * @param maxRows the maximum number of rows
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Returns the maximum number of rows.
+     * @return the maximum number of rows, <code>0</code> if there is no limit
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * Sets the <code>Statement</code> for this <code>ResultSet</code>.
+     * In addition to the attributes that are taken by
+     * {@link MockResultSet#setStatement}, the maximum number of rows is
+     * taken from the <code>Statement</code>. The <code>ResultSet</code>
+     * stays <code>TYPE_FORWARD_ONLY</code> and <code>CONCUR_READ_ONLY</code>.
+     * @param statement the statement
+     */
+    public void setStatement(Statement statement)
+    {
+        super.setStatement(statement);
+        setResultSetType(ResultSet.TYPE_FORWARD_ONLY);
+        setResultSetConcurrency(ResultSet.CONCUR_READ_ONLY);
+        try
+        {
+            maxRows = statement.getMaxRows();
+        }
+        catch(SQLException exc)
+        {
+
+        }
+    }
+
+    /**
+     * Returns the total number of rows, not only the buffered rows.
+     * The total is known, if the rows are provided by a
+     * <code>Collection</code> or if all rows have been read. It is
+     * limited by the maximum number of rows.
+     * @return the total number of rows, <code>-1</code> if it is unknown
+     */
+    public int getTotalRowCount()
+    {
+        if(totalRowCount >= 0) return totalRowCount;
+        if(rowSource instanceof Collection)
+        {
+            int size = ((Collection)rowSource).size();
+            return (maxRows > 0) ? Math.min(size, maxRows) : size;
+        }
+        return -1;
+    }
+
+    public boolean next() throws SQLException
+    {
+        if(super.next()) return true;
+        if(!fetchRows()) return false;
+        return super.next();
+    }
+
+    public int getRow() throws SQLException
+    {
+        return rowOffset + super.getRow();
+    }
+
+    public boolean isBeforeFirst() throws SQLException
+    {
+        if(0 == rowsRead && !exhausted)
+        {
+            return hasMoreRows();
+        }
+        return super.isBeforeFirst();
+    }
+
+    public boolean isFirst() throws SQLException
+    {
+        return (0 == rowOffset) && super.isFirst();
+    }
+
+    public boolean isLast() throws SQLException
+    {
+        return super.isLast() && !hasMoreRows();
+    }
+
+    public void close() throws SQLException
+    {
+        super.close();
+        replaceRows(Collections.EMPTY_LIST);
+        exhausted = true;
+        if(rows instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable)rows).close();
+            }
+            catch(IOException exc)
+            {
+                throw new SQLException(exc.getMessage());
+            }
+        }
+    }
+
+    private Iterator getRows()
+    {
+        if(null == rows)
+        {
+            rows = rowSource.iterator();
+        }
+        return rows;
+    }
+
+    private boolean hasMoreRows()
+    {
+        if(exhausted) return false;
+        if(maxRows > 0 && rowsRead >= maxRows) return false;
+        return getRows().hasNext();
+    }
+
+    private boolean fetchRows() throws SQLException
+    {
+        if(exhausted) return false;
+        int limit = getFetchSize();
+        if(limit <= 0) limit = DEFAULT_FETCH_SIZE;
+        if(maxRows > 0) limit = Math.min(limit, maxRows - rowsRead);
+        Iterator iterator = getRows();
+        List nextRows = new ArrayList(Math.max(limit, 0));
+        while(nextRows.size() < limit && iterator.hasNext())
+        {
+            nextRows.add(toList(iterator.next()));
+        }
+        if(nextRows.isEmpty())
+        {
+            totalRowCount = rowsRead;
+            exhausted = true;
+            return false;
+        }
+        rowOffset += getRowCount();
+        rowsRead += nextRows.size();
+        replaceRows(nextRows);
+        return true;
+    }
+
+    private List toList(Object row)
+    {
+        if(row instanceof Object[])
+        {
+            return Arrays.asList((Object[])row);
+        }
+        if(row instanceof List)
+        {
+            return (List)row;
+        }
+        return Collections.singletonList(row);
+    }
+}
@@ -0,0 +1,88 @@
+package jp.sf.amateras.mockquery.mock;
+
+/**
+ * A difference between two {@link MockResultSet} objects, as returned
+ * by {@link MockResultSet#diff}. A difference is either a cell with
+ * different values or a column that is missing or has a different
+ * number of rows in the target <code>ResultSet</code>. The row number
+ * of a column difference is <code>0</code>.
+ */
+public class ResultSetDifference
+{
+    private int row;
+    private String columnName;
+    private Object sourceValue;
+    private Object targetValue;
+    private String message;
+
+    public ResultSetDifference(int row, String columnName, Object sourceValue, Object targetValue)
+    {
+        this.row = row;
+        this.columnName = columnName;
+        this.sourceValue = sourceValue;
+        this.targetValue = targetValue;
+    }
+
+    public ResultSetDifference(String columnName, String message)
+    {
+        this.row = 0;
+        this.columnName = columnName;
+        this.message = message;
+    }
+
+    /**
+     * Returns the number of the row. The first row has the number 1.
+     * @return the row number, <code>0</code> for a column difference
+     */
+    public int getRow()
+    {
+        return row;
+    }
+
+    /**
+     * Returns the name of the column.
+     * @return the column name
+     */
+    public String getColumnName()
+    {
+        return columnName;
+    }
+
+    /**
+     * Returns the value of the source <code>ResultSet</code>.
+     * @return the source value
+     */
+    public Object getSourceValue()
+    {
+        return sourceValue;
+    }
+
+    /**
+     * Returns the value of the target <code>ResultSet</code>.
+     * @return the target value
+     */
+    public Object getTargetValue()
+    {
+        return targetValue;
+    }
+
+    /**
+     * Returns if this is a column difference.
+     * @return <code>true</code> if the column is missing or has a
+     *         different number of rows, <code>false</code> if
+     *         this is a cell difference
+     */
+    public boolean isColumnDifference()
+    {
+        return null != message;
+    }
+
+    public String toString()
+    {
+        if(isColumnDifference())
+        {
+            return "Column " + columnName + ": " + message;
+        }
+        return "Row " + row + ", column " + columnName + ": " + sourceValue + " != " + targetValue;
+    }
+}
@@ -0,0 +1,170 @@
+package jp.sf.amateras.mockquery.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds with a
+ * log-linear bucket layout, like <i>HdrHistogram</i>. Values below
+ * {@link #SUB_BUCKET_COUNT} have their own bucket. Above, each power
+ * of two is split into <code>SUB_BUCKET_COUNT / 2</code> buckets, so
+ * the relative error of a recorded value is less than 1/32, regardless
+ * of its magnitude. The histogram covers all positive <code>long</code>
+ * values with a fixed number of buckets. Recording a value does not
+ * allocate and does not lock.
+ */
+public class LatencyHistogram
+{
+    public final static int SUB_BUCKET_BITS = 6;
+    public final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final static int HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private final static int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records a value. Negative values are recorded as <code>0</code>.
+     * @param value the value in nanoseconds
+     */
+    public void record(long value)
+    {
+        if(value < 0) value = 0;
+        counts.incrementAndGet(getIndex(value));
+        count.increment();
+        sum.add(value);
+        long current = min.get();
+        while(value < current && !min.compareAndSet(current, value))
+        {
+            current = min.get();
+        }
+        current = max.get();
+        while(value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the number of values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     * @return the sum in nanoseconds
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     * @return the smallest value, <code>0</code> if no value was recorded
+     */
+    public long getMin()
+    {
+        long current = min.get();
+        return (Long.MAX_VALUE == current) ? 0 : current;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return the largest value, <code>0</code> if no value was recorded
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return the mean, <code>0</code> if no value was recorded
+     */
+    public double getMean()
+    {
+        long currentCount = getCount();
+        if(currentCount == 0) return 0;
+        return (double)getSum() / currentCount;
+    }
+
+    /**
+     * Returns the value at the specified percentile, i.e. the
+     * highest value of the bucket that contains the percentile.
+     * The value is never larger than the largest recorded value.
+     * @param percentile the percentile between <code>0</code> and <code>100</code>
+     * @return the value, <code>0</code> if no value was recorded
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for(int ii = 0; ii < BUCKET_COUNT; ii++)
+        {
+            snapshot[ii] = counts.get(ii);
+            total += snapshot[ii];
+        }
+        if(total == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long cumulative = 0;
+        for(int ii = 0; ii < BUCKET_COUNT; ii++)
+        {
+            cumulative += snapshot[ii];
+            if(cumulative >= rank)
+            {
+                return Math.min(getHighestValue(ii), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset()
+    {
+        for(int ii = 0; ii < BUCKET_COUNT; ii++)
+        {
+            counts.set(ii, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    public String toString()
+    {
+        return "LatencyHistogram: count=" + getCount() + ", min=" + getMin() + ", max=" + getMax() + ", mean=" + getMean();
+    }
+
+    private static int getIndex(long value)
+    {
+        if(value < SUB_BUCKET_COUNT) return (int)value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (subBucket - HALF_COUNT);
+    }
+
+    private static long getHighestValue(int index)
+    {
+        if(index < SUB_BUCKET_COUNT) return index;
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
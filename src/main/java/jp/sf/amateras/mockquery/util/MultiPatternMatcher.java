@@ -0,0 +1,242 @@
+package jp.sf.amateras.mockquery.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton for a fixed set of strings.
+ * The automaton finds all strings that are contained in a text
+ * with one pass over the text, i.e. the search time depends
+ * on the length of the text and the number of matches, but not
+ * on the number of strings. It can also find all strings that are
+ * a prefix of a text by walking the underlying trie.
+ * Strings are compared char by char. Callers that need case
+ * insensitive matching have to fold the strings and the text
+ * before.
+ * The patterns are identified by their index in the array
+ * that was passed to the constructor. Instances are immutable
+ * and thread-safe.
+ */
+public class MultiPatternMatcher
+{
+    private final static int[] EMPTY = new int[0];
+
+    private final int patternCount;
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final int[] dictionaryLink;
+    private final int[][] outputs;
+
+    public MultiPatternMatcher(String[] patterns)
+    {
+        patternCount = patterns.length;
+        List nodes = new ArrayList();
+        nodes.add(new Node());
+        for(int ii = 0; ii < patterns.length; ii++)
+        {
+            int state = 0;
+            String pattern = patterns[ii];
+            for(int kk = 0; kk < pattern.length(); kk++)
+            {
+                Node node = (Node)nodes.get(state);
+                Character nextChar = new Character(pattern.charAt(kk));
+                Integer target = (Integer)node.children.get(nextChar);
+                if(null == target)
+                {
+                    target = new Integer(nodes.size());
+                    node.children.put(nextChar, target);
+                    nodes.add(new Node());
+                }
+                state = target.intValue();
+            }
+            ((Node)nodes.get(state)).outputs.add(new Integer(ii));
+        }
+        int size = nodes.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        outputs = new int[size][];
+        failure = new int[size];
+        dictionaryLink = new int[size];
+        for(int ii = 0; ii < size; ii++)
+        {
+            Node node = (Node)nodes.get(ii);
+            edgeChars[ii] = new char[node.children.size()];
+            edgeTargets[ii] = new int[node.children.size()];
+            Iterator iterator = node.children.entrySet().iterator();
+            int index = 0;
+            while(iterator.hasNext())
+            {
+                Map.Entry entry = (Map.Entry)iterator.next();
+                edgeChars[ii][index] = ((Character)entry.getKey()).charValue();
+                edgeTargets[ii][index] = ((Integer)entry.getValue()).intValue();
+                index++;
+            }
+            outputs[ii] = toIntArray(node.outputs);
+        }
+        computeLinks();
+    }
+
+    /**
+     * Returns the number of strings this automaton was built for.
+     * @return the number of strings
+     */
+    public int getPatternCount()
+    {
+        return patternCount;
+    }
+
+    /**
+     * Returns the indices of all strings that are contained in the
+     * specified text. The indices are sorted in ascending order and
+     * each index is contained only once. An empty string is contained
+     * in every text.
+     * @param text the text
+     * @return the indices of the contained strings
+     */
+    public int[] findContained(String text)
+    {
+        IntList result = new IntList();
+        result.addAll(outputs[0]);
+        int state = 0;
+        for(int ii = 0; ii < text.length(); ii++)
+        {
+            char nextChar = text.charAt(ii);
+            int target = getTarget(state, nextChar);
+            while(target < 0 && state != 0)
+            {
+                state = failure[state];
+                target = getTarget(state, nextChar);
+            }
+            state = (target < 0) ? 0 : target;
+            int current = (outputs[state].length > 0) ? state : dictionaryLink[state];
+            while(current > 0)
+            {
+                result.addAll(outputs[current]);
+                current = dictionaryLink[current];
+            }
+        }
+        return result.toSortedUniqueArray();
+    }
+
+    /**
+     * Returns the indices of all strings that are a prefix of the
+     * specified text. The indices are sorted in ascending order.
+     * An empty string is a prefix of every text.
+     * @param text the text
+     * @return the indices of the prefix strings
+     */
+    public int[] findPrefixes(String text)
+    {
+        IntList result = new IntList();
+        result.addAll(outputs[0]);
+        int state = 0;
+        for(int ii = 0; ii < text.length(); ii++)
+        {
+            state = getTarget(state, text.charAt(ii));
+            if(state < 0) break;
+            result.addAll(outputs[state]);
+        }
+        return result.toSortedUniqueArray();
+    }
+
+    private int getTarget(int state, char nextChar)
+    {
+        int index = Arrays.binarySearch(edgeChars[state], nextChar);
+        if(index < 0) return -1;
+        return edgeTargets[state][index];
+    }
+
+    private void computeLinks()
+    {
+        int[] queue = new int[failure.length];
+        int head = 0;
+        int tail = 0;
+        failure[0] = 0;
+        dictionaryLink[0] = 0;
+        for(int ii = 0; ii < edgeTargets[0].length; ii++)
+        {
+            int child = edgeTargets[0][ii];
+            failure[child] = 0;
+            dictionaryLink[child] = 0;
+            queue[tail++] = child;
+        }
+        while(head < tail)
+        {
+            int state = queue[head++];
+            for(int ii = 0; ii < edgeTargets[state].length; ii++)
+            {
+                char nextChar = edgeChars[state][ii];
+                int child = edgeTargets[state][ii];
+                int fallback = failure[state];
+                int target = getTarget(fallback, nextChar);
+                while(target < 0 && fallback != 0)
+                {
+                    fallback = failure[fallback];
+                    target = getTarget(fallback, nextChar);
+                }
+                failure[child] = (target < 0) ? 0 : target;
+                int suffix = failure[child];
+                dictionaryLink[child] = (outputs[suffix].length > 0) ? suffix : dictionaryLink[suffix];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private static int[] toIntArray(List list)
+    {
+        if(list.isEmpty()) return EMPTY;
+        int[] array = new int[list.size()];
+        for(int ii = 0; ii < array.length; ii++)
+        {
+            array[ii] = ((Integer)list.get(ii)).intValue();
+        }
+        return array;
+    }
+
+    private static class Node
+    {
+        private Map children = new TreeMap();
+        private List outputs = new ArrayList();
+    }
+
+    private static class IntList
+    {
+        private int[] values = EMPTY;
+        private int size = 0;
+
+        public void addAll(int[] other)
+        {
+            if(other.length == 0) return;
+            if(size + other.length > values.length)
+            {
+                int[] newValues = new int[Math.max(size + other.length, values.length * 2 + 4)];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            System.arraycopy(other, 0, values, size, other.length);
+            size += other.length;
+        }
+
+        public int[] toSortedUniqueArray()
+        {
+            if(size == 0) return EMPTY;
+            Arrays.sort(values, 0, size);
+            int uniqueSize = 1;
+            for(int ii = 1; ii < size; ii++)
+            {
+                if(values[ii] != values[uniqueSize - 1])
+                {
+                    values[uniqueSize++] = values[ii];
+                }
+            }
+            int[] result = new int[uniqueSize];
+            System.arraycopy(values, 0, result, 0, uniqueSize);
+            return result;
+        }
+    }
+}
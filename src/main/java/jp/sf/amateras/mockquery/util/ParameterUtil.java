@@ -1,7 +1,16 @@
 package jp.sf.amateras.mockquery.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
 
 import jp.sf.amateras.mockquery.mock.MockResultSet;
 
@@ -91,5 +100,112 @@ public class ParameterUtil
         }
         return source.equals(target);
     }
+    
+    /**
+     * Returns if {@link #computeHashCode} can be used for the specified
+     * parameter. This is the case for <code>null</code>, strings, the
+     * wrapper types of the primitives, <code>BigDecimal</code>, 
+     * <code>BigInteger</code>, dates, arrays of these types and the in-memory
+     * streams and readers, i.e. <code>ByteArrayInputStream</code>,
+     * <code>StringReader</code> and <code>CharArrayReader</code>, that
+     * are not closed. Other streams and readers may fail while they are
+     * read, and other objects may not provide a hash code that is consistent
+     * with {@link #compareParameter}, so they must be compared linearly.
+     * @param parameter the parameter
+     * @return <code>true</code> if a hash code can be computed,
+     *         <code>false</code> otherwise
+     */
+    public static boolean isHashable(Object parameter)
+    {
+        if(isHashableValue(parameter)) return true;
+        if(parameter.getClass().isArray())
+        {
+            if(parameter.getClass().getComponentType().isPrimitive()) return true;
+            int length = Array.getLength(parameter);
+            for(int ii = 0; ii < length; ii++)
+            {
+                if(!isHashableValue(Array.get(parameter, ii))) return false;
+            }
+            return true;
+        }
+        if(parameter instanceof ByteArrayInputStream)
+        {
+            return true;
+        }
+        if((parameter instanceof StringReader) || (parameter instanceof CharArrayReader))
+        {
+            try
+            {
+                ((Reader)parameter).ready();
+                return true;
+            }
+            catch(IOException exc)
+            {
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Computes a hash code for a parameter of a <code>PreparedStatement</code>
+     * or <code>CallableStatement</code>, that is consistent with 
+     * {@link #compareParameter}, i.e. parameters that are equal according
+     * to {@link #compareParameter} have the same hash code. Arrays are
+     * hashed with {@link ArrayUtil#computeHashCode}, streams and readers
+     * are hashed by their content and will be reset afterwards.
+     * The result is only meaningful for parameters that are accepted
+     * by {@link #isHashable}. For streams and readers that fail while
+     * they are read, <code>0</code> is returned.
+     * @param parameter the parameter
+     * @return the hash code
+     */
+    public static int computeHashCode(Object parameter)
+    {
+        if(null == parameter) return 0;
+        if(parameter.getClass().isArray())
+        {
+            return ArrayUtil.computeHashCode(parameter);
+        }
+        try
+        {
+            if(parameter instanceof InputStream)
+            {
+                InputStream stream = (InputStream)parameter;
+                stream.mark(Integer.MAX_VALUE);
+                byte[] data = StreamUtil.getStreamAsByteArray(stream);
+                stream.reset();
+                return Arrays.hashCode(data);
+            }
+            if(parameter instanceof Reader)
+            {
+                Reader reader = (Reader)parameter;
+                reader.mark(Integer.MAX_VALUE);
+                String data = StreamUtil.getReaderAsString(reader);
+                reader.reset();
+                return data.hashCode();
+            }
+        }
+        catch(IOException exc)
+        {
+            return 0;
+        }
+        return parameter.hashCode();
+    }
+    
+    private static boolean isHashableValue(Object parameter)
+    {
+        if(null == parameter) return true;
+        return (parameter instanceof String) || (parameter instanceof Integer) || (parameter instanceof Long) ||
+               (parameter instanceof Short) || (parameter instanceof Byte) || (parameter instanceof Boolean) ||
+               (parameter instanceof Character) || (parameter instanceof Double) || (parameter instanceof Float) ||
+               (parameter instanceof BigDecimal) || (parameter instanceof BigInteger) || isDate(parameter);
+    }
+    
+    private static boolean isDate(Object parameter)
+    {
+        Class type = parameter.getClass();
+        return type.equals(Date.class) || type.equals(java.sql.Date.class) || 
+               type.equals(java.sql.Time.class) || type.equals(java.sql.Timestamp.class);
+    }
 }
-
@@ -0,0 +1,178 @@
+package jp.sf.amateras.mockquery.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded, thread-safe cache of compiled regular expressions.
+ * Patterns are compiled with <code>Pattern.DOTALL</code> and, for
+ * case insensitive lookups, with <code>Pattern.CASE_INSENSITIVE</code>
+ * and <code>Pattern.UNICODE_CASE</code>, so neither the pattern nor the
+ * matched string has to be lowercased. If the cache is full, the least
+ * recently used pattern is discarded.
+ * The cache counts hits and misses, which can be used to check if
+ * the cache size fits the number of prepared statements.
+ * {@link #getDefault} returns the cache that is shared by
+ * the <code>SQLStatementMatcher</code> instances and
+ * {@link StringUtil#matchesRegex}.
+ */
+public class PatternCache
+{
+    public final static int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final static PatternCache defaultCache = new PatternCache();
+
+    private final int maximumSize;
+    private final Map caseSensitivePatterns;
+    private final Map caseInsensitivePatterns;
+    private long hits;
+    private long misses;
+
+    public PatternCache()
+    {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public PatternCache(int maximumSize)
+    {
+        if(maximumSize <= 0)
+        {
+            throw new IllegalArgumentException("maximumSize must be greater than 0");
+        }
+        this.maximumSize = maximumSize;
+        caseSensitivePatterns = new LRUMap(maximumSize);
+        caseInsensitivePatterns = new LRUMap(maximumSize);
+    }
+
+    /**
+     * Returns the shared cache.
+     * @return the shared <code>PatternCache</code>
+     */
+    public static PatternCache getDefault()
+    {
+        return defaultCache;
+    }
+
+    /**
+     * Returns the compiled pattern for the specified regular expression.
+     * The pattern is compiled, if it is not already cached.
+     * @param regex the regular expression
+     * @param caseSensitive is the pattern case sensitive
+     * @return the compiled <code>Pattern</code>
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public Pattern getPattern(String regex, boolean caseSensitive)
+    {
+        Map patterns = caseSensitive ? caseSensitivePatterns : caseInsensitivePatterns;
+        synchronized(this)
+        {
+            Pattern pattern = (Pattern)patterns.get(regex);
+            if(null != pattern)
+            {
+                hits++;
+                return pattern;
+            }
+            misses++;
+        }
+        Pattern pattern = Pattern.compile(regex, getFlags(caseSensitive));
+        synchronized(this)
+        {
+            patterns.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns if the regular expression <code>regex</code> matches
+     * <code>source</code>, ignoring case, if <code>caseSensitive</code>
+     * is <code>false</code>.
+     * @param source the source String
+     * @param regex the regular expression
+     * @param caseSensitive is the comparison case sensitive
+     * @return <code>true</code> if the strings matches
+     *         <code>false</code> otherwise
+     */
+    public boolean matches(String source, String regex, boolean caseSensitive)
+    {
+        return getPattern(regex, caseSensitive).matcher(source).matches();
+    }
+
+    /**
+     * Returns the maximum number of cached patterns per case sensitivity.
+     * @return the maximum size
+     */
+    public int getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of currently cached patterns.
+     * @return the number of cached patterns
+     */
+    public synchronized int size()
+    {
+        return caseSensitivePatterns.size() + caseInsensitivePatterns.size();
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     * @return the number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the pattern.
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Resets the hit and miss counters. The cached patterns
+     * are not affected.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Removes all cached patterns and resets the hit and miss counters.
+     */
+    public synchronized void clear()
+    {
+        caseSensitivePatterns.clear();
+        caseInsensitivePatterns.clear();
+        resetStatistics();
+    }
+
+    private int getFlags(boolean caseSensitive)
+    {
+        if(caseSensitive) return Pattern.DOTALL;
+        return Pattern.DOTALL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+    }
+
+    private static class LRUMap extends LinkedHashMap
+    {
+        private final int maximumSize;
+
+        public LRUMap(int maximumSize)
+        {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+            return size() > maximumSize;
+        }
+    }
+}
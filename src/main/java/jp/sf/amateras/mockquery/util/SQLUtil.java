@@ -32,4 +32,142 @@ public class SQLUtil
             throw new SQLException("fetchDirection must be either FETCH_FORWARD, FETCH_REVERSE or FETCH_UNKNOWN");
         }
     }
+    
+    /**
+     * Returns the canonical form of the specified SQL string. 
+     * Whitespace is collapsed into a single blank and removed
+     * at the beginning and the end. If <code>foldCase</code> is 
+     * <code>true</code>, all characters outside of quoted literals
+     * and quoted identifiers are converted to lower case. If
+     * <code>replaceLiterals</code> is <code>true</code>, string
+     * literals and numeric literals are replaced by <i>?</i>, so
+     * statements that only differ in their literals have the same
+     * canonical form. Quoted identifiers are never changed.
+     * @param sql the SQL string
+     * @param foldCase convert the SQL string to lower case
+     * @param replaceLiterals replace literals by <i>?</i>
+     * @return the canonical SQL string
+     */
+    public static String canonicalize(String sql, boolean foldCase, boolean replaceLiterals)
+    {
+        if(null == sql) return null;
+        int length = sql.length();
+        StringBuffer buffer = new StringBuffer(length);
+        boolean pendingBlank = false;
+        int index = 0;
+        while(index < length)
+        {
+            char nextChar = sql.charAt(index);
+            if(Character.isWhitespace(nextChar))
+            {
+                pendingBlank = (buffer.length() > 0);
+                index++;
+                continue;
+            }
+            if(pendingBlank)
+            {
+                buffer.append(' ');
+                pendingBlank = false;
+            }
+            if(nextChar == '\'' || nextChar == '"' || nextChar == '`')
+            {
+                int end = getEndOfQuotedString(sql, index);
+                if(nextChar == '\'' && replaceLiterals)
+                {
+                    buffer.append('?');
+                }
+                else
+                {
+                    buffer.append(sql, index, end);
+                }
+                index = end;
+            }
+            else if(replaceLiterals && Character.isDigit(nextChar) && !endsWithIdentifierPart(buffer))
+            {
+                index = getEndOfNumber(sql, index);
+                buffer.append('?');
+            }
+            else
+            {
+                buffer.append(foldCase ? Character.toLowerCase(nextChar) : nextChar);
+                index++;
+            }
+        }
+        return buffer.toString();
+    }
+    
+    /**
+     * Computes a 64 bit fingerprint of the specified SQL string
+     * using the FNV-1a hash function. Usually the SQL string is
+     * canonicalized with {@link #canonicalize} before.
+     * @param sql the SQL string
+     * @return the fingerprint
+     */
+    public static long computeFingerprint(String sql)
+    {
+        long fingerprint = 0xcbf29ce484222325L;
+        if(null == sql) return fingerprint;
+        for(int ii = 0; ii < sql.length(); ii++)
+        {
+            char nextChar = sql.charAt(ii);
+            fingerprint ^= (nextChar & 0xff);
+            fingerprint *= 0x100000001b3L;
+            fingerprint ^= (nextChar >>> 8);
+            fingerprint *= 0x100000001b3L;
+        }
+        return fingerprint;
+    }
+    
+    private static int getEndOfQuotedString(String sql, int start)
+    {
+        char quote = sql.charAt(start);
+        int index = start + 1;
+        while(index < sql.length())
+        {
+            if(sql.charAt(index) == quote)
+            {
+                if(index + 1 < sql.length() && sql.charAt(index + 1) == quote)
+                {
+                    index += 2;
+                    continue;
+                }
+                return index + 1;
+            }
+            index++;
+        }
+        return sql.length();
+    }
+    
+    private static int getEndOfNumber(String sql, int start)
+    {
+        int index = start;
+        while(index < sql.length() && (Character.isDigit(sql.charAt(index)) || sql.charAt(index) == '.'))
+        {
+            index++;
+        }
+        if(index < sql.length() && (sql.charAt(index) == 'e' || sql.charAt(index) == 'E'))
+        {
+            int exponent = index + 1;
+            if(exponent < sql.length() && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-'))
+            {
+                exponent++;
+            }
+            if(exponent < sql.length() && Character.isDigit(sql.charAt(exponent)))
+            {
+                index = exponent;
+                while(index < sql.length() && Character.isDigit(sql.charAt(index)))
+                {
+                    index++;
+                }
+            }
+        }
+        return index;
+    }
+    
+    private static boolean endsWithIdentifierPart(StringBuffer buffer)
+    {
+        if(buffer.length() == 0) return false;
+        char lastChar = buffer.charAt(buffer.length() - 1);
+        return Character.isLetterOrDigit(lastChar) || lastChar == '_' || lastChar == '$';
+    }
 }
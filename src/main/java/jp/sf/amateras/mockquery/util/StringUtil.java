@@ -6,7 +6,6 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * Simple util class for <code>String</code> related methods.
@@ -314,9 +313,75 @@ public class StringUtil
     }
 
     
+    /**
+     * Returns the case folded version of the specified character, i.e.
+     * two characters are equal ignoring case, if their folded versions
+     * are equal. This is the same comparison <code>String.equalsIgnoreCase</code>
+     * and <code>String.regionMatches</code> use.
+     * @param character the character
+     * @return the folded character
+     */
+    public static char foldCase(char character)
+    {
+        return Character.toLowerCase(Character.toUpperCase(character));
+    }
+    
+    /**
+     * Returns the case folded version of the specified string, where
+     * each character is folded with {@link #foldCase(char)}.
+     * Unlike <code>String.toLowerCase</code>, the result does not
+     * depend on the default locale and the length of the string is
+     * not changed. If the string is already folded, it is returned
+     * without creating a new string.
+     * @param string the string
+     * @return the folded string
+     */
+    public static String foldCase(String string)
+    {
+        char[] chars = null;
+        for(int ii = 0; ii < string.length(); ii++)
+        {
+            char nextChar = string.charAt(ii);
+            char foldedChar = foldCase(nextChar);
+            if(foldedChar != nextChar)
+            {
+                if(null == chars) chars = string.toCharArray();
+                chars[ii] = foldedChar;
+            }
+        }
+        return (null == chars) ? string : new String(chars);
+    }
+    
+    /**
+     * Returns the index of the first occurrence of <code>target</code>
+     * in <code>source</code>, ignoring case. Characters are compared
+     * like <code>String.regionMatches</code> does, so this method
+     * does not create any objects.
+     * @param source the source String
+     * @param target the target String
+     * @return the index of the first occurrence or -1, if
+     *         <code>source</code> does not contain <code>target</code>
+     */
+    public static int indexOfIgnoreCase(String source, String target)
+    {
+        int targetLength = target.length();
+        if(targetLength == 0) return 0;
+        int lastStart = source.length() - targetLength;
+        char firstChar = foldCase(target.charAt(0));
+        for(int ii = 0; ii <= lastStart; ii++)
+        {
+            if(foldCase(source.charAt(ii)) == firstChar && source.regionMatches(true, ii + 1, target, 1, targetLength - 1))
+            {
+                return ii;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Returns if the specified strings are equal, ignoring
      * case, if <code>caseSensitive</code> is <code>false</code>.
+     * Does not create any objects.
      * @param source the source String
      * @param target the target String
      * @param caseSensitive is the comparison case sensitive
@@ -325,17 +390,17 @@ public class StringUtil
      */
     public static boolean matchesExact(String source, String target, boolean caseSensitive)
     {
-        if(!caseSensitive)
+        if(caseSensitive)
         {
-            source = source.toLowerCase();
-            target = target.toLowerCase();
+            return source.equals(target);
         }
-        return (source.equals(target));
+        return source.equalsIgnoreCase(target);
     }
     
     /**
      * Returns if <code>source</code> contains <code>target</code>, 
      * ignoring case, if <code>caseSensitive</code> is <code>false</code>.
+     * Does not create any objects.
      * @param source the source String
      * @param target the target String
      * @param caseSensitive is the comparison case sensitive
@@ -344,18 +409,18 @@ public class StringUtil
      */
     public static boolean matchesContains(String source, String target, boolean caseSensitive)
     {
-        if(!caseSensitive)
+        if(caseSensitive)
         {
-            source = source.toLowerCase();
-            target = target.toLowerCase();
+            return (-1 != source.indexOf(target));
         }
-        return (-1 != source.indexOf(target));
+        return (-1 != indexOfIgnoreCase(source, target));
     }
     
     /**
      * Returns if the regular expression <code>target</code> matches 
      * <code>source</code>, ignoring case, if <code>caseSensitive</code> 
-     * is <code>false</code>.
+     * is <code>false</code>. The compiled patterns are kept in the
+     * cache of {@link PatternCache#getDefault}.
      * @param source the source String
      * @param target the target String
      * @param caseSensitive is the comparison case sensitive
@@ -364,11 +429,6 @@ public class StringUtil
      */
     public static boolean matchesRegex(String source, String target, boolean caseSensitive)
     {
-        if(!caseSensitive)
-        {
-        	source = source.toLowerCase();
-        	target = target.toLowerCase();
-        }
-        return Pattern.compile(target, Pattern.DOTALL).matcher(source).matches();
+        return PatternCache.getDefault().matches(source, target, caseSensitive);
     }
 }
@@ -0,0 +1,82 @@
+package jp.sf.amateras.mockquery.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe counter for values that are updated by many threads.
+ * The counter is split into stripes and each thread updates the stripe
+ * of its thread id, so concurrent updates rarely hit the same cell.
+ * The stripes are padded to different cache lines. Reading the counter
+ * sums all stripes, i.e. updates are cheap and reads are more expensive.
+ * The sum is not a snapshot, if the counter is updated while it is read.
+ */
+public class StripedCounter
+{
+    private final static int PADDING = 8;
+    private final static int STRIPES = getStripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds the specified value.
+     * @param value the value
+     */
+    public void add(long value)
+    {
+        cells.addAndGet(getCell(), value);
+    }
+
+    /**
+     * Adds one.
+     */
+    public void increment()
+    {
+        cells.incrementAndGet(getCell());
+    }
+
+    /**
+     * Returns the sum of all stripes.
+     * @return the value of the counter
+     */
+    public long get()
+    {
+        long sum = 0;
+        for(int ii = 0; ii < STRIPES; ii++)
+        {
+            sum += cells.get(ii * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the counter to <code>0</code>.
+     */
+    public void reset()
+    {
+        for(int ii = 0; ii < STRIPES; ii++)
+        {
+            cells.set(ii * PADDING, 0);
+        }
+    }
+
+    public String toString()
+    {
+        return String.valueOf(get());
+    }
+
+    private static int getCell()
+    {
+        return ((int)Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    private static int getStripes()
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while(stripes < processors * 2 && stripes < 64)
+        {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}